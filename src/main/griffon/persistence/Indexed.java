@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.persistence;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a domain property as indexed. Mappings that support secondary indexes
+ * use them to resolve equality and null checks on the property without scanning
+ * every stored instance.
+ *
+ * @author Andres Almiray
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface Indexed {
+    /**
+     * Whether the index keeps its keys sorted. Ordered indexes also resolve range
+     * comparisons ({@code <}, {@code <=}, {@code >}, {@code >=}) and sorting by the property.
+     */
+    boolean ordered() default false;
+}
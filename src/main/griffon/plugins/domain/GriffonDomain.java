@@ -54,6 +54,7 @@ public interface GriffonDomain extends GriffonArtifact, Validateable {
 
         private final String propertyName;
         private final Order order;
+        private volatile ResolvedProperty resolved;
 
         public Comparator(String propertyName) {
             this(propertyName, Order.ASC);
@@ -76,7 +77,23 @@ public interface GriffonDomain extends GriffonArtifact, Validateable {
         }
 
         private GriffonDomainProperty propertyOf(GriffonDomain domain) {
-            return ((GriffonDomainClass) domain.getGriffonClass()).getPropertyByName(propertyName);
+            Class<?> type = domain.getClass();
+            ResolvedProperty property = resolved;
+            if (property == null || property.type != type) {
+                property = new ResolvedProperty(type, ((GriffonDomainClass) domain.getGriffonClass()).getPropertyByName(propertyName));
+                resolved = property;
+            }
+            return property.property;
+        }
+
+        private static final class ResolvedProperty {
+            private final Class<?> type;
+            private final GriffonDomainProperty property;
+
+            private ResolvedProperty(Class<?> type, GriffonDomainProperty property) {
+                this.type = type;
+                this.property = property;
+            }
         }
     }
 }
\ No newline at end of file
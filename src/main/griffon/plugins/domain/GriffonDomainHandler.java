@@ -19,6 +19,8 @@ package griffon.plugins.domain;
 import griffon.core.ApplicationHandler;
 import griffon.plugins.domain.methods.MethodSignature;
 
+import java.util.List;
+
 /**
  * @author Andres Almiray
  */
@@ -28,4 +30,11 @@ public interface GriffonDomainHandler extends ApplicationHandler {
     Object invokeInstanceMethod(Object target, String methodName, Object... args);
 
     Object invokeStaticMethod(Class<GriffonDomain> clazz, String methodName, Object... args);
+
+    /**
+     * Returns the identity of the stored instance holding the same value as the target
+     * for a property constrained as unique, within the given group of properties, or
+     * {@code null} if there is none. The instance may be the target itself.
+     */
+    Object uniqueOwnerOf(GriffonDomain target, String propertyName, List<String> uniquenessGroup);
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A page of query results that also knows how many results matched the query
+ * before {@code offset} and {@code max} were applied.
+ *
+ * @author Andres Almiray
+ */
+public class PagedResultList<T> extends AbstractList<T> implements RandomAccess {
+    private final List<T> results;
+    private final int totalCount;
+
+    public PagedResultList(List<T> results, int totalCount) {
+        this.results = results != null ? results : new ArrayList<T>();
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Returns the number of results matched by the query, ignoring pagination.
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public T get(int index) {
+        return results.get(index);
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    public T set(int index, T element) {
+        return results.set(index, element);
+    }
+
+    public void add(int index, T element) {
+        results.add(index, element);
+    }
+
+    public T remove(int index) {
+        return results.remove(index);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain;
+
+/**
+ * Handle on the transaction a {@code withTransaction} block runs in.
+ * <p/>
+ * Changes made by the block are undone if it throws an exception or if it was marked
+ * rollback-only. Savepoints let the block undo part of its changes and carry on.
+ *
+ * @author Andres Almiray
+ */
+public interface TransactionStatus {
+    /**
+     * Marks the transaction so that its changes are undone once the block completes.
+     */
+    void setRollbackOnly();
+
+    boolean isRollbackOnly();
+
+    /**
+     * Returns a marker for the changes made so far.
+     */
+    Object createSavepoint();
+
+    /**
+     * Undoes every change made after the savepoint was created. Savepoints created
+     * after the supplied one can no longer be used.
+     */
+    void rollbackToSavepoint(Object savepoint);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.domain.exceptions;
+
+/**
+ * Thrown when an instance is saved or deleted with a {@code version} that no longer
+ * matches the version of the stored row, meaning the row was changed in the meantime.
+ *
+ * @author Andres Almiray
+ */
+public class StaleObjectException extends GriffonDomainException {
+    private final String domainClassName;
+    private final Object identity;
+
+    public StaleObjectException(String domainClassName, Object identity, Object expectedVersion, Object actualVersion) {
+        super("Instance of " + domainClassName + " with id = " + identity + " was changed by another save (version " +
+            expectedVersion + " was expected but the stored version is " + actualVersion + ")");
+        this.domainClassName = domainClassName;
+        this.identity = identity;
+    }
+
+    public String getDomainClassName() {
+        return domainClassName;
+    }
+
+    public Object getIdentity() {
+        return identity;
+    }
+}
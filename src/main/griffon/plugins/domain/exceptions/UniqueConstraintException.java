@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.domain.exceptions;
+
+import griffon.plugins.validation.exceptions.ValidationException;
+
+/**
+ * Thrown when an instance is saved with a value that another stored instance already
+ * holds for a property constrained as {@code unique}.
+ *
+ * @author Andres Almiray
+ */
+public class UniqueConstraintException extends ValidationException {
+    private final String propertyName;
+    private final Object value;
+
+    public UniqueConstraintException(String domainClassName, String propertyName, Object value) {
+        super("Constraint 'unique' failed validation for property '" + propertyName + "' of " + domainClassName + " with value " + value);
+        this.propertyName = propertyName;
+        this.value = value;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
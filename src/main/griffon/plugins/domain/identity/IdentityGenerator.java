@@ -0,0 +1,47 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.plugins.domain.GriffonDomainClass;
+
+import java.util.List;
+
+/**
+ * Hands out the identities of new instances of a single domain class.
+ * <p/>
+ * Implementations must provide a public no-args constructor and be safe for use by
+ * concurrent threads. Generators producing {@code long} identities keep them above
+ * the high-water mark recorded by their {@link IdentityStore}, raising the mark
+ * before handing out identities beyond it, so that identities remain unique across
+ * restarts even if the rows that used them have been deleted.
+ *
+ * @author Andres Almiray
+ * @see griffon.transform.Domain#identity()
+ */
+public interface IdentityGenerator {
+    /**
+     * Called once, before any identity is requested.
+     */
+    void init(GriffonDomainClass domainClass, IdentityStore store);
+
+    Object nextIdentity();
+
+    /**
+     * Returns {@code count} new identities in ascending order where applicable.
+     */
+    List<Object> nextIdentities(int count);
+}
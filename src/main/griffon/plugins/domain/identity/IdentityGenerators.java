@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+
+/**
+ * @author Andres Almiray
+ */
+final class IdentityGenerators {
+    private IdentityGenerators() {
+
+    }
+
+    /**
+     * Fails unless the identity property of the domain class can hold values of one of the supplied types.
+     */
+    static Class<?> checkIdentityType(GriffonDomainClass domainClass, Class<?>... types) {
+        GriffonDomainProperty identity = domainClass.getIdentity();
+        if (identity == null) {
+            throw new IllegalArgumentException(domainClass.getName() + " does not have an " + GriffonDomainProperty.IDENTITY + " property.");
+        }
+        Class<?> propertyType = identity.getType();
+        if (propertyType == Long.TYPE) propertyType = Long.class;
+        for (Class<?> type : types) {
+            if (propertyType.isAssignableFrom(type)) return type;
+        }
+        throw new IllegalArgumentException("The " + GriffonDomainProperty.IDENTITY + " property of " + domainClass.getName() +
+            " is of type " + identity.getType().getName() + " which cannot hold identities of type " + types[0].getName());
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.plugins.domain.GriffonDomainClass;
+
+/**
+ * Keeps the identity high-water mark of every domain class of a datastore. Marks are
+ * persisted along with the datastore when it is journaled or snapshotted; loading rows
+ * raises the mark to their highest identity as well.
+ *
+ * @author Andres Almiray
+ */
+public interface IdentityStore {
+    /**
+     * Returns the highest identity that may have been handed out for the domain class, or 0.
+     */
+    long getHighWaterMark(GriffonDomainClass domainClass);
+
+    /**
+     * Raises the mark of the domain class. The new mark is recorded before any change
+     * made afterwards, hence identities up to the mark may be handed out once this returns.
+     */
+    void raiseHighWaterMark(GriffonDomainClass domainClass, long mark);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.core.GriffonApplication;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.util.ApplicationHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+
+/**
+ * Hands out consecutive {@code long} identities starting at 1. Identities are taken
+ * from blocks of {@code griffon.domain.identity.blockSize} values (100 by default);
+ * the end of every block is recorded as the high-water mark before the block is used,
+ * hence identities are never reused after a restart, at the cost of skipping the rest
+ * of the block that was in use.
+ *
+ * @author Andres Almiray
+ */
+public class SequenceIdentityGenerator implements IdentityGenerator {
+    private static final String KEY_BLOCK_SIZE = "griffon.domain.identity.blockSize";
+    private final AtomicLong current = new AtomicLong();
+    private volatile long limit;
+    private int blockSize;
+    private GriffonDomainClass domainClass;
+    private IdentityStore store;
+
+    public void init(GriffonDomainClass domainClass, IdentityStore store) {
+        IdentityGenerators.checkIdentityType(domainClass, Long.class);
+        GriffonApplication app = ApplicationHolder.getApplication();
+        Map config = app != null ? app.getConfig() : Collections.emptyMap();
+        this.blockSize = Math.max(1, getConfigValueAsInt(config, KEY_BLOCK_SIZE, 100));
+        this.domainClass = domainClass;
+        this.store = store;
+        this.limit = store.getHighWaterMark(domainClass);
+        this.current.set(limit);
+    }
+
+    public Object nextIdentity() {
+        return reserve(1);
+    }
+
+    public List<Object> nextIdentities(int count) {
+        List<Object> identities = new ArrayList<Object>(Math.max(0, count));
+        if (count <= 0) return identities;
+        long first = reserve(count);
+        for (long identity = first; identity < first + count; identity++) {
+            identities.add(identity);
+        }
+        return identities;
+    }
+
+    /**
+     * Reserves a run of consecutive identities, returning the first one.
+     */
+    private long reserve(int count) {
+        while (true) {
+            long last = current.get();
+            if (last + count <= limit) {
+                if (current.compareAndSet(last, last + count)) return last + 1;
+                continue;
+            }
+            synchronized (this) {
+                long issued = current.get();
+                if (issued + count > limit) {
+                    long mark = issued + Math.max(blockSize, count);
+                    store.raiseHighWaterMark(domainClass, mark);
+                    limit = mark;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.core.GriffonApplication;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.util.ApplicationHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+
+/**
+ * Hands out 64-bit identities ordered by creation time, made of 41 bits of milliseconds
+ * since 2013-01-01 UTC, a 10-bit node number read from {@code griffon.domain.identity.node}
+ * and a 12-bit sequence within the millisecond.
+ * <p/>
+ * Identities keep increasing even if the clock goes back or more than 4096 identities
+ * are requested within a millisecond, in which case the following milliseconds are
+ * borrowed. The high-water mark is raised one second ahead of the clock, so that
+ * identities handed out after a restart follow those handed out before it.
+ *
+ * @author Andres Almiray
+ */
+public class TimeOrderedIdentityGenerator implements IdentityGenerator {
+    private static final String KEY_NODE = "griffon.domain.identity.node";
+    private static final long EPOCH = 1356998400000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+    private static final long RESERVATION = 1000L;
+    private long node;
+    private long lastTimestamp;
+    private int sequence;
+    private long reservedTimestamp;
+    private GriffonDomainClass domainClass;
+    private IdentityStore store;
+
+    public void init(GriffonDomainClass domainClass, IdentityStore store) {
+        IdentityGenerators.checkIdentityType(domainClass, Long.class);
+        GriffonApplication app = ApplicationHolder.getApplication();
+        Map config = app != null ? app.getConfig() : Collections.emptyMap();
+        int node = getConfigValueAsInt(config, KEY_NODE, 0);
+        if (node < 0 || node >= 1 << NODE_BITS) {
+            throw new IllegalArgumentException("Invalid node number " + node + "; it must be between 0 and " + ((1 << NODE_BITS) - 1));
+        }
+        this.node = node;
+        this.domainClass = domainClass;
+        this.store = store;
+        // resume after the last millisecond that may have been used
+        this.lastTimestamp = store.getHighWaterMark(domainClass) >>> (NODE_BITS + SEQUENCE_BITS);
+        this.reservedTimestamp = lastTimestamp;
+        this.sequence = MAX_SEQUENCE;
+    }
+
+    public synchronized Object nextIdentity() {
+        return next();
+    }
+
+    public synchronized List<Object> nextIdentities(int count) {
+        List<Object> identities = new ArrayList<Object>(Math.max(0, count));
+        for (int i = 0; i < count; i++) {
+            identities.add(next());
+        }
+        return identities;
+    }
+
+    private long next() {
+        long timestamp = Math.max(System.currentTimeMillis() - EPOCH, lastTimestamp);
+        if (timestamp == lastTimestamp) {
+            if (sequence == MAX_SEQUENCE) {
+                timestamp++;
+                sequence = 0;
+            } else {
+                sequence++;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+
+        if (timestamp > reservedTimestamp) {
+            reservedTimestamp = timestamp + RESERVATION;
+            store.raiseHighWaterMark(domainClass, ((reservedTimestamp + 1) << (NODE_BITS + SEQUENCE_BITS)) - 1);
+        }
+        return timestamp << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | sequence;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.identity;
+
+import griffon.plugins.domain.GriffonDomainClass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hands out random (version 4) UUIDs. The domain class must declare its own {@code id}
+ * property of type {@code UUID} or {@code String}; Strings hold the canonical form.
+ * No high-water mark is kept, as random identities do not depend on previous ones.
+ *
+ * @author Andres Almiray
+ */
+public class UuidIdentityGenerator implements IdentityGenerator {
+    private boolean text;
+
+    public void init(GriffonDomainClass domainClass, IdentityStore store) {
+        text = IdentityGenerators.checkIdentityType(domainClass, UUID.class, String.class) == String.class;
+    }
+
+    public Object nextIdentity() {
+        UUID identity = UUID.randomUUID();
+        return text ? identity.toString() : identity;
+    }
+
+    public List<Object> nextIdentities(int count) {
+        List<Object> identities = new ArrayList<Object>(Math.max(0, count));
+        for (int i = 0; i < count; i++) {
+            identities.add(nextIdentity());
+        }
+        return identities;
+    }
+}
@@ -15,6 +15,9 @@
  */
 package griffon.plugins.domain.methods;
 
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+
 /**
  * @author Andres Almiray
  */
@@ -22,6 +25,8 @@ public interface CountMethod extends StaticMethodInvocation {
     String METHOD_NAME = "count";
 
     MethodSignature[] METHOD_SIGNATURES = new MethodSignature[]{
-        new MethodSignature(true, Integer.TYPE, METHOD_NAME)
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME),
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME, Criterion.class),
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME, Closure.class)
     };
 }
\ No newline at end of file
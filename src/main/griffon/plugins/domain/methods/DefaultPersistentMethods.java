@@ -24,7 +24,10 @@ public enum DefaultPersistentMethods {
     COUNT_BY(CountByMethod.METHOD_NAME, CountByMethod.METHOD_SIGNATURES),
     CREATE(CreateMethod.METHOD_SIGNATURES),
     SAVE(SaveMethod.METHOD_SIGNATURES),
+    SAVE_ALL(SaveAllMethod.METHOD_NAME, SaveAllMethod.METHOD_SIGNATURES),
     DELETE(DeleteMethod.METHOD_SIGNATURES),
+    DELETE_ALL(DeleteAllMethod.METHOD_NAME, DeleteAllMethod.METHOD_SIGNATURES),
+    UPDATE_ALL(UpdateAllMethod.METHOD_NAME, UpdateAllMethod.METHOD_SIGNATURES),
     GET(GetMethod.METHOD_SIGNATURES),
     EXISTS(ExistsMethod.METHOD_SIGNATURES),
     GET_ALL(GetAllMethod.METHOD_NAME, GetAllMethod.METHOD_SIGNATURES),
@@ -43,7 +46,9 @@ public enum DefaultPersistentMethods {
     FIND_OR_SAVE_BY(FindOrSaveByMethod.METHOD_NAME, FindOrSaveByMethod.METHOD_SIGNATURES),
     FIND_OR_SAVE_WHERE(FindOrSaveWhereMethod.METHOD_NAME, FindOrSaveWhereMethod.METHOD_SIGNATURES),
     // WHERE(WhereMethod.METHOD_NAME, WhereMethod.METHOD_SIGNATURES),
-    WITH_CRITERIA(WithCriteriaMethod.METHOD_NAME, WithCriteriaMethod.METHOD_SIGNATURES);
+    WITH_CRITERIA(WithCriteriaMethod.METHOD_NAME, WithCriteriaMethod.METHOD_SIGNATURES),
+    WITH_TRANSACTION(WithTransactionMethod.METHOD_NAME, WithTransactionMethod.METHOD_SIGNATURES),
+    STREAM(StreamMethod.METHOD_SIGNATURES);
 
     private final String methodName;
     private final MethodSignature[] methodSignatures;
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.domain.methods;
+
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+
+import java.util.Collection;
+
+/**
+ * @author Andres Almiray
+ */
+public interface DeleteAllMethod extends StaticMethodInvocation {
+    String METHOD_NAME = "deleteAll";
+
+    MethodSignature[] METHOD_SIGNATURES = new MethodSignature[]{
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME, Collection.class),
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME, Criterion.class),
+        new MethodSignature(true, Integer.TYPE, METHOD_NAME, Closure.class)
+    };
+}
@@ -36,12 +36,13 @@ public abstract class AbstractCriterionEvaluator implements CriterionEvaluator {
         }
         if (criterion instanceof CompositeCriterion) {
             CompositeCriterion compositeCriterion = (CompositeCriterion) criterion;
+            boolean any = compositeCriterion.getOperator() == Operator.OR;
             for (Criterion c : compositeCriterion.getCriteria()) {
-                if (!eval(target, c)) {
-                    return false;
+                if (eval(target, c) == any) {
+                    return any;
                 }
             }
-            return true;
+            return !any;
         } else if (criterion instanceof UnaryExpression) {
             return evalUnary((UnaryExpression) criterion, target);
         } else if (criterion instanceof BinaryExpression) {
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads rows from RFC 4180 formatted text. The first record holds the column names.
+ * <p/>
+ * Values are returned as Strings. Quoted values may span several lines; an empty
+ * unquoted value is read as null whereas {@code ""} is read as an empty String.
+ * Blank lines are skipped.
+ *
+ * @author Andres Almiray
+ */
+public class CsvRowReader implements RowReader {
+    private final Reader reader;
+    private final char separator;
+    private final char[] buffer = new char[1 << 16];
+    private final StringBuilder field = new StringBuilder();
+    private int position;
+    private int limit;
+    private long record;
+    private String[] columns;
+
+    public CsvRowReader(Reader reader) {
+        this(reader, ',');
+    }
+
+    public CsvRowReader(Reader reader, char separator) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader is null!");
+        }
+        if (separator == '"' || separator == '\r' || separator == '\n') {
+            throw new IllegalArgumentException("Invalid separator '" + separator + "'");
+        }
+        this.reader = reader;
+        this.separator = separator;
+    }
+
+    public Map<String, Object> read() throws IOException {
+        if (columns == null && !readColumns()) return null;
+        List<String> values;
+        do {
+            values = readRecord();
+            if (values == null) return null;
+        } while (values.size() == 1 && values.get(0) == null);
+
+        Map<String, Object> row = new LinkedHashMap<String, Object>(columns.length * 2);
+        for (int i = 0; i < columns.length && i < values.size(); i++) {
+            row.put(columns[i], values.get(i));
+        }
+        return row;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean readColumns() throws IOException {
+        List<String> names = readRecord();
+        if (names == null) return false;
+        columns = new String[names.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = names.get(i) != null ? names.get(i).trim() : "";
+        }
+        return true;
+    }
+
+    private List<String> readRecord() throws IOException {
+        int c = next();
+        if (c == -1) return null;
+        record++;
+        List<String> values = new ArrayList<String>(columns != null ? columns.length : 16);
+        while (true) {
+            field.setLength(0);
+            boolean quoted = c == '"';
+            if (quoted) {
+                while (true) {
+                    c = next();
+                    if (c == -1) {
+                        throw new StreamCorruptedException("Unterminated quoted value in record " + record);
+                    } else if (c == '"') {
+                        c = next();
+                        if (c != '"') break;
+                    }
+                    field.append((char) c);
+                }
+                if (c != separator && c != '\r' && c != '\n' && c != -1) {
+                    throw new StreamCorruptedException("Unexpected character '" + (char) c + "' after quoted value in record " + record);
+                }
+            } else {
+                while (c != separator && c != '\r' && c != '\n' && c != -1) {
+                    field.append((char) c);
+                    c = next();
+                }
+            }
+            values.add(quoted || field.length() > 0 ? field.toString() : null);
+
+            if (c == separator) {
+                c = next();
+            } else {
+                if (c == '\r' && next() != '\n' && limit > 0) position--;
+                return values;
+            }
+        }
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
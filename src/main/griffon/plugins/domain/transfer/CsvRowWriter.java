@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes rows as RFC 4180 formatted text, starting with a record holding the column names.
+ * Null values are written as empty unquoted values and empty Strings as {@code ""},
+ * hence both can be told apart by {@link CsvRowReader}.
+ *
+ * @author Andres Almiray
+ */
+public class CsvRowWriter implements RowWriter {
+    private final Writer writer;
+    private final char separator;
+    private List<String> columns;
+
+    public CsvRowWriter(Writer writer) {
+        this(writer, ',');
+    }
+
+    public CsvRowWriter(Writer writer, char separator) {
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null!");
+        }
+        if (separator == '"' || separator == '\r' || separator == '\n') {
+            throw new IllegalArgumentException("Invalid separator '" + separator + "'");
+        }
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 1 << 16);
+        this.separator = separator;
+    }
+
+    public void writeHeader(List<String> columns) throws IOException {
+        this.columns = new ArrayList<String>(columns);
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) writer.write(separator);
+            writeValue(columns.get(i));
+        }
+        writer.write('\n');
+    }
+
+    public void write(Map<String, Object> row) throws IOException {
+        if (columns == null) {
+            writeHeader(new ArrayList<String>(row.keySet()));
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) writer.write(separator);
+            writeValue(row.get(columns.get(i)));
+        }
+        writer.write('\n');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) return;
+        String text = value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : String.valueOf(value);
+        boolean quote = text.length() == 0;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == separator || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.methods.StreamMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes the instances of a domain class to a {@link RowWriter}. Instances are read
+ * through {@code stream}, one at a time in identity order, so no intermediate list
+ * of rows is built regardless of the size of the dataset.
+ * <p/>
+ * Columns are the {@code id} followed by every persistent property. Dates are written
+ * as ISO 8601 timestamps, enums by name and references to other domain instances by
+ * their identity, which makes the output suitable for {@link DomainImporter}.
+ *
+ * @author Andres Almiray
+ */
+public class DomainExporter {
+    private final GriffonDomainClass domainClass;
+    private final List<GriffonDomainProperty> properties = new ArrayList<GriffonDomainProperty>();
+    private final List<String> columns = new ArrayList<String>();
+
+    public DomainExporter(Class<?> clazz) {
+        this(TransferSupport.domainClassOf(clazz));
+    }
+
+    public DomainExporter(GriffonDomainClass domainClass) {
+        if (domainClass == null) {
+            throw new IllegalArgumentException("Domain class is null!");
+        }
+        this.domainClass = domainClass;
+        properties.add(domainClass.getIdentity());
+        columns.add(GriffonDomainProperty.IDENTITY);
+        for (GriffonDomainProperty property : domainClass.getPersistentProperties()) {
+            if (GriffonDomainProperty.IDENTITY.equals(property.getName())) continue;
+            properties.add(property);
+            columns.add(property.getName());
+        }
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Writes every instance, returning how many were written. The writer is flushed but left open.
+     */
+    public long exportRows(RowWriter writer) throws IOException {
+        return exportRows(writer, (Criterion) null);
+    }
+
+    public long exportRows(RowWriter writer, Closure criteria) throws IOException {
+        return exportRows(writer, GriffonDomainClassUtils.getInstance().buildCriterion(criteria));
+    }
+
+    /**
+     * Writes the instances matching the criterion, returning how many were written.
+     * The writer is flushed but left open.
+     */
+    public long exportRows(RowWriter writer, Criterion criterion) throws IOException {
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null!");
+        }
+        Object[] arguments = criterion != null ? new Object[]{criterion} : new Object[0];
+        Iterator<GriffonDomain> rows = (Iterator<GriffonDomain>) domainClass.getDomainHandler().invokeStaticMethod(domainClass.getClazz(), StreamMethod.METHOD_NAME, arguments);
+
+        writer.writeHeader(columns);
+        long count = 0;
+        while (rows.hasNext()) {
+            GriffonDomain entity = rows.next();
+            Map<String, Object> row = new LinkedHashMap<String, Object>(columns.size() * 2);
+            for (int i = 0; i < properties.size(); i++) {
+                row.put(columns.get(i), TransferSupport.format(properties.get(i).getValue(entity)));
+            }
+            writer.write(row);
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+}
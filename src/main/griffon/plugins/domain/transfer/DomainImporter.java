@@ -0,0 +1,279 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import griffon.core.GriffonApplication;
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.exceptions.GriffonDomainException;
+import griffon.plugins.domain.methods.SaveAllMethod;
+import griffon.util.ApplicationHolder;
+import griffon.util.CollectionUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+
+/**
+ * Streams rows into a domain class through a pipeline of parallel workers.
+ * <p/>
+ * The calling thread reads rows and hands them over in batches through a bounded queue,
+ * blocking whenever the workers fall behind, so that only a few batches are held in
+ * memory at any time. Each worker converts the raw values of a batch to property
+ * values, then stores the batch with {@code saveAll}, which validates every instance
+ * through its constraints on the worker thread. Rows that cannot be converted or fail
+ * validation are recorded in the returned {@link ImportReport}.
+ * <p/>
+ * Values of the {@code id} and {@code version} columns and of columns that do not match
+ * a persistent property are ignored, as every row is inserted as a new instance.
+ * Identities are handed out per batch, hence they follow the order of the source only
+ * when a single worker is used.
+ * <p/>
+ * Defaults are read from the {@code griffon.domain.import.batchSize}, {@code workers},
+ * {@code queueCapacity} and {@code maxErrors} configuration flags.
+ *
+ * @author Andres Almiray
+ */
+public class DomainImporter {
+    private static final String KEY_BATCH_SIZE = "griffon.domain.import.batchSize";
+    private static final String KEY_WORKERS = "griffon.domain.import.workers";
+    private static final String KEY_QUEUE_CAPACITY = "griffon.domain.import.queueCapacity";
+    private static final String KEY_MAX_ERRORS = "griffon.domain.import.maxErrors";
+    private static final List<Row> END = new ArrayList<Row>(0);
+    private static final Map<String, Object> SAVE_OPTIONS = Collections.unmodifiableMap(CollectionUtils.<String, Object>map().e("failOnError", false));
+
+    private final GriffonDomainClass domainClass;
+    private final Map<String, GriffonDomainProperty> properties = new LinkedHashMap<String, GriffonDomainProperty>();
+    private int batchSize;
+    private int workers;
+    private int queueCapacity;
+    private int maxErrors;
+
+    public DomainImporter(Class<?> clazz) {
+        this(TransferSupport.domainClassOf(clazz));
+    }
+
+    public DomainImporter(GriffonDomainClass domainClass) {
+        if (domainClass == null) {
+            throw new IllegalArgumentException("Domain class is null!");
+        }
+        this.domainClass = domainClass;
+        for (GriffonDomainProperty property : domainClass.getPersistentProperties()) {
+            if (GriffonDomainProperty.IDENTITY.equals(property.getName()) || GriffonDomainProperty.VERSION.equals(property.getName())) {
+                continue;
+            }
+            properties.put(property.getName(), property);
+        }
+
+        GriffonApplication app = ApplicationHolder.getApplication();
+        Map config = app != null ? app.getConfig() : Collections.emptyMap();
+        setBatchSize(getConfigValueAsInt(config, KEY_BATCH_SIZE, 1000));
+        setWorkers(getConfigValueAsInt(config, KEY_WORKERS, Runtime.getRuntime().availableProcessors()));
+        setQueueCapacity(getConfigValueAsInt(config, KEY_QUEUE_CAPACITY, workers * 2));
+        setMaxErrors(getConfigValueAsInt(config, KEY_MAX_ERRORS, 1000));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Returns how many batches may wait for a worker before reading blocks.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Returns how many rejected rows are reported in detail.
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = Math.max(0, maxErrors);
+    }
+
+    /**
+     * Imports every row of the supplied reader, which is left open.
+     */
+    public ImportReport importRows(RowReader reader) throws IOException {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader is null!");
+        }
+        final ImportReport report = new ImportReport(maxErrors);
+        final BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<List<Row>>(queueCapacity);
+        final AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "griffon-domain-import-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws InterruptedException {
+                        for (List<Row> batch = queue.take(); batch != END; batch = queue.take()) {
+                            importBatch(batch, report);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long number = 0;
+            List<Row> batch = new ArrayList<Row>(batchSize);
+            for (Map<String, Object> values = reader.read(); values != null; values = reader.read()) {
+                batch.add(new Row(++number, values));
+                if (batch.size() == batchSize) {
+                    enqueue(queue, batch, futures);
+                    batch = new ArrayList<Row>(batchSize);
+                }
+            }
+            report.setRead(number);
+            if (!batch.isEmpty()) enqueue(queue, batch, futures);
+            for (int i = 0; i < workers; i++) {
+                enqueue(queue, END, futures);
+            }
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonDomainException("Interrupted while importing " + domainClass.getName(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Waits for room in the queue, failing as soon as a worker does.
+     */
+    private void enqueue(BlockingQueue<List<Row>> queue, List<Row> batch, List<Future<Void>> futures) throws InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<Void> future : futures) {
+                if (future.isDone()) await(future);
+            }
+        }
+    }
+
+    private void await(Future<Void> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new GriffonDomainException(cause);
+        }
+    }
+
+    private void importBatch(List<Row> batch, ImportReport report) {
+        List<GriffonDomain> instances = new ArrayList<GriffonDomain>(batch.size());
+        List<Row> rows = new ArrayList<Row>(batch.size());
+        for (Row row : batch) {
+            GriffonDomain instance = (GriffonDomain) domainClass.newInstance();
+            if (populate(instance, row.values)) {
+                instances.add(instance);
+                rows.add(row);
+            } else {
+                report.reject(row.number, row.values, instance.getErrors().getAllErrors());
+            }
+        }
+        if (instances.isEmpty()) return;
+
+        Collection saved;
+        try {
+            saved = (Collection) domainClass.getDomainHandler().invokeStaticMethod(domainClass.getClazz(), SaveAllMethod.METHOD_NAME, instances, SAVE_OPTIONS);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < instances.size(); i++) {
+                GriffonDomain instance = instances.get(i);
+                instance.getErrors().reject("import.failed", String.valueOf(e.getMessage()));
+                report.reject(rows.get(i).number, rows.get(i).values, instance.getErrors().getAllErrors());
+            }
+            return;
+        }
+
+        report.imported(saved.size());
+        if (saved.size() == instances.size()) return;
+        Set<Object> accepted = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        accepted.addAll(saved);
+        for (int i = 0; i < instances.size(); i++) {
+            GriffonDomain instance = instances.get(i);
+            if (!accepted.contains(instance)) {
+                report.reject(rows.get(i).number, rows.get(i).values, instance.getErrors().getAllErrors());
+            }
+        }
+    }
+
+    /**
+     * Copies the values of a row into a new instance, returning false if any of them
+     * could not be converted to the type of its property.
+     */
+    private boolean populate(GriffonDomain instance, Map<String, Object> values) {
+        boolean converted = true;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            GriffonDomainProperty property = properties.get(entry.getKey());
+            if (property == null) continue;
+            try {
+                Object value = TransferSupport.convert(entry.getValue(), property.getType());
+                if (value != null || !property.getType().isPrimitive()) property.setValue(instance, value);
+            } catch (RuntimeException e) {
+                instance.getErrors().rejectField(property.getName(), entry.getValue(), "typeMismatch",
+                    "Cannot convert '" + entry.getValue() + "' to " + property.getType().getSimpleName());
+                converted = false;
+            }
+        }
+        return converted;
+    }
+
+    private static final class Row {
+        private final long number;
+        private final Map<String, Object> values;
+
+        private Row(long number, Map<String, Object> values) {
+            this.number = number;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import griffon.plugins.validation.FieldObjectError;
+import griffon.plugins.validation.ObjectError;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a {@link DomainImporter} run. Rejected rows are counted exactly, while
+ * their details are kept for the first {@code maxErrors} rejections only.
+ *
+ * @author Andres Almiray
+ */
+public class ImportReport {
+    private final int maxErrors;
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<RowError> errors = new ArrayList<RowError>();
+    private long read;
+
+    public ImportReport(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Returns the number of rows read from the source.
+     */
+    public long getRead() {
+        return read;
+    }
+
+    public long getImported() {
+        return imported.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public boolean hasErrors() {
+        return rejected.get() > 0;
+    }
+
+    /**
+     * Returns the details of rejected rows ordered by row number.
+     */
+    public List<RowError> getErrors() {
+        List<RowError> list;
+        synchronized (errors) {
+            list = new ArrayList<RowError>(errors);
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    void setRead(long read) {
+        this.read = read;
+    }
+
+    void imported(int count) {
+        imported.addAndGet(count);
+    }
+
+    void reject(long row, Map<String, Object> values, List<ObjectError> errors) {
+        if (rejected.incrementAndGet() > maxErrors) return;
+        synchronized (this.errors) {
+            this.errors.add(new RowError(row, values, errors));
+        }
+    }
+
+    public String toString() {
+        return "ImportReport{read=" + read + ", imported=" + imported + ", rejected=" + rejected + "}";
+    }
+
+    /**
+     * A row that could not be imported, with the errors found while converting,
+     * validating or saving it.
+     */
+    public static class RowError implements Comparable<RowError> {
+        private final long row;
+        private final Map<String, Object> values;
+        private final List<ObjectError> errors;
+
+        public RowError(long row, Map<String, Object> values, List<ObjectError> errors) {
+            this.row = row;
+            this.values = values;
+            this.errors = new ArrayList<ObjectError>(errors);
+        }
+
+        /**
+         * Returns the 1-based position of the row in the source.
+         */
+        public long getRow() {
+            return row;
+        }
+
+        public Map<String, Object> getValues() {
+            return values;
+        }
+
+        public List<ObjectError> getErrors() {
+            return errors;
+        }
+
+        public int compareTo(RowError other) {
+            return row < other.row ? -1 : (row == other.row ? 0 : 1);
+        }
+
+        public String toString() {
+            StringBuilder b = new StringBuilder("row ").append(row).append(':');
+            for (ObjectError error : errors) {
+                b.append(' ');
+                if (error instanceof FieldObjectError) b.append(((FieldObjectError) error).getFieldName()).append('.');
+                b.append(error.getCode());
+                if (error.getDefaultMessage() != null) b.append(" (").append(error.getDefaultMessage()).append(')');
+            }
+            return b.toString();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import groovy.json.JsonSlurper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+
+/**
+ * Reads rows from JSON objects. Objects may be the elements of a top-level array or
+ * follow each other as in newline delimited JSON; either way only one object is held
+ * in memory at a time.
+ *
+ * @author Andres Almiray
+ */
+public class JsonRowReader implements RowReader {
+    private final Reader reader;
+    private final JsonSlurper slurper = new JsonSlurper();
+    private final char[] buffer = new char[1 << 16];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private long record;
+
+    public JsonRowReader(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader is null!");
+        }
+        this.reader = reader;
+    }
+
+    public Map<String, Object> read() throws IOException {
+        int c = next();
+        while (c == '[' || c == ']' || c == ',' || Character.isWhitespace(c)) {
+            c = next();
+        }
+        if (c == -1) return null;
+        record++;
+        if (c != '{') {
+            throw new StreamCorruptedException("Expected an object but found '" + (char) c + "' at record " + record);
+        }
+
+        text.setLength(0);
+        int depth = 0;
+        boolean string = false;
+        boolean escape = false;
+        while (true) {
+            text.append((char) c);
+            if (string) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    string = false;
+                }
+            } else if (c == '"') {
+                string = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) break;
+            }
+            c = next();
+            if (c == -1) {
+                throw new EOFException("Unterminated object at record " + record);
+            }
+        }
+        return (Map<String, Object>) slurper.parseText(text.toString());
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes rows as a JSON array holding one object per line. The array is closed by {@link #close()}.
+ *
+ * @author Andres Almiray
+ */
+public class JsonRowWriter implements RowWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final Writer writer;
+    private List<String> columns;
+    private boolean started;
+    private boolean empty = true;
+
+    public JsonRowWriter(Writer writer) {
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer is null!");
+        }
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 1 << 16);
+    }
+
+    public void writeHeader(List<String> columns) throws IOException {
+        this.columns = new ArrayList<String>(columns);
+    }
+
+    public void write(Map<String, Object> row) throws IOException {
+        start();
+        writer.write(empty ? "\n{" : ",\n{");
+        empty = false;
+        boolean first = true;
+        for (String column : columns != null ? columns : row.keySet()) {
+            if (!first) writer.write(',');
+            first = false;
+            writeString(column);
+            writer.write(':');
+            writeValue(row.get(column));
+        }
+        writer.write('}');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        start();
+        writer.write("\n]\n");
+        writer.close();
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            writer.write('[');
+            started = true;
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof Number) {
+            if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()) ||
+                value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite())) {
+                writer.write("null");
+            } else {
+                writer.write(value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString());
+            }
+        } else {
+            writeString(String.valueOf(value));
+        }
+    }
+
+    private void writeString(String text) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write("\\u00");
+                        writer.write(HEX[c >> 4]);
+                        writer.write(HEX[c & 0xf]);
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
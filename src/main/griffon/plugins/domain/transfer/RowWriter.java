@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Destination of rows for a {@link DomainExporter}. Values are null, Strings, Numbers or Booleans.
+ *
+ * @author Andres Almiray
+ */
+public interface RowWriter extends Closeable, Flushable {
+    /**
+     * Called once before the first row with the names of every column, in order.
+     */
+    void writeHeader(List<String> columns) throws IOException;
+
+    void write(Map<String, Object> row) throws IOException;
+}
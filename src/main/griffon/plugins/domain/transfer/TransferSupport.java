@@ -0,0 +1,140 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.domain.transfer;
+
+import griffon.core.GriffonClass;
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.util.ApplicationHolder;
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+
+import javax.xml.bind.DatatypeConverter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversions shared by {@link DomainImporter} and {@link DomainExporter}.
+ * Dates are exchanged as ISO 8601 timestamps; numeric values are accepted as well.
+ *
+ * @author Andres Almiray
+ */
+final class TransferSupport {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private TransferSupport() {
+
+    }
+
+    static GriffonDomainClass domainClassOf(Class<?> clazz) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Domain class is null!");
+        }
+        GriffonClass griffonClass = ApplicationHolder.getApplication().getArtifactManager().findGriffonClass(clazz);
+        if (!(griffonClass instanceof GriffonDomainClass)) {
+            throw new IllegalArgumentException(clazz.getName() + " is not a domain class");
+        }
+        return (GriffonDomainClass) griffonClass;
+    }
+
+    /**
+     * Converts a raw value read from a feed to the type of a property. Blank Strings
+     * are converted to null for every type but String.
+     */
+    static Object convert(Object value, Class<?> type) {
+        if (value == null) return null;
+        if (type.isPrimitive()) type = wrapperOf(type);
+        if (value instanceof String && type != String.class && type != Object.class) {
+            String text = ((String) value).trim();
+            if (text.length() == 0) return null;
+            if (type == Integer.class) return Integer.valueOf(text);
+            if (type == Long.class) return Long.valueOf(text);
+            if (type == Double.class) return Double.valueOf(text);
+            if (type == BigDecimal.class) return new BigDecimal(text);
+            if (type == Float.class) return Float.valueOf(text);
+            if (type == Short.class) return Short.valueOf(text);
+            if (type == Byte.class) return Byte.valueOf(text);
+            if (type == BigInteger.class) return new BigInteger(text);
+            if (type == Boolean.class) {
+                if ("true".equalsIgnoreCase(text)) return Boolean.TRUE;
+                if ("false".equalsIgnoreCase(text)) return Boolean.FALSE;
+                throw new IllegalArgumentException("'" + text + "' is not a boolean");
+            }
+            if (type == Character.class) {
+                if (text.length() == 1) return text.charAt(0);
+                throw new IllegalArgumentException("'" + text + "' is not a single character");
+            }
+            if (type.isEnum()) return Enum.valueOf((Class) type, text);
+            if (Date.class.isAssignableFrom(type)) return dateOf(parseDate(text), type);
+        }
+        if (type.isInstance(value)) return value;
+        if (value instanceof Number && Date.class.isAssignableFrom(type)) {
+            return dateOf(new Date(((Number) value).longValue()), type);
+        }
+        return DefaultTypeTransformation.castToType(value, type);
+    }
+
+    /**
+     * Converts a property value to null, a String, a Number or a Boolean.
+     * References to other domain instances are replaced by their identity.
+     */
+    static Object format(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Date) {
+            Calendar calendar = Calendar.getInstance(UTC);
+            calendar.setTime((Date) value);
+            return DatatypeConverter.printDateTime(calendar);
+        } else if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else if (value instanceof GriffonDomain) {
+            GriffonDomain entity = (GriffonDomain) value;
+            return format(((GriffonDomainClass) entity.getGriffonClass()).getIdentity().getValue(entity));
+        }
+        return String.valueOf(value);
+    }
+
+    private static Date parseDate(String text) {
+        boolean numeric = true;
+        for (int i = text.charAt(0) == '-' ? 1 : 0; i < text.length() && numeric; i++) {
+            numeric = Character.isDigit(text.charAt(i));
+        }
+        if (numeric) return new Date(Long.parseLong(text));
+        return DatatypeConverter.parseDateTime(text).getTime();
+    }
+
+    private static Date dateOf(Date date, Class<?> type) {
+        if (type == java.sql.Timestamp.class) return new java.sql.Timestamp(date.getTime());
+        if (type == java.sql.Date.class) return new java.sql.Date(date.getTime());
+        if (type == java.sql.Time.class) return new java.sql.Time(date.getTime());
+        return date;
+    }
+
+    private static Class<?> wrapperOf(Class<?> type) {
+        if (type == Integer.TYPE) return Integer.class;
+        if (type == Long.TYPE) return Long.class;
+        if (type == Double.TYPE) return Double.class;
+        if (type == Float.TYPE) return Float.class;
+        if (type == Boolean.TYPE) return Boolean.class;
+        if (type == Short.TYPE) return Short.class;
+        if (type == Byte.TYPE) return Byte.class;
+        if (type == Character.TYPE) return Character.class;
+        return type;
+    }
+}
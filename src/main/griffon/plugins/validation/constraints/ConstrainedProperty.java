@@ -79,6 +79,7 @@ public class ConstrainedProperty {
         DEFAULT_MESSAGES.put(IPAddressConstraint.DEFAULT_INVALID_IP_ADDRESS_MESSAGE_CODE, IPAddressConstraint.DEFAULT_INVALID_IP_ADDRESS_MESSAGE);
         DEFAULT_MESSAGES.put(ConfirmedPasswordConstraint.DEFAULT_INVALID_PASSWORD_CONFIRMATION_MESSAGE_CODE, ConfirmedPasswordConstraint.DEFAULT_INVALID_PASSWORD_CONFIRMATION_MESSAGE);
         DEFAULT_MESSAGES.put(PostalCodeConstraint.DEFAULT_INVALID_POSTAL_CODE_MESSAGE_CODE, PostalCodeConstraint.DEFAULT_INVALID_POSTAL_CODE_MESSAGE);
+        DEFAULT_MESSAGES.put(UniqueConstraint.DEFAULT_NOT_UNIQUE_MESSAGE_CODE, UniqueConstraint.DEFAULT_NOT_UNIQUE_MESSAGE);
 
         constraints.put(CreditCardConstraint.VALIDATION_DSL_NAME, list().e(CreditCardConstraint.class));
         constraints.put(EmailConstraint.VALIDATION_DSL_NAME, list().e(EmailConstraint.class));
@@ -100,6 +101,7 @@ public class ConstrainedProperty {
         constraints.put(IPAddressConstraint.VALIDATION_DSL_NAME, list().e(IPAddressConstraint.class));
         constraints.put(ConfirmedPasswordConstraint.VALIDATION_DSL_NAME, list().e(ConfirmedPasswordConstraint.class));
         constraints.put(PostalCodeConstraint.VALIDATION_DSL_NAME, list().e(PostalCodeConstraint.class));
+        constraints.put(UniqueConstraint.VALIDATION_DSL_NAME, list().e(UniqueConstraint.class));
     }
 
     protected static final Logger LOG = LoggerFactory.getLogger(ConstrainedProperty.class);
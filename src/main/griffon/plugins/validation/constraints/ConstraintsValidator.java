@@ -62,10 +62,9 @@ public final class ConstraintsValidator {
     private static Object getPropertyValue(Validateable validateable, String propertyName) {
         if (validateable instanceof GriffonDomain) {
             GriffonDomainClass griffonDomainClass = (GriffonDomainClass) ((GriffonDomain) validateable).getGriffonClass();
-            for (GriffonDomainClassProperty property : griffonDomainClass.getPersistentProperties()) {
-                if (property.getName().equals(propertyName)) {
-                    return property.getValue(validateable);
-                }
+            GriffonDomainClassProperty property = griffonDomainClass.getPropertyByName(propertyName);
+            if (property != null && property.isPersistent()) {
+                return property.getValue(validateable);
             }
         } else {
             return InvokerHelper.getProperty(validateable, propertyName);
@@ -16,6 +16,8 @@
 
 package griffon.transform;
 
+import griffon.plugins.domain.identity.IdentityGenerator;
+import griffon.plugins.domain.identity.SequenceIdentityGenerator;
 import org.codehaus.groovy.transform.GroovyASTTransformationClass;
 
 import java.lang.annotation.ElementType;
@@ -37,5 +39,11 @@ public @interface Domain {
      */
     String value() default "";
 
+    /**
+     * The generator of identities for new instances, see {@link griffon.plugins.domain.identity}.
+     * Generators that do not produce {@code Long} values require the class to declare its own {@code id} property.
+     */
+    Class<? extends IdentityGenerator> identity() default SequenceIdentityGenerator.class;
+
     // String datasource() default "default";
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ import griffon.plugins.domain.methods.StaticMethodInvocation;
 import griffon.util.ApplicationHolder;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static griffon.util.GriffonExceptionHandler.sanitize;
@@ -101,6 +102,22 @@ public abstract class AbstractGriffonDomainHandler implements GriffonDomainHandl
         return method.invoke(clazz, methodName, args);
     }
 
+    /**
+     * Looks the owner up with {@code findWhere}, which handlers with a faster way to
+     * tell should override.
+     */
+    @SuppressWarnings("unchecked")
+    public Object uniqueOwnerOf(GriffonDomain target, String propertyName, List<String> uniquenessGroup) {
+        GriffonDomainClass domainClass = (GriffonDomainClass) target.getGriffonClass();
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put(propertyName, domainClass.getPropertyByName(propertyName).getValue(target));
+        for (String name : uniquenessGroup) {
+            params.put(name, domainClass.getPropertyByName(name).getValue(target));
+        }
+        Object owner = invokeStaticMethod((Class<GriffonDomain>) domainClass.getClazz(), "findWhere", params);
+        return owner != null ? identityOf(target).getValue(owner) : null;
+    }
+
     protected final GriffonDomain.Comparator IDENTITY_COMPARATOR = new GriffonDomain.Comparator(GriffonDomainProperty.IDENTITY);
 
     protected GriffonDomainProperty identityOf(GriffonDomain target) {
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.orm.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeValue;
+
+/**
+ * Keeps the numeric, boolean and date properties of a columnar domain class in
+ * primitive arrays with a null bitmap per column. Criteria over those properties are
+ * resolved with tight loops over the arrays, producing the rows that may match
+ * without reading a single bean property.
+ * <p/>
+ * Column evaluation never discards a matching row; callers still evaluate the full
+ * criterion on the returned rows, which covers the parts the columns cannot answer.
+ * <p/>
+ * Scans take no locks. Slots are grouped in segments of 1024 rows
+ * whose values are read and written through atomic arrays; writers are serialized
+ * on the store and bump the write count of a segment before and after updating a
+ * row. A scan that sees the count of a segment change returns every live row of that
+ * segment instead of the ones its columns matched.
+ *
+ * @author Andres Almiray
+ */
+public class ColumnStore<T extends GriffonDomain> {
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int WORDS = SEGMENT_SIZE >>> 6;
+
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+    private final Column[] columnArray;
+    private final Map<Object, Integer> slots = new HashMap<Object, Integer>();
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int highWater;
+    private volatile Segment[] segments = new Segment[0];
+
+    public ColumnStore(GriffonDomainClass domainClass) {
+        for (GriffonDomainProperty property : domainClass.getPersistentProperties()) {
+            Column column = Column.of(property, columns.size());
+            if (column != null) columns.put(property.getName(), column);
+        }
+        columnArray = columns.values().toArray(new Column[columns.size()]);
+    }
+
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    public synchronized void put(Object identity, T entity) {
+        Integer slot = slots.get(identity);
+        boolean added = slot == null;
+        if (added) {
+            slot = freeCount > 0 ? freeSlots[--freeCount] : highWater++;
+            slots.put(identity, slot);
+        }
+        Segment segment = segmentFor(slot);
+        int offset = slot & SEGMENT_MASK;
+        segment.writes++;
+        try {
+            segment.entities.set(offset, entity);
+            for (Column column : columnArray) {
+                column.set(segment, offset, column.property.getValue(entity));
+            }
+            if (added) setBit(segment.live, offset, true);
+        } finally {
+            segment.writes++;
+        }
+    }
+
+    public synchronized void remove(Object identity) {
+        Integer slot = slots.remove(identity);
+        if (slot == null) return;
+        Segment segment = segments[slot >>> SEGMENT_SHIFT];
+        int offset = slot & SEGMENT_MASK;
+        segment.writes++;
+        setBit(segment.live, offset, false);
+        segment.entities.set(offset, null);
+        segment.writes++;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Returns the rows that may satisfy the criterion in slot order, or {@code null}
+     * if no part of the criterion can be answered by the columns.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> candidatesFor(Criterion criterion) {
+        Scan scan = plan(criterion);
+        if (scan == null) return null;
+        List<T> rows = new ArrayList<T>();
+        for (Segment segment : segments) {
+            int writes = segment.writes;
+            long[] matches = (writes & 1) == 0 ? scan.eval(segment) : null;
+            if (matches == null || segment.writes != writes) matches = segment.live();
+            for (int word = 0; word < WORDS; word++) {
+                for (long bits = matches[word]; bits != 0; bits &= bits - 1) {
+                    Object entity = segment.entities.get((word << 6) + Long.numberOfTrailingZeros(bits));
+                    if (entity != null) rows.add((T) entity);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private Scan plan(Criterion criterion) {
+        if (criterion instanceof BinaryExpression) {
+            BinaryExpression expression = (BinaryExpression) criterion;
+            Column column = columns.get(expression.getPropertyName());
+            return column != null ? column.plan(expression.getOperator(), expression.getValue()) : null;
+        } else if (criterion instanceof UnaryExpression) {
+            UnaryExpression expression = (UnaryExpression) criterion;
+            Column column = columns.get(expression.getPropertyName());
+            if (column == null) return null;
+            if (expression.getOperator() == Operator.IS_NULL) {
+                return new NullScan(column, true);
+            } else if (expression.getOperator() == Operator.IS_NOT_NULL) {
+                return new NullScan(column, false);
+            }
+            return null;
+        } else if (criterion instanceof CompositeCriterion) {
+            CompositeCriterion composite = (CompositeCriterion) criterion;
+            boolean any = composite.getOperator() == Operator.OR;
+            List<Scan> scans = new ArrayList<Scan>();
+            for (Criterion c : composite.getCriteria()) {
+                Scan scan = plan(c);
+                if (scan != null) {
+                    scans.add(scan);
+                } else if (any) {
+                    return null;
+                }
+            }
+            return scans.isEmpty() ? null : new CompositeScan(any, scans.toArray(new Scan[scans.size()]));
+        }
+        return null;
+    }
+
+    private Segment segmentFor(int slot) {
+        int index = slot >>> SEGMENT_SHIFT;
+        Segment[] current = segments;
+        if (index < current.length) return current[index];
+        Segment[] grown = Arrays.copyOf(current, index + 1);
+        grown[index] = new Segment(columnArray);
+        segments = grown;
+        return grown[index];
+    }
+
+    // only called by writers, which are serialized
+    private static void setBit(AtomicLongArray words, int offset, boolean value) {
+        int word = offset >>> 6;
+        long bit = 1L << offset;
+        long current = words.get(word);
+        words.set(word, value ? current | bit : current & ~bit);
+    }
+
+    private static final class Segment {
+        // odd while a row of the segment is being written
+        volatile int writes;
+        final AtomicLongArray live = new AtomicLongArray(WORDS);
+        final AtomicReferenceArray<Object> entities = new AtomicReferenceArray<Object>(SEGMENT_SIZE);
+        final AtomicLongArray[] values;
+        final AtomicLongArray[] nulls;
+        final AtomicLongArray[] flags;
+
+        Segment(Column[] columns) {
+            values = new AtomicLongArray[columns.length];
+            nulls = new AtomicLongArray[columns.length];
+            flags = new AtomicLongArray[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = columns[i].newValues();
+                nulls[i] = new AtomicLongArray(WORDS);
+                flags[i] = columns[i].newFlags();
+            }
+        }
+
+        long[] live() {
+            long[] words = new long[WORDS];
+            for (int word = 0; word < WORDS; word++) {
+                words[word] = live.get(word);
+            }
+            return words;
+        }
+    }
+
+    /**
+     * Matches the live slots of a segment, for a criterion planned ahead of the scan.
+     */
+    private static abstract class Scan {
+        abstract long[] eval(Segment segment);
+    }
+
+    private static class CompositeScan extends Scan {
+        private final boolean any;
+        private final Scan[] scans;
+
+        CompositeScan(boolean any, Scan[] scans) {
+            this.any = any;
+            this.scans = scans;
+        }
+
+        long[] eval(Segment segment) {
+            long[] result = scans[0].eval(segment);
+            for (int i = 1; i < scans.length; i++) {
+                long[] matches = scans[i].eval(segment);
+                for (int word = 0; word < WORDS; word++) {
+                    result[word] = any ? result[word] | matches[word] : result[word] & matches[word];
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class NullScan extends Scan {
+        private final Column column;
+        private final boolean isNull;
+
+        NullScan(Column column, boolean isNull) {
+            this.column = column;
+            this.isNull = isNull;
+        }
+
+        long[] eval(Segment segment) {
+            AtomicLongArray nulls = segment.nulls[column.index];
+            long[] result = new long[WORDS];
+            for (int word = 0; word < WORDS; word++) {
+                long n = nulls.get(word);
+                result[word] = segment.live.get(word) & (isNull ? n : ~n);
+            }
+            return result;
+        }
+    }
+
+    private static class ComparisonScan extends Scan {
+        private final Column column;
+        private final Operator operator;
+        private final Object argument;
+
+        ComparisonScan(Column column, Operator operator, Object argument) {
+            this.column = column;
+            this.operator = operator;
+            this.argument = argument;
+        }
+
+        long[] eval(Segment segment) {
+            AtomicLongArray nulls = segment.nulls[column.index];
+            long[] present = new long[WORDS];
+            long[] absent = new long[WORDS];
+            for (int word = 0; word < WORDS; word++) {
+                long live = segment.live.get(word);
+                long n = nulls.get(word);
+                present[word] = live & ~n;
+                absent[word] = live & n;
+            }
+            long[] result = new long[WORDS];
+            column.scan(segment, operator, argument, present, result);
+            // null property values compare lower than anything else
+            if (operator == Operator.NOT_EQUAL || operator == Operator.LESS_THAN || operator == Operator.LESS_THAN_OR_EQUAL) {
+                for (int word = 0; word < WORDS; word++) {
+                    result[word] |= absent[word];
+                }
+            }
+            return result;
+        }
+    }
+
+    private static abstract class Column {
+        protected final GriffonDomainProperty property;
+        protected final int index;
+
+        protected Column(GriffonDomainProperty property, int index) {
+            this.property = property;
+            this.index = index;
+        }
+
+        static Column of(GriffonDomainProperty property, int index) {
+            Class<?> type = property.getType();
+            if (type == long.class || type == Long.class || type == int.class || type == Integer.class ||
+                type == short.class || type == Short.class || type == byte.class || type == Byte.class) {
+                return new IntegralColumn(property, index);
+            } else if (type == double.class || type == Double.class || type == float.class || type == Float.class) {
+                return new DecimalColumn(property, index);
+            } else if (type == boolean.class || type == Boolean.class) {
+                return new BooleanColumn(property, index);
+            } else if (type == Date.class) {
+                return new DateColumn(property, index);
+            }
+            return null;
+        }
+
+        void set(Segment segment, int offset, Object value) {
+            if (value != null) store(segment, offset, value);
+            setBit(segment.nulls[index], offset, value == null);
+        }
+
+        /**
+         * Returns a scan for the live slots whose value may satisfy {@code value operator argument},
+         * or {@code null} if the column cannot answer the comparison.
+         */
+        Scan plan(Operator operator, Object argument) {
+            if (argument == null) return null;
+            switch (operator) {
+                case EQUAL:
+                case NOT_EQUAL:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUAL:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUAL:
+                    break;
+                default:
+                    return null;
+            }
+            Object converted = argumentOf(operator, argument);
+            return converted != null ? new ComparisonScan(this, operator, converted) : null;
+        }
+
+        static boolean test(Operator operator, int comparison) {
+            switch (operator) {
+                case EQUAL:
+                    return comparison == 0;
+                case NOT_EQUAL:
+                    return comparison != 0;
+                case GREATER_THAN:
+                    return comparison > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return comparison >= 0;
+                case LESS_THAN:
+                    return comparison < 0;
+                default:
+                    return comparison <= 0;
+            }
+        }
+
+        AtomicLongArray newValues() {
+            return new AtomicLongArray(SEGMENT_SIZE);
+        }
+
+        AtomicLongArray newFlags() {
+            return null;
+        }
+
+        /**
+         * Returns the argument converted to the values this column keeps, or {@code null}
+         * if it cannot be compared with this column.
+         */
+        abstract Object argumentOf(Operator operator, Object argument);
+
+        abstract void store(Segment segment, int offset, Object value);
+
+        /**
+         * Sets the slots among the {@code present} ones whose value matches the comparison.
+         */
+        abstract void scan(Segment segment, Operator operator, Object argument, long[] present, long[] result);
+    }
+
+    private static class IntegralColumn extends Column {
+        IntegralColumn(GriffonDomainProperty property, int index) {
+            super(property, index);
+        }
+
+        void store(Segment segment, int offset, Object value) {
+            segment.values[index].set(offset, ((Number) value).longValue());
+        }
+
+        Object argumentOf(Operator operator, Object argument) {
+            Object key = normalizeValue(argument);
+            return key instanceof Long ? key : null;
+        }
+
+        void scan(Segment segment, Operator operator, Object argument, long[] present, long[] result) {
+            AtomicLongArray values = segment.values[index];
+            long c = (Long) argument;
+            for (int word = 0; word < WORDS; word++) {
+                for (long bits = present[word]; bits != 0; bits &= bits - 1) {
+                    int offset = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    long v = values.get(offset);
+                    if (test(operator, v < c ? -1 : (v == c ? 0 : 1))) result[word] |= 1L << offset;
+                }
+            }
+        }
+    }
+
+    private static class DateColumn extends IntegralColumn {
+        DateColumn(GriffonDomainProperty property, int index) {
+            super(property, index);
+        }
+
+        // flags values of a Date subclass (i.e, Timestamp), which compare beyond millis
+        AtomicLongArray newFlags() {
+            return new AtomicLongArray(WORDS);
+        }
+
+        void store(Segment segment, int offset, Object value) {
+            segment.values[index].set(offset, ((Date) value).getTime());
+            setBit(segment.flags[index], offset, value.getClass() != Date.class);
+        }
+
+        Object argumentOf(Operator operator, Object argument) {
+            return argument.getClass() == Date.class ? ((Date) argument).getTime() : null;
+        }
+
+        void scan(Segment segment, Operator operator, Object argument, long[] present, long[] result) {
+            super.scan(segment, operator, argument, present, result);
+            AtomicLongArray subclassed = segment.flags[index];
+            for (int word = 0; word < WORDS; word++) {
+                result[word] |= present[word] & subclassed.get(word);
+            }
+        }
+    }
+
+    private static class DecimalColumn extends Column {
+        DecimalColumn(GriffonDomainProperty property, int index) {
+            super(property, index);
+        }
+
+        void store(Segment segment, int offset, Object value) {
+            segment.values[index].set(offset, Double.doubleToRawLongBits(((Number) value).doubleValue()));
+        }
+
+        Object argumentOf(Operator operator, Object argument) {
+            if (!(argument instanceof Number)) return null;
+            double c = ((Number) argument).doubleValue();
+            return Double.isNaN(c) ? null : c;
+        }
+
+        void scan(Segment segment, Operator operator, Object argument, long[] present, long[] result) {
+            AtomicLongArray values = segment.values[index];
+            double c = (Double) argument;
+            for (int word = 0; word < WORDS; word++) {
+                for (long bits = present[word]; bits != 0; bits &= bits - 1) {
+                    int offset = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    double v = Double.longBitsToDouble(values.get(offset));
+                    // NaN rows are left to the bean evaluator
+                    if (Double.isNaN(v) || test(operator, v < c ? -1 : (v == c ? 0 : 1))) result[word] |= 1L << offset;
+                }
+            }
+        }
+    }
+
+    private static class BooleanColumn extends Column {
+        BooleanColumn(GriffonDomainProperty property, int index) {
+            super(property, index);
+        }
+
+        // one bit per slot
+        AtomicLongArray newValues() {
+            return new AtomicLongArray(WORDS);
+        }
+
+        void store(Segment segment, int offset, Object value) {
+            setBit(segment.values[index], offset, (Boolean) value);
+        }
+
+        Object argumentOf(Operator operator, Object argument) {
+            if (!(argument instanceof Boolean) || (operator != Operator.EQUAL && operator != Operator.NOT_EQUAL)) {
+                return null;
+            }
+            return argument;
+        }
+
+        void scan(Segment segment, Operator operator, Object argument, long[] present, long[] result) {
+            boolean wanted = (Boolean) argument == (operator == Operator.EQUAL);
+            AtomicLongArray values = segment.values[index];
+            for (int word = 0; word < WORDS; word++) {
+                long v = values.get(word);
+                result[word] = present[word] & (wanted ? v : ~v);
+            }
+        }
+    }
+}
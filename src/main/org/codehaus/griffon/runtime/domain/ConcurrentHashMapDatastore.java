@@ -17,28 +17,90 @@
 package org.codehaus.griffon.runtime.domain;
 
 import griffon.core.ArtifactManager;
+import griffon.core.GriffonApplication;
 import griffon.core.GriffonClass;
+import griffon.core.ShutdownHandler;
 import griffon.plugins.domain.GriffonDomain;
 import griffon.plugins.domain.GriffonDomainClass;
 import griffon.plugins.domain.GriffonDomainClassProperty;
 import griffon.plugins.domain.GriffonDomainProperty;
-import griffon.plugins.domain.orm.BeanCriterionEvaluator;
-import griffon.plugins.domain.orm.Criterion;
-import griffon.plugins.domain.orm.CriterionEvaluator;
+import griffon.plugins.domain.PagedResultList;
+import griffon.plugins.domain.TransactionStatus;
+import griffon.plugins.domain.exceptions.GriffonDomainException;
+import griffon.plugins.domain.exceptions.StaleObjectException;
+import griffon.plugins.domain.exceptions.UniqueConstraintException;
+import griffon.plugins.domain.identity.IdentityGenerator;
+import griffon.plugins.domain.identity.IdentityStore;
+import griffon.plugins.domain.orm.*;
+import griffon.plugins.validation.constraints.ConstrainedProperty;
+import griffon.plugins.validation.constraints.Constraint;
 import griffon.util.ApplicationHolder;
+import org.codehaus.griffon.runtime.domain.storage.DatasetSnapshot;
+import org.codehaus.griffon.runtime.domain.storage.DatastoreCheckpoint;
+import org.codehaus.griffon.runtime.domain.storage.DatastoreJournal;
+import org.codehaus.griffon.runtime.domain.storage.RowCodec;
+import org.codehaus.griffon.runtime.domain.storage.RowLoader;
+import org.codehaus.griffon.runtime.validation.constraints.AbstractUniqueConstraint;
 import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.Collator;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeValue;
+import static org.codehaus.griffon.runtime.domain.GriffonDomainConfigurationUtil.getPartitionCount;
+import static org.codehaus.griffon.runtime.domain.GriffonDomainConfigurationUtil.isRestorable;
 
 /**
+ * Keeps the rows of every domain class in memory.
+ * <p/>
+ * When {@code griffon.domain.journal.enabled} is set, saves and deletes are also recorded
+ * in a {@link DatastoreJournal} that is replayed the first time the datastore is used.
+ * The journal is configured with the following keys:
+ * <ul>
+ * <li>{@code griffon.domain.journal.directory} - where journal files are kept, defaults to {@code data}</li>
+ * <li>{@code griffon.domain.journal.flushInterval} - milliseconds between forced writes, defaults to 50</li>
+ * <li>{@code griffon.domain.journal.flushRecords} - pending records that force a write, defaults to 256</li>
+ * <li>{@code griffon.domain.journal.sync} - whether saves wait until their record is on disk, defaults to false</li>
+ * </ul>
+ * When {@code griffon.domain.snapshot.enabled} is set, a {@link DatastoreCheckpoint} of every
+ * dataset is written on shutdown or whenever {@link #checkpoint()} is called, and loaded
+ * before the journal is replayed. Checkpoints are kept in {@code griffon.domain.snapshot.directory},
+ * which defaults to the journal directory.
+ *
  * @author Andres Almiray
  */
-public class ConcurrentHashMapDatastore {
+public class ConcurrentHashMapDatastore implements IdentityStore {
+    private static final String KEY_JOURNAL_ENABLED = "griffon.domain.journal.enabled";
+    private static final String KEY_JOURNAL_DIRECTORY = "griffon.domain.journal.directory";
+    private static final String KEY_JOURNAL_FLUSH_INTERVAL = "griffon.domain.journal.flushInterval";
+    private static final String KEY_JOURNAL_FLUSH_RECORDS = "griffon.domain.journal.flushRecords";
+    private static final String KEY_JOURNAL_SYNC = "griffon.domain.journal.sync";
+    private static final String KEY_SNAPSHOT_ENABLED = "griffon.domain.snapshot.enabled";
+    private static final String KEY_SNAPSHOT_DIRECTORY = "griffon.domain.snapshot.directory";
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentHashMapDatastore.class);
     private final String name;
-    private final Map<String, Dataset<? extends GriffonDomain>> DATASETS = new ConcurrentHashMap<String, Dataset<? extends GriffonDomain>>();
+    private final ConcurrentMap<String, Dataset<? extends GriffonDomain>> DATASETS = new ConcurrentHashMap<String, Dataset<? extends GriffonDomain>>();
+    private final ConcurrentMap<String, AtomicLong> HIGH_WATER_MARKS = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, IdentityGenerator> GENERATORS = new ConcurrentHashMap<String, IdentityGenerator>();
+    private final ThreadLocal<Transaction> TRANSACTIONS = new ThreadLocal<Transaction>();
+    private volatile boolean opened;
+    private volatile DatastoreJournal journal;
+    private volatile DatastoreCheckpoint checkpoint;
+    private final Object checkpointLock = new Object();
+    private Thread opener;
 
     public ConcurrentHashMapDatastore(String name) {
         this.name = name;
@@ -49,60 +111,1169 @@ public class ConcurrentHashMapDatastore {
     }
 
     public <T extends GriffonDomain> Dataset<T> dataset(String name) {
+        open();
         Dataset dataset = DATASETS.get(name);
         if (dataset == null) {
             ArtifactManager artifactManager = ApplicationHolder.getApplication().getArtifactManager();
             GriffonClass griffonClass = artifactManager.findGriffonClass(name, GriffonDomainClass.TYPE);
+            if (griffonClass == null) return null;
             dataset = dataset((GriffonDomainClass) griffonClass);
         }
         return dataset;
     }
 
     public <T extends GriffonDomain> Dataset<T> dataset(GriffonDomainClass domainClass) {
+        open();
         Dataset dataset = DATASETS.get(domainClass.getName());
         if (dataset == null) {
-            dataset = new Dataset(domainClass);
-            DATASETS.put(dataset.getName(), dataset);
+            Dataset created = new Dataset(this, domainClass);
+            dataset = DATASETS.putIfAbsent(created.getName(), created);
+            if (dataset == null) dataset = created;
         }
         return dataset;
     }
 
+    /**
+     * Returns the identity generator of the domain class, creating it on first use.
+     *
+     * @see griffon.transform.Domain#identity()
+     */
+    public IdentityGenerator identityGenerator(GriffonDomainClass domainClass) {
+        open();
+        IdentityGenerator generator = GENERATORS.get(domainClass.getName());
+        if (generator == null) {
+            synchronized (GENERATORS) {
+                generator = GENERATORS.get(domainClass.getName());
+                if (generator == null) {
+                    Class<? extends IdentityGenerator> type = GriffonDomainConfigurationUtil.getIdentityGenerator(domainClass.getClazz());
+                    try {
+                        generator = type.newInstance();
+                    } catch (Exception e) {
+                        throw new GriffonDomainException("Cannot create identity generator " + type.getName() + " for " + domainClass.getName(), e);
+                    }
+                    generator.init(domainClass, this);
+                    GENERATORS.put(domainClass.getName(), generator);
+                }
+            }
+        }
+        return generator;
+    }
+
+    public Object nextIdentity(GriffonDomainClass domainClass) {
+        return identityGenerator(domainClass).nextIdentity();
+    }
+
+    public List<Object> nextIdentities(GriffonDomainClass domainClass, int count) {
+        return identityGenerator(domainClass).nextIdentities(count);
+    }
+
+    public long getHighWaterMark(GriffonDomainClass domainClass) {
+        open();
+        return highWaterMarkOf(domainClass.getName()).get();
+    }
+
+    /**
+     * Raises the identity high-water mark of the domain class, appending it to the journal if there is one.
+     */
+    public void raiseHighWaterMark(GriffonDomainClass domainClass, long mark) {
+        open();
+        String dataset = domainClass.getName();
+        if (!raise(highWaterMarkOf(dataset), mark)) return;
+        DatastoreJournal journal = this.journal;
+        if (journal == null) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(dataset);
+            out.writeLong(mark);
+        } catch (IOException e) {
+            throw new GriffonDomainException("Cannot write the identity high-water mark of " + dataset + " to the journal", e);
+        }
+        long lsn = journal.append(DatastoreJournal.IDENTITY, bytes.toByteArray());
+        if (journal.isSync()) journal.await(lsn);
+    }
+
+    /**
+     * Raises the identity high-water mark of a dataset to a value read back from disk, bypassing the journal.
+     */
+    public void restoreHighWaterMark(String dataset, long mark) {
+        raise(highWaterMarkOf(dataset), mark);
+    }
+
+    private void observeIdentity(String dataset, Object identity) {
+        if (identity instanceof Long) raise(highWaterMarkOf(dataset), (Long) identity);
+    }
+
+    private AtomicLong highWaterMarkOf(String dataset) {
+        AtomicLong mark = HIGH_WATER_MARKS.get(dataset);
+        if (mark == null) {
+            AtomicLong created = new AtomicLong();
+            mark = HIGH_WATER_MARKS.putIfAbsent(dataset, created);
+            if (mark == null) mark = created;
+        }
+        return mark;
+    }
+
+    private static boolean raise(AtomicLong mark, long value) {
+        long current;
+        while ((current = mark.get()) < value) {
+            if (mark.compareAndSet(current, value)) return true;
+        }
+        return false;
+    }
+
+    public DatastoreJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Loads the latest snapshots and replays the journal, if configured. Threads using
+     * the datastore while it is being loaded wait for it to finish; the loading thread
+     * itself goes through.
+     */
+    private void open() {
+        if (opened) return;
+        synchronized (this) {
+            if (opened || opener == Thread.currentThread()) return;
+            opener = Thread.currentThread();
+            try {
+                GriffonApplication app = ApplicationHolder.getApplication();
+                Map config = app != null ? app.getConfig() : Collections.emptyMap();
+                String directory = getConfigValueAsString(config, KEY_JOURNAL_DIRECTORY, "data");
+                RowLoader loader = new RowLoader(this);
+                boolean shutdownRequired = false;
+
+                if (getConfigValueAsBoolean(config, KEY_SNAPSHOT_ENABLED, false)) {
+                    File snapshotDirectory = new File(getConfigValueAsString(config, KEY_SNAPSHOT_DIRECTORY, directory));
+                    checkpoint = new DatastoreCheckpoint(new File(snapshotDirectory, name + DatastoreCheckpoint.SUFFIX));
+                    long lsn = checkpoint.read(loader);
+                    if (LOG.isDebugEnabled() && lsn >= 0) {
+                        LOG.debug("Loaded checkpoint " + checkpoint.getDirectory() + " at sequence " + lsn);
+                    }
+                    shutdownRequired = true;
+                }
+
+                if (getConfigValueAsBoolean(config, KEY_JOURNAL_ENABLED, false)) {
+                    DatastoreJournal journal = new DatastoreJournal(new File(directory, name + ".journal"),
+                        getConfigValueAsInt(config, KEY_JOURNAL_FLUSH_INTERVAL, 50),
+                        getConfigValueAsInt(config, KEY_JOURNAL_FLUSH_RECORDS, 256),
+                        getConfigValueAsBoolean(config, KEY_JOURNAL_SYNC, false));
+                    journal.open(loader);
+                    journal.advance(loader.getHighestSkippedRecord());
+                    this.journal = journal;
+                    shutdownRequired = true;
+                }
+                loader.resolveReferences();
+
+                if (app != null && shutdownRequired) {
+                    app.addShutdownHandler(new ShutdownHandler() {
+                        public boolean canShutdown(GriffonApplication application) {
+                            return true;
+                        }
+
+                        public void onShutdown(GriffonApplication application) {
+                            close();
+                        }
+                    });
+                }
+                opened = true;
+            } catch (IOException e) {
+                throw new GriffonDomainException("Could not load datastore " + name, e);
+            } finally {
+                opener = null;
+            }
+        }
+    }
+
+    /**
+     * Starts writing a checkpoint of every dataset on a background thread. Saves and
+     * deletes proceed while the checkpoint is written; the checkpoint reflects the state
+     * of the datastore as of the moment the last dataset has been read.
+     * <p/>
+     * Changes made while the datasets are read are taken from the journal, which is then
+     * rewritten to hold only the records that follow the checkpoint. If the datastore is
+     * not journaled, a temporary journal captures them for as long as the checkpoint runs.
+     *
+     * @return the sequence number the checkpoint is consistent with, once written
+     */
+    public Future<Long> checkpoint() {
+        open();
+        if (checkpoint == null) {
+            throw new IllegalStateException("Snapshots of datastore " + name + " are not enabled");
+        }
+        FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>() {
+            public Long call() throws IOException {
+                return writeCheckpoint();
+            }
+        });
+        Thread thread = new Thread(task, "griffon-domain-checkpoint-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Writes a checkpoint of every dataset and waits for it to complete.
+     */
+    public void snapshot() {
+        try {
+            checkpoint().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonDomainException("Interrupted while writing a checkpoint of datastore " + name, e);
+        } catch (ExecutionException e) {
+            throw new GriffonDomainException("Could not write a checkpoint of datastore " + name, e.getCause());
+        }
+    }
+
+    private long writeCheckpoint() throws IOException {
+        synchronized (checkpointLock) {
+            DatastoreCheckpoint checkpoint = this.checkpoint;
+            checkpoint.begin();
+            DatastoreJournal journal = this.journal;
+            DatastoreJournal capture = null;
+            try {
+                long start = 0;
+                if (journal != null) {
+                    start = journal.lastSequence();
+                } else {
+                    capture = new DatastoreJournal(checkpoint.tailFile(), 1000, 4096, false);
+                    capture.open(new DatastoreJournal.RecordHandler() {
+                        public void onRecord(byte type, long lsn, DataInput payload) {
+                        }
+                    });
+                    this.journal = capture;
+                }
+
+                long rows = 0;
+                for (Dataset<? extends GriffonDomain> dataset : DATASETS.values()) {
+                    rows += new DatasetSnapshot(checkpoint.snapshotFile(dataset.getName())).write(dataset, start);
+                }
+
+                long end;
+                if (capture != null) {
+                    this.journal = null;
+                    end = capture.seal();
+                    capture.close();
+                } else {
+                    end = journal.lastSequence();
+                    journal.flush();
+                    journal.copy(start, end, checkpoint.tailFile());
+                }
+                Map<String, Long> marks = new LinkedHashMap<String, Long>();
+                for (Map.Entry<String, AtomicLong> mark : HIGH_WATER_MARKS.entrySet()) {
+                    marks.put(mark.getKey(), mark.getValue().get());
+                }
+                checkpoint.commit(end, marks);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Wrote checkpoint of " + rows + " rows to " + checkpoint.getDirectory() + " at sequence " + end);
+                }
+                if (capture == null) compact(journal, end);
+                return end;
+            } catch (IOException e) {
+                checkpoint.abort();
+                throw e;
+            } finally {
+                if (capture != null && this.journal == capture) {
+                    this.journal = null;
+                    capture.seal();
+                    capture.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the journal records a committed checkpoint is consistent with. The checkpoint
+     * stays valid should the journal fail to be rewritten, hence failures are only logged.
+     */
+    private void compact(DatastoreJournal journal, long lsn) {
+        try {
+            journal.compact(lsn);
+        } catch (IOException e) {
+            LOG.warn("Could not drop the records of journal " + journal.getFile() + " up to sequence " + lsn, e);
+        }
+    }
+
+    /**
+     * Writes a final checkpoint if snapshots are enabled, then writes any pending journal
+     * records and stops journaling.
+     */
+    public synchronized void close() {
+        if (checkpoint != null) {
+            snapshot();
+            checkpoint = null;
+        }
+        DatastoreJournal journal = this.journal;
+        this.journal = null;
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            throw new GriffonDomainException("Could not close the journal of datastore " + name, e);
+        }
+    }
+
+    /**
+     * Starts a transaction bound to the calling thread. Every row saved or removed by
+     * the thread is recorded until the transaction is committed or rolled back.
+     */
+    public Transaction begin() {
+        if (TRANSACTIONS.get() != null) {
+            throw new IllegalStateException("A transaction of datastore " + name + " is already active on thread " + Thread.currentThread().getName());
+        }
+        Transaction transaction = new Transaction();
+        TRANSACTIONS.set(transaction);
+        return transaction;
+    }
+
+    /**
+     * Returns the transaction bound to the calling thread, or {@code null} if there is none.
+     */
+    public Transaction currentTransaction() {
+        return TRANSACTIONS.get();
+    }
+
+    /**
+     * Undo log of the rows changed by a single thread.
+     * <p/>
+     * Changes are applied to the datasets as they are made, hence committing merely
+     * discards the log and creating a savepoint records its length. Rolling back puts
+     * back the rows as they were stored before each change, newest first, journaling
+     * them as regular saves and removals. The property values of updated rows are only
+     * put back for datasets that retain row images, otherwise rows keep the values they
+     * were modified in place with and only their version is put back.
+     * <p/>
+     * Transactions do not isolate threads from each other: rows are shared instances,
+     * so other threads see changes before they are committed. A row another thread has
+     * saved or removed since it was changed is not rolled back; the remaining rows are,
+     * after which a {@link StaleObjectException} is thrown.
+     */
+    public final class Transaction implements TransactionStatus {
+        private final List<Change> changes = new ArrayList<Change>();
+        private boolean rollbackOnly;
+        private boolean active = true;
+
+        private Transaction() {
+        }
+
+        public void setRollbackOnly() {
+            rollbackOnly = true;
+        }
+
+        public boolean isRollbackOnly() {
+            return rollbackOnly;
+        }
+
+        public Object createSavepoint() {
+            checkActive();
+            return new Savepoint(this, changes.size());
+        }
+
+        public void rollbackToSavepoint(Object savepoint) {
+            checkActive();
+            if (!(savepoint instanceof Savepoint) || ((Savepoint) savepoint).transaction != this) {
+                throw new IllegalArgumentException("Savepoint " + savepoint + " does not belong to this transaction");
+            }
+            int mark = ((Savepoint) savepoint).mark;
+            if (mark > changes.size()) {
+                throw new IllegalArgumentException("Savepoint " + savepoint + " was released by an earlier rollback");
+            }
+            undo(mark);
+        }
+
+        public void commit() {
+            checkActive();
+            complete();
+        }
+
+        public void rollback() {
+            checkActive();
+            try {
+                undo(0);
+            } finally {
+                complete();
+            }
+        }
+
+        private void record(Change change) {
+            changes.add(change);
+        }
+
+        private void undo(int mark) {
+            StaleObjectException stale = null;
+            for (int i = changes.size() - 1; i >= mark; i--) {
+                try {
+                    changes.remove(i).undo();
+                } catch (StaleObjectException e) {
+                    if (stale == null) stale = e;
+                }
+            }
+            if (stale != null) throw stale;
+        }
+
+        private void checkActive() {
+            if (!active) {
+                throw new IllegalStateException("Transaction of datastore " + name + " has already completed");
+            }
+        }
+
+        private void complete() {
+            active = false;
+            changes.clear();
+            TRANSACTIONS.remove();
+        }
+    }
+
+    private static final class Savepoint {
+        private final Transaction transaction;
+        private final int mark;
+
+        private Savepoint(Transaction transaction, int mark) {
+            this.transaction = transaction;
+            this.mark = mark;
+        }
+
+        public String toString() {
+            return "Savepoint[" + mark + "]";
+        }
+    }
+
+    private interface Change {
+        void undo();
+    }
+
+    /**
+     * Rows of a single domain class, spread over one or more {@link DatasetPartition}s
+     * by identity hash. Queries gather the candidates of every partition, merging them
+     * back into identity order.
+     *
+     * @see griffon.persistence.Partitioned
+     */
     public static class Dataset<T extends GriffonDomain> {
         private static final Logger LOG = LoggerFactory.getLogger(Dataset.class);
-        private final Map<Object, T> ROWS = Collections.synchronizedSortedMap(new TreeMap<Object, T>());
+        private static final String KEY_PARALLEL_THRESHOLD = "griffon.domain.parallel.threshold";
+        private static final String KEY_PARALLEL_THREADS = "griffon.domain.parallel.threads";
+        private static final String KEY_PRIMITIVE_IDENTITIES = "griffon.domain.identity.primitive";
+        private static final String KEY_RETAIN_IMAGES = "griffon.domain.transaction.images";
+        private final DatasetPartition<T>[] PARTITIONS;
+        private final ConcurrentMap<Object, CountDownLatch> CLAIMS = new ConcurrentHashMap<Object, CountDownLatch>();
+        private final ThreadLocal<Map<Map<String, Object>, CountDownLatch>> CLAIMED = new ThreadLocal<Map<Map<String, Object>, CountDownLatch>>();
+        private final List<UniqueIndex<T>> UNIQUES = new ArrayList<UniqueIndex<T>>();
+        private final ConcurrentHashMapDatastore datastore;
         private final GriffonDomainClass domainClass;
         private final String name;
+        private final GriffonDomainProperty version;
+        private final int parallelThreshold;
+        private final int parallelThreads;
+        private final Comparator<T> identityOrder = new Comparator<T>() {
+            public int compare(T a, T b) {
+                return ((Comparable) identityOf(a)).compareTo(identityOf(b));
+            }
+        };
 
         public Dataset(GriffonDomainClass domainClass) {
+            this(null, domainClass);
+        }
+
+        public Dataset(ConcurrentHashMapDatastore datastore, GriffonDomainClass domainClass) {
+            this.datastore = datastore;
             this.domainClass = domainClass;
             this.name = domainClass.getName();
+            this.version = domainClass.getPropertyByName(GriffonDomainProperty.VERSION);
+            Map config = ApplicationHolder.getApplication() != null ? ApplicationHolder.getApplication().getConfig() : Collections.emptyMap();
+            boolean primitiveIdentities = getConfigValueAsBoolean(config, KEY_PRIMITIVE_IDENTITIES, false);
+            boolean retainImages = isRestorable(domainClass.getClazz()) || getConfigValueAsBoolean(config, KEY_RETAIN_IMAGES, false);
+            PARTITIONS = new DatasetPartition[getPartitionCount(domainClass.getClazz())];
+            for (int i = 0; i < PARTITIONS.length; i++) {
+                PARTITIONS[i] = new DatasetPartition<T>(domainClass, primitiveIdentities, retainImages);
+            }
+            for (Map.Entry<String, ConstrainedProperty> entry : domainClass.getConstrainedProperties().entrySet()) {
+                List<String> uniquenessGroup = uniquenessGroupOf(entry.getValue());
+                if (uniquenessGroup != null) UNIQUES.add(new UniqueIndex<T>(domainClass, entry.getKey(), uniquenessGroup));
+            }
+
+            parallelThreshold = getConfigValueAsInt(config, KEY_PARALLEL_THRESHOLD, 0);
+            parallelThreads = getConfigValueAsInt(config, KEY_PARALLEL_THREADS, Runtime.getRuntime().availableProcessors());
         }
 
         public String getName() {
             return name;
         }
 
+        public GriffonDomainClass getDomainClass() {
+            return domainClass;
+        }
+
         public T save(T entity) {
             if (entity == null) {
                 throw new IllegalArgumentException("Dataset is null!");
             }
+            Object identityValue = savedIdentityOf(entity);
+            DatasetPartition<T> partition = partitionFor(identityValue);
+            DatastoreJournal journal;
+            long lsn = 0;
+            boolean update;
+            // records for the same identity must reach the journal in the order they were applied.
+            // Rows are encoded under the lock, once they carry the new version but before they are
+            // applied, so that a row that cannot be encoded is left as it was. The journal is read
+            // again once the row is applied, as a checkpoint may have started capturing changes
+            // in the meantime
+            synchronized (partition.lockFor(identityValue)) {
+                checkVersion(partition, identityValue, entity);
+                Object[] keys = uniqueKeysOf(entity, null);
+                claimUniqueKeys(identityValue, keys);
+                Object previousVersion = incrementVersion(entity);
+                byte[] payload;
+                try {
+                    payload = encodeIfJournaled(identityValue, entity);
+                } catch (RuntimeException e) {
+                    restoreVersion(entity, previousVersion);
+                    unclaimUniqueKeys(identityValue, keys);
+                    throw e;
+                }
+                recordChange(partition, identityValue, entity);
+                update = partition.save(identityValue, entity);
+                bindUniqueKeys(identityValue, keys);
+                journal = journal();
+                if (journal != null) lsn = journal.append(DatastoreJournal.SAVE, payloadOf(payload, identityValue, entity));
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug((update ? "Updated" : "Saved") + " entity with id = " + identityValue + (lsn > 0 ? " (lsn = " + lsn + ")" : ""));
+            }
+            // the row can be found by now, callers waiting for its key need not wait for the journal
+            releaseClaimsOn(entity);
+            if (journal != null && journal.isSync()) journal.await(lsn);
+            return entity;
+        }
+
+        /**
+         * Stores an entity read back from disk, bypassing the journal.
+         */
+        public void load(T entity) {
+            Object identityValue = identityOf(entity);
+            partitionFor(identityValue).save(identityValue, entity);
+            restoreUniqueKeys(identityValue, entity);
+            if (datastore != null) datastore.observeIdentity(name, identityValue);
+        }
+
+        /**
+         * Stores entities read back from disk, bypassing the journal. Rows are grouped by
+         * partition and handed over in identity order, so that every index is populated
+         * in a single pass per batch.
+         */
+        public void load(Collection<T> entities) {
+            SortedMap<Object, T>[] batches = new SortedMap[PARTITIONS.length];
+            for (T entity : entities) {
+                Object identityValue = identityOf(entity);
+                int index = partitionIndex(identityValue);
+                if (batches[index] == null) batches[index] = new TreeMap<Object, T>();
+                batches[index].put(identityValue, entity);
+                if (datastore != null) datastore.observeIdentity(name, identityValue);
+            }
+            for (int i = 0; i < batches.length; i++) {
+                if (batches[i] == null) continue;
+                PARTITIONS[i].load(batches[i]);
+                for (Map.Entry<Object, T> row : batches[i].entrySet()) {
+                    restoreUniqueKeys(row.getKey(), row.getValue());
+                }
+            }
+        }
+
+        /**
+         * Removes the row with the supplied identity, bypassing the journal.
+         */
+        public void unload(Object identity) {
+            Object identityValue = normalizeIdentity(identity);
+            if (identityValue == null) return;
+            partitionFor(identityValue).remove(identityValue);
+            releaseUniqueKeys(identityValue);
+        }
+
+        private DatastoreJournal journal() {
+            return datastore != null ? datastore.journal : null;
+        }
+
+        private byte[] encode(Object identity, T entity) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try {
+                if (entity != null) {
+                    RowCodec.writeRow(new DataOutputStream(bytes), domainClass, identity, entity);
+                } else {
+                    RowCodec.writeKey(new DataOutputStream(bytes), domainClass, identity);
+                }
+            } catch (IOException e) {
+                throw new GriffonDomainException("Cannot write " + domainClass.getName() + " with id = " + identity + " to the journal", e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Encodes a row if the datastore is journaled, so that a row that cannot be written
+         * to the journal is detected before it is applied.
+         */
+        private byte[] encodeIfJournaled(Object identity, T entity) {
+            return journal() != null ? encode(identity, entity) : null;
+        }
+
+        /**
+         * Returns a payload obtained from {@link #encodeIfJournaled}, encoding the row if a
+         * checkpoint started capturing changes after it was called.
+         */
+        private byte[] payloadOf(byte[] payload, Object identity, T entity) {
+            return payload != null ? payload : encode(identity, entity);
+        }
+
+        private Object savedIdentityOf(T entity) {
             GriffonDomainClass griffonClass = (GriffonDomainClass) entity.getGriffonClass();
             GriffonDomainProperty identity = griffonClass.getPropertyByName(GriffonDomainProperty.IDENTITY);
             if (identity == null) {
                 throw new IllegalArgumentException("Cannot save " + entity + " because it does not have an " + GriffonDomainProperty.IDENTITY + " property.");
             }
-            Object identityValue = identity.getValue(entity);
-            if (ROWS.containsKey(identityValue)) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Updating entity with id = " + identityValue);
+            Object identityValue = normalizeIdentity(identity.getValue(entity));
+            if (identityValue == null) {
+                throw new IllegalArgumentException("Cannot save " + entity + " because its " + GriffonDomainProperty.IDENTITY + " property is null.");
+            }
+            return identityValue;
+        }
+
+        /**
+         * Fails if the version of the entity differs from the version the row had when it
+         * was last saved, meaning the entity was read or modified before that save. The
+         * check applies to the stored instance as well, which may have been saved by
+         * another thread since the caller read it. Must be called while holding the lock
+         * guarding the identity.
+         */
+        private void checkVersion(DatasetPartition<T> partition, Object identity, T entity) {
+            if (version == null || !partition.exists(identity)) return;
+            Object expected = version.getValue(entity);
+            Object actual = partition.savedVersion(identity);
+            if (!sameVersion(expected, actual)) {
+                throw new StaleObjectException(name, identity, expected, actual);
+            }
+        }
+
+        private static boolean sameVersion(Object expected, Object actual) {
+            if (expected instanceof Number && actual instanceof Number) {
+                return ((Number) expected).longValue() == ((Number) actual).longValue();
+            }
+            return expected != null ? expected.equals(actual) : actual == null;
+        }
+
+        /**
+         * Records the row stored under the identity in the transaction of the calling
+         * thread, if any, along with the row replacing it, {@code null} for a removal.
+         * Must be called while holding the lock guarding the identity, once the version
+         * of the replacing row is set but before the row is changed.
+         */
+        private void recordChange(DatasetPartition<T> partition, Object identity, T replacement) {
+            Transaction transaction = datastore != null ? datastore.TRANSACTIONS.get() : null;
+            if (transaction != null) {
+                transaction.record(new RowChange(identity, partition.fetch(identity), partition.image(identity),
+                    partition.savedVersion(identity), replacement != null, replacement != null && version != null ? version.getValue(replacement) : null));
+            }
+        }
+
+        private final class RowChange implements Change {
+            private final Object identity;
+            private final T previous;
+            private final Object[] image;
+            private final Object previousVersion;
+            private final boolean saved;
+            private final Object savedVersion;
+
+            private RowChange(Object identity, T previous, Object[] image, Object previousVersion, boolean saved, Object savedVersion) {
+                this.identity = identity;
+                this.previous = previous;
+                this.image = image;
+                this.previousVersion = previousVersion;
+                this.saved = saved;
+                this.savedVersion = savedVersion;
+            }
+
+            public void undo() {
+                DatasetPartition<T> partition = partitionFor(identity);
+                DatastoreJournal journal;
+                long lsn = 0;
+                synchronized (partition.lockFor(identity)) {
+                    checkUnchanged(partition);
+                    byte[] payload;
+                    if (previous != null) {
+                        T current = partition.fetch(identity);
+                        Object[] currentImage = partition.image(identity);
+                        Object currentVersion = partition.savedVersion(identity);
+                        putBack(partition, previous, image, previousVersion);
+                        try {
+                            payload = encodeIfJournaled(identity, previous);
+                        } catch (RuntimeException e) {
+                            if (current == previous) putBack(partition, current, currentImage, currentVersion);
+                            throw e;
+                        }
+                        partition.save(identity, previous);
+                        restoreUniqueKeys(identity, previous);
+                    } else {
+                        payload = encodeIfJournaled(identity, null);
+                        partition.remove(identity);
+                        releaseUniqueKeys(identity);
+                    }
+                    journal = journal();
+                    if (journal != null) {
+                        lsn = journal.append(previous != null ? DatastoreJournal.SAVE : DatastoreJournal.DELETE, payloadOf(payload, identity, previous));
+                    }
+                }
+                if (journal != null && journal.isSync()) journal.await(lsn);
+            }
+
+            /**
+             * Copies the values of an image back into an entity, or merely its version if
+             * the partition does not retain images.
+             */
+            private void putBack(DatasetPartition<T> partition, T entity, Object[] entityImage, Object entityVersion) {
+                if (entityImage != null) {
+                    partition.restore(entity, entityImage);
+                } else {
+                    restoreVersion(entity, entityVersion);
+                }
+            }
+
+            /**
+             * Fails if the row was saved or removed by someone else since this change was
+             * made, in which case undoing it would overwrite that write.
+             */
+            private void checkUnchanged(DatasetPartition<T> partition) {
+                boolean stored = partition.exists(identity);
+                Object actual = partition.savedVersion(identity);
+                if (stored != saved || (saved && !sameVersion(savedVersion, actual))) {
+                    throw new StaleObjectException(name, identity, savedVersion, actual);
+                }
+            }
+        }
+
+        /**
+         * Returns the properties a property constrained as unique is scoped by, or
+         * {@code null} if it is not unique. The constraint is either applied or kept as
+         * meta data, depending on whether a unique constraint was registered.
+         */
+        private static List<String> uniquenessGroupOf(ConstrainedProperty constrainedProperty) {
+            Constraint constraint = constrainedProperty.getAppliedConstraint(AbstractUniqueConstraint.VALIDATION_DSL_NAME);
+            if (constraint instanceof AbstractUniqueConstraint) {
+                AbstractUniqueConstraint unique = (AbstractUniqueConstraint) constraint;
+                return unique.isUnique() ? unique.getUniquenessGroup() : null;
+            }
+            Object value = constrainedProperty.getMetaConstraintValue(AbstractUniqueConstraint.VALIDATION_DSL_NAME);
+            if (value instanceof Boolean) {
+                return (Boolean) value ? Collections.<String>emptyList() : null;
+            } else if (value instanceof CharSequence) {
+                return Collections.singletonList(value.toString());
+            } else if (value instanceof Collection) {
+                List<String> uniquenessGroup = new ArrayList<String>();
+                for (Object propertyName : (Collection) value) {
+                    uniquenessGroup.add(String.valueOf(propertyName));
+                }
+                return uniquenessGroup;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the identity of the stored row holding the same value as the entity for
+         * a property constrained as unique, or {@code null} if there is none. The row may
+         * be the entity itself.
+         */
+        public Object uniqueOwnerOf(String propertyName, T entity) {
+            for (UniqueIndex<T> unique : UNIQUES) {
+                if (unique.getPropertyName().equals(propertyName)) {
+                    return unique.ownerOf(unique.keyOf(entity, null));
+                }
+            }
+            return null;
+        }
+
+        private Object[] uniqueKeysOf(T entity, Map<String, Object> values) {
+            if (UNIQUES.isEmpty()) return null;
+            Object[] keys = new Object[UNIQUES.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = UNIQUES.get(i).keyOf(entity, values);
+            }
+            return keys;
+        }
+
+        private void claimUniqueKeys(Object identity, Object[] keys) {
+            if (keys == null) return;
+            for (int i = 0; i < keys.length; i++) {
+                if (!UNIQUES.get(i).claim(identity, keys[i])) {
+                    for (int j = 0; j < i; j++) {
+                        UNIQUES.get(j).unclaim(identity, keys[j]);
+                    }
+                    UniqueIndex<T> unique = UNIQUES.get(i);
+                    Object value = keys[i] instanceof List ? ((List) keys[i]).get(0) : keys[i];
+                    throw new UniqueConstraintException(name, unique.getPropertyName(), value);
+                }
+            }
+        }
+
+        private void unclaimUniqueKeys(List<Object> identities, List<Object[]> keys) {
+            for (int i = 0; i < keys.size(); i++) {
+                unclaimUniqueKeys(identities.get(i), keys.get(i));
+            }
+        }
+
+        private void unclaimUniqueKeys(Object identity, Object[] keys) {
+            if (keys == null) return;
+            for (int i = 0; i < keys.length; i++) {
+                UNIQUES.get(i).unclaim(identity, keys[i]);
+            }
+        }
+
+        private void bindUniqueKeys(Object identity, Object[] keys) {
+            if (keys == null) return;
+            for (int i = 0; i < keys.length; i++) {
+                UNIQUES.get(i).bind(identity, keys[i]);
+            }
+        }
+
+        private void restoreUniqueKeys(Object identity, T entity) {
+            for (UniqueIndex<T> unique : UNIQUES) {
+                unique.restore(identity, unique.keyOf(entity, null));
+            }
+        }
+
+        private void releaseUniqueKeys(Object identity) {
+            for (UniqueIndex<T> unique : UNIQUES) {
+                unique.release(identity);
+            }
+        }
+
+        /**
+         * Increments the version of the entity, returning the version it replaced.
+         */
+        private Object incrementVersion(T entity) {
+            if (version == null) return null;
+            Object current = version.getValue(entity);
+            version.setValue(entity, current instanceof Number ? ((Number) current).longValue() + 1 : 0L);
+            return current;
+        }
+
+        private void restoreVersion(T entity, Object previous) {
+            if (version != null) version.setValue(entity, previous);
+        }
+
+        public List<T> saveAll(Collection<T> entities) {
+            return saveAll(entities, null);
+        }
+
+        /**
+         * Saves a batch of entities. Rows are grouped by the stripe lock guarding their
+         * identity; every lock is taken once per batch rather than once per row, and the
+         * journal records of a group are appended together.
+         * <p/>
+         * The unique keys of every row are claimed before any row is saved. Rows whose keys
+         * are held by another row, including an earlier row of the batch, are left out and
+         * reported in {@code violations}; if {@code violations} is null the first violation
+         * is thrown instead and nothing is saved.
+         * <p/>
+         * The versions of a group are checked before any of its rows is saved. Should a row
+         * be stale, the rows of the groups handled before it remain saved.
+         */
+        public List<T> saveAll(Collection<T> entities, Map<T, UniqueConstraintException> violations) {
+            List<Object> identities = new ArrayList<Object>(entities.size());
+            for (T entity : entities) {
+                if (entity == null) {
+                    throw new IllegalArgumentException("Dataset is null!");
+                }
+                identities.add(savedIdentityOf(entity));
+            }
+            List<T> rows = new ArrayList<T>(entities);
+            List<Object[]> keys = new ArrayList<Object[]>(rows.size());
+            if (!UNIQUES.isEmpty()) {
+                List<Object> claimedIdentities = new ArrayList<Object>(rows.size());
+                List<T> claimedRows = new ArrayList<T>(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    Object[] rowKeys = uniqueKeysOf(rows.get(i), null);
+                    try {
+                        claimUniqueKeys(identities.get(i), rowKeys);
+                    } catch (UniqueConstraintException e) {
+                        if (violations == null) {
+                            unclaimUniqueKeys(claimedIdentities, keys);
+                            throw e;
+                        }
+                        violations.put(rows.get(i), e);
+                        continue;
+                    }
+                    claimedIdentities.add(identities.get(i));
+                    claimedRows.add(rows.get(i));
+                    keys.add(rowKeys);
                 }
+                identities = claimedIdentities;
+                rows = claimedRows;
             } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Saving entity with id = " + identityValue);
+                keys.addAll(Collections.<Object[]>nCopies(rows.size(), null));
+            }
+            DatastoreJournal journal = null;
+
+            long lsn = 0;
+            for (List<Integer> group : groupByLock(identities)) {
+                DatasetPartition<T> partition = partitionFor(identities.get(group.get(0)));
+                synchronized (partition.lockFor(identities.get(group.get(0)))) {
+                    try {
+                        for (Integer row : group) {
+                            checkVersion(partition, identities.get(row), rows.get(row));
+                        }
+                    } catch (StaleObjectException e) {
+                        // rows saved so far own their keys already, unclaiming them is a no-op
+                        unclaimUniqueKeys(identities, keys);
+                        throw e;
+                    }
+                    List<byte[]> payloads = new ArrayList<byte[]>(group.size());
+                    List<Object> previousVersions = new ArrayList<Object>(group.size());
+                    try {
+                        for (Integer row : group) {
+                            previousVersions.add(incrementVersion(rows.get(row)));
+                            payloads.add(encodeIfJournaled(identities.get(row), rows.get(row)));
+                        }
+                    } catch (RuntimeException e) {
+                        for (int i = 0; i < previousVersions.size(); i++) {
+                            restoreVersion(rows.get(group.get(i)), previousVersions.get(i));
+                        }
+                        unclaimUniqueKeys(identities, keys);
+                        throw e;
+                    }
+                    for (Integer row : group) {
+                        recordChange(partition, identities.get(row), rows.get(row));
+                        partition.save(identities.get(row), rows.get(row));
+                        bindUniqueKeys(identities.get(row), keys.get(row));
+                    }
+                    journal = journal();
+                    if (journal != null) {
+                        for (int i = 0; i < group.size(); i++) {
+                            payloads.set(i, payloadOf(payloads.get(i), identities.get(group.get(i)), rows.get(group.get(i))));
+                        }
+                        lsn = Math.max(lsn, journal.append(DatastoreJournal.SAVE, payloads));
+                    }
                 }
             }
-            ROWS.put(identityValue, entity);
-            return entity;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Saved " + rows.size() + " entities");
+            }
+            if (journal != null && journal.isSync()) journal.await(lsn);
+            return rows;
+        }
+
+        /**
+         * Removes a batch of entities, returning how many of them were stored. The versions
+         * of a group are checked before any of its rows is removed.
+         */
+        public int removeAll(Collection<T> entities) {
+            List<Object> identities = new ArrayList<Object>(entities.size());
+            List<T> rows = new ArrayList<T>(entities.size());
+            for (T entity : entities) {
+                Object identityValue = entity != null ? identityOf(entity) : null;
+                if (identityValue != null) {
+                    identities.add(identityValue);
+                    rows.add(entity);
+                }
+            }
+            return removeAll(identities, rows, null);
+        }
+
+        /**
+         * Removes every row matching the criterion, returning how many rows were removed.
+         * Matches are evaluated again under their stripe lock, hence rows changed by a
+         * concurrent save so that they no longer match are left alone.
+         */
+        public int removeAll(Criterion criterion) {
+            RowFilter<T> filter = filterFor(criterion);
+            List<T> rows = matches(criterion, filter);
+            List<Object> identities = new ArrayList<Object>(rows.size());
+            for (T entity : rows) {
+                identities.add(identityOf(entity));
+            }
+            return removeAll(identities, rows, filter);
+        }
+
+        private int removeAll(List<Object> identities, List<T> rows, RowFilter<T> filter) {
+            int removed = 0;
+            long lsn = 0;
+            DatastoreJournal journal = null;
+            for (List<Integer> group : groupByLock(identities)) {
+                DatasetPartition<T> partition = partitionFor(identities.get(group.get(0)));
+                synchronized (partition.lockFor(identities.get(group.get(0)))) {
+                    if (filter == null) {
+                        for (Integer row : group) {
+                            checkVersion(partition, identities.get(row), rows.get(row));
+                        }
+                    }
+                    List<Object> keys = new ArrayList<Object>(group.size());
+                    for (Integer row : group) {
+                        Object identityValue = identities.get(row);
+                        if (filter != null && !stillMatches(partition, identityValue, rows.get(row), filter)) continue;
+                        if (!partition.exists(identityValue)) continue;
+                        recordChange(partition, identityValue, null);
+                        partition.remove(identityValue);
+                        releaseUniqueKeys(identityValue);
+                        keys.add(identityValue);
+                    }
+                    removed += keys.size();
+                    journal = journal();
+                    if (journal != null && !keys.isEmpty()) {
+                        List<byte[]> payloads = new ArrayList<byte[]>(keys.size());
+                        for (Object key : keys) {
+                            payloads.add(encode(key, null));
+                        }
+                        lsn = Math.max(lsn, journal.append(DatastoreJournal.DELETE, payloads));
+                    }
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Removed " + removed + " entities");
+            }
+            if (journal != null && journal.isSync()) journal.await(lsn);
+            return removed;
+        }
+
+        /**
+         * Sets the supplied property values on every row matching the criterion (all rows
+         * if the criterion is null), returning how many rows were updated. Rows are changed
+         * in place without running validation nor events; matches are evaluated again under
+         * their stripe lock, and indexes only move the rows whose keys actually change.
+         * <p/>
+         * Unique constraints are enforced: should a row end up with a key held by another
+         * row, a {@link UniqueConstraintException} is thrown and the rows updated before
+         * it remain updated. The same goes for a row that cannot be written to the journal,
+         * which is left unchanged.
+         */
+        public int updateAll(Criterion criterion, Map<String, Object> values) {
+            if (values == null || values.isEmpty()) {
+                throw new IllegalArgumentException("Cannot update " + domainClass.getName() + " because no property values were supplied");
+            }
+            List<GriffonDomainProperty> properties = new ArrayList<GriffonDomainProperty>(values.size());
+            for (String propertyName : values.keySet()) {
+                if (GriffonDomainProperty.IDENTITY.equals(propertyName) || GriffonDomainProperty.VERSION.equals(propertyName)) {
+                    throw new IllegalArgumentException("Cannot update the " + propertyName + " property of " + domainClass.getName());
+                }
+                GriffonDomainProperty property = domainClass.getPropertyByName(propertyName);
+                if (property == null) {
+                    throw new IllegalArgumentException(domainClass.getName() + " does not have a property named " + propertyName);
+                }
+                properties.add(property);
+            }
+
+            RowFilter<T> filter = criterion != null ? filterFor(criterion) : null;
+            List<T> rows = criterion != null ? matches(criterion, filter) : list();
+            List<Object> identities = new ArrayList<Object>(rows.size());
+            for (T entity : rows) {
+                identities.add(identityOf(entity));
+            }
+
+            int updated = 0;
+            long lsn = 0;
+            DatastoreJournal journal = null;
+            RuntimeException failure = null;
+            for (List<Integer> group : groupByLock(identities)) {
+                DatasetPartition<T> partition = partitionFor(identities.get(group.get(0)));
+                synchronized (partition.lockFor(identities.get(group.get(0)))) {
+                    List<Integer> changed = new ArrayList<Integer>(group.size());
+                    List<byte[]> payloads = new ArrayList<byte[]>(group.size());
+                    try {
+                        for (Integer row : group) {
+                            Object identityValue = identities.get(row);
+                            T entity = rows.get(row);
+                            if (filter != null ? !stillMatches(partition, identityValue, entity, filter) : partition.fetch(identityValue) != entity) continue;
+                            payloads.add(update(partition, identityValue, entity, properties, values));
+                            changed.add(row);
+                        }
+                    } catch (RuntimeException e) {
+                        // rows updated so far are journaled before giving up
+                        failure = e;
+                    }
+                    updated += changed.size();
+                    journal = journal();
+                    if (journal != null && !changed.isEmpty()) {
+                        for (int i = 0; i < changed.size(); i++) {
+                            payloads.set(i, payloadOf(payloads.get(i), identities.get(changed.get(i)), rows.get(changed.get(i))));
+                        }
+                        lsn = Math.max(lsn, journal.append(DatastoreJournal.SAVE, payloads));
+                    }
+                }
+                if (failure != null) break;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Updated " + updated + " entities");
+            }
+            if (journal != null && journal.isSync()) journal.await(lsn);
+            if (failure != null) throw failure;
+            return updated;
+        }
+
+        /**
+         * Sets the supplied property values on a stored row, returning its journal payload
+         * if the datastore is journaled. The row is left unchanged should its unique keys be
+         * held by another row or should it fail to be encoded. Must be called while holding
+         * the lock guarding the identity.
+         */
+        private byte[] update(DatasetPartition<T> partition, Object identity, T entity, List<GriffonDomainProperty> properties, Map<String, Object> values) {
+            Object[] keys = uniqueKeysOf(entity, values);
+            claimUniqueKeys(identity, keys);
+            Object[] previousValues = new Object[properties.size()];
+            for (int i = 0; i < previousValues.length; i++) {
+                previousValues[i] = properties.get(i).getValue(entity);
+            }
+            Object previousVersion = version != null ? version.getValue(entity) : null;
+            byte[] payload;
+            try {
+                for (GriffonDomainProperty property : properties) {
+                    property.setValue(entity, values.get(property.getName()));
+                }
+                incrementVersion(entity);
+                payload = encodeIfJournaled(identity, entity);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < previousValues.length; i++) {
+                    properties.get(i).setValue(entity, previousValues[i]);
+                }
+                restoreVersion(entity, previousVersion);
+                unclaimUniqueKeys(identity, keys);
+                throw e;
+            }
+            recordChange(partition, identity, entity);
+            partition.save(identity, entity);
+            bindUniqueKeys(identity, keys);
+            return payload;
+        }
+
+        /**
+         * Collects the rows matching the criterion in identity order.
+         */
+        private List<T> matches(Criterion criterion, RowFilter<T> filter) {
+            List<T> matches = parallelFilter(candidatesFor(criterion), filter);
+            if (matches != null) return matches;
+            matches = new ArrayList<T>();
+            for (T entity : candidatesFor(criterion)) {
+                if (filter.accept(entity)) matches.add(entity);
+            }
+            return matches;
+        }
+
+        private boolean stillMatches(DatasetPartition<T> partition, Object identity, T entity, RowFilter<T> filter) {
+            return partition.fetch(identity) == entity && filter.accept(entity);
+        }
+
+        /**
+         * Groups the positions of the supplied identities by the lock guarding them, keeping
+         * the original order within each group.
+         */
+        private Collection<List<Integer>> groupByLock(List<Object> identities) {
+            Map<Object, List<Integer>> groups = new IdentityHashMap<Object, List<Integer>>();
+            for (int i = 0; i < identities.size(); i++) {
+                Object identityValue = identities.get(i);
+                Object lock = partitionFor(identityValue).lockFor(identityValue);
+                List<Integer> group = groups.get(lock);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(lock, group);
+                }
+                group.add(i);
+            }
+            return groups.values();
         }
 
         public T remove(T entity) {
@@ -114,69 +1285,132 @@ public class ConcurrentHashMapDatastore {
             if (identity == null) {
                 throw new IllegalArgumentException("Cannot remove " + entity + " because it does not have an " + GriffonDomainProperty.IDENTITY + " property.");
             }
-            Object identityValue = identity.getValue(entity);
+            Object identityValue = normalizeIdentity(identity.getValue(entity));
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Removing entity with id = " + identityValue);
             }
-            ROWS.remove(identityValue);
+            if (identityValue == null) return entity;
+            DatasetPartition<T> partition = partitionFor(identityValue);
+            long lsn = 0;
+            DatastoreJournal journal;
+            synchronized (partition.lockFor(identityValue)) {
+                checkVersion(partition, identityValue, entity);
+                if (partition.exists(identityValue)) recordChange(partition, identityValue, null);
+                partition.remove(identityValue);
+                releaseUniqueKeys(identityValue);
+                journal = journal();
+                if (journal != null) lsn = journal.append(DatastoreJournal.DELETE, encode(identityValue, null));
+            }
+            if (journal != null && journal.isSync()) journal.await(lsn);
             return entity;
         }
 
         public List<T> list() {
-            List<T> entities = new ArrayList<T>();
-            entities.addAll(ROWS.values());
-            return entities;
+            return new ArrayList<T>(rows());
         }
 
         public static final String KEY_MAX = "max";
         public static final String KEY_SORT = "sort";
         public static final String KEY_ORDER = "order";
         public static final String KEY_OFFSET = "offset";
+        public static final String KEY_NULLS = "nulls";
+        public static final String KEY_IGNORE_CASE = "ignoreCase";
+        public static final String KEY_LOCALE = "locale";
 
-        public List<T> list(Map<String, Object> options) {
+        public PagedResultList<T> list(Map<String, Object> options) {
             int max = determineMax(options);
             int offset = determineOffset(options);
-            String sort = determineSort(options);
-            GriffonDomain.Comparator.Order order = determineOrder(options);
+            RowOrder<T> order = determineSortOrder(options);
 
-            List<T> entities = new ArrayList<T>();
-            synchronized (ROWS) {
-                int size = ROWS.size();
-                Iterator<T> iterator = ROWS.values().iterator();
-                if (offset < size) {
-                    int count = 0;
-                    for (int row = 0; row < size && count < max; row++) {
-                        T entity = iterator.next();
-                        if (row < offset) continue;
-                        entities.add(entity);
-                        count++;
-                    }
+            String sort = order.getNaturalOrderPropertyName();
+            Iterator<T> iterator = sort != null ? iterator(sort, order.isAscending()) : null;
+            if (iterator != null) {
+                List<T> entities = new ArrayList<T>();
+                for (int row = 0; iterator.hasNext() && entities.size() < max; row++) {
+                    T entity = iterator.next();
+                    if (row >= offset) entities.add(entity);
                 }
+                return new PagedResultList<T>(entities, size());
             }
 
-            Collections.sort(entities, new GriffonDomain.Comparator(sort, order));
-            return entities;
+            return select(rows(), null, options);
         }
 
         private int determineMax(Map<String, Object> options) {
-            Integer value = (Integer) options.get(KEY_MAX);
-            return value != null ? value : Integer.MAX_VALUE;
+            int value = intValueOf(options.get(KEY_MAX), Integer.MAX_VALUE);
+            return value >= 0 ? value : Integer.MAX_VALUE;
         }
 
         private int determineOffset(Map<String, Object> options) {
-            Integer value = (Integer) options.get(KEY_OFFSET);
-            return value != null ? value : 0;
+            return Math.max(0, intValueOf(options.get(KEY_OFFSET), 0));
         }
 
-        private String determineSort(Map<String, Object> options) {
-            Object value = options.get(KEY_SORT);
-            return value != null ? String.valueOf(value) : GriffonDomainProperty.IDENTITY;
+        private int intValueOf(Object value, int defaultValue) {
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            } else if (value != null) {
+                return Integer.parseInt(String.valueOf(value).trim());
+            }
+            return defaultValue;
         }
 
-        private GriffonDomain.Comparator.Order determineOrder(Map<String, Object> options) {
-            Object value = options.get(KEY_ORDER);
-            String order = value != null ? String.valueOf(value) : "asc";
-            return GriffonDomain.Comparator.Order.valueOf(order.toUpperCase());
+        /**
+         * Reads the sort order from {@code sort} and {@code order}, each of which may be a
+         * single value, a comma separated list or a {@code Collection}. Sort properties lacking
+         * an order take the last one given. {@code nulls} may be either {@code "first"} or {@code "last"};
+         * {@code ignoreCase} and {@code locale} compare Strings with a {@code Collator}.
+         */
+        private RowOrder<T> determineSortOrder(Map<String, Object> options) {
+            List<String> sort = listOf(options.get(KEY_SORT));
+            if (sort.isEmpty()) sort.add(GriffonDomainProperty.IDENTITY);
+            List<String> order = listOf(options.get(KEY_ORDER));
+            boolean[] ascending = new boolean[sort.size()];
+            for (int i = 0; i < ascending.length; i++) {
+                String value = order.isEmpty() ? "asc" : order.get(Math.min(i, order.size() - 1));
+                ascending[i] = GriffonDomain.Comparator.Order.valueOf(value.toUpperCase()) == GriffonDomain.Comparator.Order.ASC;
+            }
+
+            Boolean nullsFirst = null;
+            Object nulls = options.get(KEY_NULLS);
+            if (nulls != null) {
+                String value = String.valueOf(nulls).trim();
+                if ("first".equalsIgnoreCase(value)) {
+                    nullsFirst = true;
+                } else if ("last".equalsIgnoreCase(value)) {
+                    nullsFirst = false;
+                } else {
+                    throw new IllegalArgumentException("Invalid value '" + value + "' for " + KEY_NULLS + ". Allowed values are first, last.");
+                }
+            }
+
+            Collator collator = null;
+            Object locale = options.get(KEY_LOCALE);
+            boolean ignoreCase = DefaultTypeTransformation.castToBoolean(options.get(KEY_IGNORE_CASE));
+            if (locale != null || ignoreCase) {
+                collator = Collator.getInstance(locale instanceof Locale ? (Locale) locale : locale != null ? localeOf(String.valueOf(locale)) : Locale.getDefault());
+                collator.setStrength(ignoreCase ? Collator.SECONDARY : Collator.TERTIARY);
+            }
+
+            return new RowOrder<T>(domainClass, sort.toArray(new String[sort.size()]), ascending, nullsFirst, collator);
+        }
+
+        private List<String> listOf(Object value) {
+            List<String> values = new ArrayList<String>();
+            if (value instanceof Collection) {
+                for (Object element : (Collection) value) {
+                    values.add(String.valueOf(element).trim());
+                }
+            } else if (value != null) {
+                for (String element : String.valueOf(value).split(",")) {
+                    if (element.trim().length() > 0) values.add(element.trim());
+                }
+            }
+            return values;
+        }
+
+        private Locale localeOf(String tag) {
+            String[] parts = tag.trim().split("[_-]");
+            return new Locale(parts[0], parts.length > 1 ? parts[1] : "", parts.length > 2 ? parts[2] : "");
         }
 
         public T fetch(Object identity) {
@@ -184,154 +1418,346 @@ public class ConcurrentHashMapDatastore {
                 throw new IllegalArgumentException("Cannot fetch entity because supplied identity is null");
             }
 
-            GriffonDomainProperty property = domainClass.getPropertyByName(GriffonDomainProperty.IDENTITY);
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    Object propertyValue = property.getValue(entity);
-                    if (DefaultTypeTransformation.compareEqual(identity, propertyValue)) {
-                        return entity;
-                    }
-                }
+            Object identityValue = normalizeIdentity(identity);
+            return partitionFor(identityValue).fetch(identityValue);
+        }
+
+        public boolean exists(Object identity) {
+            if (identity == null) {
+                throw new IllegalArgumentException("Cannot check existence because supplied identity is null");
             }
-            return null;
+
+            Object identityValue = normalizeIdentity(identity);
+            return partitionFor(identityValue).exists(identityValue);
         }
 
-        public List<T> query(Object example) {
-            Map<String, Object> params = new LinkedHashMap<String, Object>();
-            if (example != null && domainClass.getClazz().isAssignableFrom(example.getClass())) {
-                for (GriffonDomainProperty property : domainClassOf((GriffonDomain) example).getPersistentProperties()) {
-                    Object value = property.getValue((GriffonDomain) example);
-                    if (value != null) {
-                        params.put(property.getName(), value);
-                    }
-                }
+        public boolean exists(Criterion criterion) {
+            return first(criterion) != null;
+        }
+
+        /**
+         * Counts the rows matching the criterion without collecting them.
+         */
+        public int count(Criterion criterion) {
+            RowFilter<T> filter = filterFor(criterion);
+            List<T> matches = parallelFilter(candidatesFor(criterion), filter);
+            if (matches != null) return matches.size();
+            int count = 0;
+            for (T entity : candidatesFor(criterion)) {
+                if (filter.accept(entity)) count++;
             }
-            return query(params);
+            return count;
         }
 
+        /**
+         * Returns a lazy iterator over the rows matching the criterion (all rows if the
+         * criterion is null) in identity order. Rows are evaluated one at a time as the
+         * iterator advances, so callers may stop early without paying for the rest.
+         * <p/>
+         * The iterator is weakly consistent: it never throws
+         * {@code ConcurrentModificationException}, returns each row at most once and may
+         * or may not reflect saves and deletes made after it was created.
+         */
+        public Iterator<T> stream(final Criterion criterion) {
+            final Iterator<T> candidates = (criterion != null ? candidatesFor(criterion) : rows()).iterator();
+            final RowFilter<T> filter = criterion != null ? filterFor(criterion) : null;
+            return new Iterator<T>() {
+                private T next;
 
-        public List<T> query(Object example, Map<String, Object> options) {
-            Map<String, Object> params = new LinkedHashMap<String, Object>();
-            if (example != null && domainClass.getClazz().isAssignableFrom(example.getClass())) {
-                for (GriffonDomainProperty property : domainClassOf((GriffonDomain) example).getPersistentProperties()) {
-                    Object value = property.getValue((GriffonDomain) example);
-                    if (value != null) {
-                        params.put(property.getName(), value);
+                public boolean hasNext() {
+                    while (next == null && candidates.hasNext()) {
+                        T entity = candidates.next();
+                        if (filter == null || filter.accept(entity)) next = entity;
                     }
+                    return next != null;
                 }
-            }
-            return query(params, options);
+
+                public T next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    T entity = next;
+                    next = null;
+                    return entity;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public List<T> query(Object example) {
+            return query(paramsOf(example));
+        }
+
+        public PagedResultList<T> query(Object example, Map<String, Object> options) {
+            return query(paramsOf(example), options);
         }
 
         public List<T> query(Map<String, Object> params) {
-            List<T> entities = new ArrayList<T>();
+            return query(params, Collections.<String, Object>emptyMap());
+        }
+
+        public PagedResultList<T> query(Map<String, Object> params, Map<String, Object> options) {
             if (params == null || params.isEmpty()) {
-                return entities;
+                return new PagedResultList<T>(new ArrayList<T>(), 0);
             }
+            return select(candidatesFor(params), filterFor(params), options);
+        }
 
-            List<GriffonDomainClassProperty> properties = new ArrayList<GriffonDomainClassProperty>();
-            for (String propertyName : params.keySet()) {
-                GriffonDomainClassProperty property = domainClass.getPropertyByName(propertyName);
-                if (property == null) {
-                    throw new IllegalArgumentException("Property " + propertyName + " is not a persistent property of " + domainClass.getClazz());
-                }
-                properties.add(property);
-            }
+        public List<T> query(Criterion criterion) {
+            return query(criterion, Collections.<String, Object>emptyMap());
+        }
 
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    boolean allMatch = true;
-                    for (GriffonDomainClassProperty property : properties) {
-                        Object exampleValue = params.get(property.getName());
-                        Object propertyValue = property.getValue(entity);
-                        allMatch &= DefaultTypeTransformation.compareEqual(exampleValue, propertyValue);
-                    }
-                    if (allMatch) {
-                        entities.add(entity);
-                    }
-                }
+        public PagedResultList<T> query(Criterion criterion, Map<String, Object> options) {
+            return select(candidatesFor(criterion), filterFor(criterion), options);
+        }
+
+        public T first(Object example) {
+            return first(paramsOf(example));
+        }
+
+        public T first(Map<String, Object> params) {
+            if (params == null || params.isEmpty()) {
+                return null;
             }
+            return first(candidatesFor(params), filterFor(params));
+        }
 
-            return entities;
+        public T first(Criterion criterion) {
+            return first(candidatesFor(criterion), filterFor(criterion));
         }
 
-        public List<T> query(Map<String, Object> params, Map<String, Object> options) {
-            List<T> entities = new ArrayList<T>();
+        /**
+         * Returns the first row matching the supplied parameters, storing the row supplied
+         * by the factory if there is none.
+         *
+         * @see #findOrSave(Criterion, Map, RowFactory)
+         */
+        public T findOrSave(Map<String, Object> params, RowFactory<T> factory) {
             if (params == null || params.isEmpty()) {
-                return entities;
+                throw new IllegalArgumentException("Cannot find or save " + domainClass.getName() + " without parameters");
+            }
+            Map<String, Object> key = claimKeyOf(params);
+            while (true) {
+                T entity = first(params);
+                if (entity != null) return entity;
+                if (holdsClaim(key)) return factory.create();
+                if (!claim(key)) continue;
+                try {
+                    entity = first(params);
+                    return entity != null ? entity : factory.create();
+                } finally {
+                    releaseClaim(key);
+                }
             }
+        }
 
-            List<GriffonDomainClassProperty> properties = new ArrayList<GriffonDomainClassProperty>();
-            for (String propertyName : params.keySet()) {
-                GriffonDomainClassProperty property = domainClass.getPropertyByName(propertyName);
-                if (property == null) {
-                    throw new IllegalArgumentException("Property " + propertyName + " is not a persistent property of " + domainClass.getClazz());
+        /**
+         * Returns the first row matching the supplied criterion, storing the row supplied by
+         * the factory if there is none.
+         * <p/>
+         * A caller that finds no row claims the key and looks the row up again; callers
+         * finding the key claimed wait until the claim is released and start over, hence a
+         * single row is created for any given key as long as rows with that key are only
+         * created through this method. Lookups go through the indexes of the dataset.
+         * <p/>
+         * The factory is called while the claim is held, which only delays callers of the
+         * same key. Saving a row holding the claimed values releases the claim as soon as
+         * the row is stored, before waiting for the journal to reach the disk. A thread may
+         * hold claims on several keys, and claiming a key it already holds calls the factory
+         * right away.
+         *
+         * @param key property values identifying the row, as tested by the criterion
+         */
+        public T findOrSave(Criterion criterion, Map<String, Object> key, RowFactory<T> factory) {
+            Map<String, Object> claimKey = claimKeyOf(key);
+            while (true) {
+                T entity = first(criterion);
+                if (entity != null) return entity;
+                if (holdsClaim(claimKey)) return factory.create();
+                if (!claim(claimKey)) continue;
+                try {
+                    entity = first(criterion);
+                    return entity != null ? entity : factory.create();
+                } finally {
+                    releaseClaim(claimKey);
                 }
-                properties.add(property);
             }
+        }
 
-            int max = determineMax(options);
-            String sort = determineSort(options);
-            GriffonDomain.Comparator.Order order = determineOrder(options);
+        private Map<String, Object> claimKeyOf(Map<String, Object> key) {
+            Map<String, Object> normalized = new TreeMap<String, Object>();
+            for (Map.Entry<String, Object> entry : key.entrySet()) {
+                normalized.put(entry.getKey(), normalizeValue(entry.getValue()));
+            }
+            return normalized;
+        }
 
-            int count = 0;
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    boolean allMatch = true;
-                    for (GriffonDomainClassProperty property : properties) {
-                        Object exampleValue = params.get(property.getName());
-                        Object propertyValue = property.getValue(entity);
-                        allMatch &= DefaultTypeTransformation.compareEqual(exampleValue, propertyValue);
-                    }
-                    if (allMatch) {
-                        entities.add(entity);
-                        if (++count >= max) break;
-                    }
+        /**
+         * Claims the key for the current thread, returning false once the claim another
+         * thread holds on the key has been released instead.
+         */
+        private boolean claim(Map<String, Object> key) {
+            CountDownLatch latch = new CountDownLatch(1);
+            CountDownLatch held = CLAIMS.putIfAbsent(key, latch);
+            if (held == null) {
+                Map<Map<String, Object>, CountDownLatch> claims = CLAIMED.get();
+                if (claims == null) {
+                    claims = new LinkedHashMap<Map<String, Object>, CountDownLatch>();
+                    CLAIMED.set(claims);
                 }
+                claims.put(key, latch);
+                return true;
             }
-            Collections.sort(entities, new GriffonDomain.Comparator(sort, order));
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GriffonDomainException("Interrupted while waiting for a claim on " + key + " in dataset " + name, e);
+            }
+            return false;
+        }
 
-            return entities;
+        private boolean holdsClaim(Map<String, Object> key) {
+            Map<Map<String, Object>, CountDownLatch> claims = CLAIMED.get();
+            return claims != null && claims.containsKey(key);
         }
 
-        public List<T> query(Criterion criterion) {
-            List<T> entities = new ArrayList<T>();
-            CriterionEvaluator criterionEvaluator = new BeanCriterionEvaluator();
+        private void releaseClaim(Map<String, Object> key) {
+            Map<Map<String, Object>, CountDownLatch> claims = CLAIMED.get();
+            if (claims == null) return;
+            CountDownLatch latch = claims.remove(key);
+            if (latch == null) return;
+            if (claims.isEmpty()) CLAIMED.remove();
+            CLAIMS.remove(key, latch);
+            latch.countDown();
+        }
 
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    if (criterionEvaluator.eval(entity, criterion)) {
-                        entities.add(entity);
-                    }
-                }
+        /**
+         * Releases the claims the current thread holds on keys whose values the entity holds.
+         */
+        private void releaseClaimsOn(T entity) {
+            Map<Map<String, Object>, CountDownLatch> claims = CLAIMED.get();
+            if (claims == null) return;
+            for (Map<String, Object> key : new ArrayList<Map<String, Object>>(claims.keySet())) {
+                if (holdsValues(entity, key)) releaseClaim(key);
             }
+        }
 
-            return entities;
+        private boolean holdsValues(T entity, Map<String, Object> key) {
+            for (Map.Entry<String, Object> entry : key.entrySet()) {
+                GriffonDomainProperty property = domainClass.getPropertyByName(entry.getKey());
+                if (property == null) return false;
+                Object value = normalizeValue(property.getValue(entity));
+                if (value != null ? !value.equals(entry.getValue()) : entry.getValue() != null) return false;
+            }
+            return true;
         }
 
-        public List<T> query(Criterion criterion, Map<String, Object> options) {
-            List<T> entities = new ArrayList<T>();
-            CriterionEvaluator criterionEvaluator = new BeanCriterionEvaluator();
+        private T first(Collection<T> candidates, RowFilter<T> filter) {
+            for (T entity : candidates) {
+                if (filter.accept(entity)) {
+                    return entity;
+                }
+            }
+            return null;
+        }
 
+        /**
+         * Applies filter, sort order and pagination to candidates supplied in identity order.
+         * Sorting by identity streams through the candidates; any other order keeps the best
+         * {@code offset + max} rows in a bounded heap instead of sorting every match. Sort keys
+         * are read once per row.
+         */
+        private PagedResultList<T> select(Collection<T> candidates, RowFilter<T> filter, Map<String, Object> options) {
             int max = determineMax(options);
-            String sort = determineSort(options);
-            GriffonDomain.Comparator.Order order = determineOrder(options);
+            int offset = determineOffset(options);
+            RowOrder<T> order = determineSortOrder(options);
 
-            int count = 0;
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    if (criterionEvaluator.eval(entity, criterion)) {
-                        entities.add(entity);
-                        if (++count >= max) break;
-                    }
+            if (filter != null) {
+                List<T> matches = parallelFilter(candidates, filter);
+                if (matches != null) {
+                    candidates = matches;
+                    filter = null;
+                }
+            }
+
+            int total = 0;
+            List<T> entities = new ArrayList<T>();
+            if (GriffonDomainProperty.IDENTITY.equals(order.getNaturalOrderPropertyName()) && order.isAscending()) {
+                for (T entity : candidates) {
+                    if (filter != null && !filter.accept(entity)) continue;
+                    if (total++ >= offset && entities.size() < max) entities.add(entity);
+                }
+                return new PagedResultList<T>(entities, total);
+            }
+
+            long limit = (long) offset + max;
+            if (limit >= Integer.MAX_VALUE) {
+                for (T entity : candidates) {
+                    if (filter != null && !filter.accept(entity)) continue;
+                    entities.add(entity);
                 }
+                total = entities.size();
+                entities = order.sort(entities, sortThreads(total));
+                return new PagedResultList<T>(page(entities, offset, max), total);
             }
-            Collections.sort(entities, new GriffonDomain.Comparator(sort, order));
 
-            return entities;
+            int k = (int) limit;
+            if (k == 0) {
+                for (T entity : candidates) {
+                    if (filter == null || filter.accept(entity)) total++;
+                }
+                return new PagedResultList<T>(entities, total);
+            }
+            Comparator<RowOrder.Entry<T>> entryOrder = order.entryOrder();
+            PriorityQueue<RowOrder.Entry<T>> heap = new PriorityQueue<RowOrder.Entry<T>>(Math.min(k, 1024) + 1, Collections.reverseOrder(entryOrder));
+            for (T entity : candidates) {
+                if (filter != null && !filter.accept(entity)) continue;
+                total++;
+                RowOrder.Entry<T> entry = order.entry(entity);
+                if (heap.size() < k) {
+                    heap.add(entry);
+                } else if (entryOrder.compare(entry, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+            }
+            List<RowOrder.Entry<T>> best = new ArrayList<RowOrder.Entry<T>>(heap);
+            Collections.sort(best, entryOrder);
+            for (RowOrder.Entry<T> entry : best) {
+                entities.add(entry.getRow());
+            }
+            return new PagedResultList<T>(page(entities, offset, max), total);
         }
 
-        public T first(Object example) {
+        /**
+         * Sorts on several threads when at least {@code griffon.domain.parallel.threshold}
+         * rows are to be sorted.
+         */
+        private int sortThreads(int rows) {
+            return parallelThreshold > 0 && rows >= parallelThreshold ? parallelThreads : 1;
+        }
+
+        /**
+         * Evaluates the filter on several threads when the dataset holds at least
+         * {@code griffon.domain.parallel.threshold} candidates, returning the matches in
+         * candidate order. Returns null when the query should run on the calling thread.
+         */
+        private List<T> parallelFilter(Collection<T> candidates, RowFilter<T> filter) {
+            if (parallelThreshold <= 0 || parallelThreads < 2 || size() < parallelThreshold) return null;
+            List<T> rows = new ArrayList<T>(candidates);
+            return rows.size() >= parallelThreshold ? ParallelScan.filter(rows, filter, parallelThreads) : null;
+        }
+
+        private List<T> page(List<T> entities, int offset, int max) {
+            int size = entities.size();
+            if (offset >= size) return new ArrayList<T>();
+            int to = max < size - offset ? offset + max : size;
+            return offset == 0 && to == size ? entities : new ArrayList<T>(entities.subList(offset, to));
+        }
+
+        private Map<String, Object> paramsOf(Object example) {
             Map<String, Object> params = new LinkedHashMap<String, Object>();
             if (example != null && domainClass.getClazz().isAssignableFrom(example.getClass())) {
                 for (GriffonDomainProperty property : domainClassOf((GriffonDomain) example).getPersistentProperties()) {
@@ -341,56 +1767,92 @@ public class ConcurrentHashMapDatastore {
                     }
                 }
             }
-            return first(params);
+            return params;
         }
 
-        public T first(Map<String, Object> params) {
-            if (params == null || params.isEmpty()) {
-                return null;
-            }
-
-            List<GriffonDomainClassProperty> properties = new ArrayList<GriffonDomainClassProperty>();
-            for (String propertyName : params.keySet()) {
-                GriffonDomainClassProperty property = domainClass.getPropertyByName(propertyName);
-                if (property == null) {
-                    throw new IllegalArgumentException("Property " + propertyName + " is not a persistent property of " + domainClass.getClazz());
+        private RowFilter<T> filterFor(Map<String, Object> params) {
+            List<Criterion> criteria = new ArrayList<Criterion>(params.size());
+            for (Map.Entry<String, Object> param : params.entrySet()) {
+                if (domainClass.getPropertyByName(param.getKey()) == null) {
+                    throw new IllegalArgumentException("Property " + param.getKey() + " is not a persistent property of " + domainClass.getClazz());
                 }
-                properties.add(property);
+                criteria.add(new BinaryExpression(param.getKey(), Operator.EQUAL, param.getValue()));
             }
+            return filterFor(new CompositeCriterion(criteria.toArray(new Criterion[criteria.size()])));
+        }
 
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    boolean allMatch = true;
-                    for (GriffonDomainClassProperty property : properties) {
-                        Object exampleValue = params.get(property.getName());
-                        Object propertyValue = property.getValue(entity);
-                        allMatch &= DefaultTypeTransformation.compareEqual(exampleValue, propertyValue);
-                    }
-                    if (allMatch) {
-                        return entity;
-                    }
-                }
+        private RowFilter<T> filterFor(Criterion criterion) {
+            return CriterionCompiler.compile(domainClass, criterion);
+        }
+
+        public int size() {
+            int size = 0;
+            for (DatasetPartition<T> partition : PARTITIONS) {
+                size += partition.size();
             }
+            return size;
+        }
 
-            return null;
+        private DatasetPartition<T> partitionFor(Object identity) {
+            return PARTITIONS[partitionIndex(identity)];
         }
 
-        public T first(Criterion criterion) {
-            CriterionEvaluator criterionEvaluator = new BeanCriterionEvaluator();
+        private int partitionIndex(Object identity) {
+            if (PARTITIONS.length == 1) return 0;
+            int h = identity.hashCode();
+            h ^= (h >>> 16);
+            return (h & 0x7fffffff) % PARTITIONS.length;
+        }
 
-            synchronized (ROWS) {
-                for (T entity : ROWS.values()) {
-                    if (criterionEvaluator.eval(entity, criterion)) {
-                        return entity;
-                    }
-                }
+        private Collection<T> rows() {
+            if (PARTITIONS.length == 1) return PARTITIONS[0].rows();
+            List<Collection<T>> rows = new ArrayList<Collection<T>>(PARTITIONS.length);
+            for (DatasetPartition<T> partition : PARTITIONS) {
+                rows.add(partition.rows());
             }
+            return new MergedCollection<T>(rows, identityOrder);
+        }
 
-            return null;
+        /**
+         * Returns the rows sorted by the given property, or {@code null} if they cannot be
+         * read in that order without sorting them.
+         */
+        private Iterator<T> iterator(String sort, boolean ascending) {
+            List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(PARTITIONS.length);
+            for (DatasetPartition<T> partition : PARTITIONS) {
+                Iterator<T> iterator = partition.iterator(sort, ascending);
+                if (iterator == null) return null;
+                iterators.add(iterator);
+            }
+            return MergedCollection.merge(iterators, RowOrder.<T>by(domainClass, sort, ascending));
         }
 
-        public int size() {
-            return ROWS.size();
+        /**
+         * Returns the rows that may match the supplied parameters, in identity order.
+         */
+        private Collection<T> candidatesFor(Map<String, Object> params) {
+            if (PARTITIONS.length == 1) return PARTITIONS[0].candidatesFor(params);
+            List<Collection<T>> candidates = new ArrayList<Collection<T>>(PARTITIONS.length);
+            for (DatasetPartition<T> partition : PARTITIONS) {
+                candidates.add(partition.candidatesFor(params));
+            }
+            return new MergedCollection<T>(candidates, identityOrder);
+        }
+
+        /**
+         * Returns the rows that may match the supplied criterion, in identity order.
+         */
+        private Collection<T> candidatesFor(Criterion criterion) {
+            if (PARTITIONS.length == 1) return PARTITIONS[0].candidatesFor(criterion);
+            List<Collection<T>> candidates = new ArrayList<Collection<T>>(PARTITIONS.length);
+            for (DatasetPartition<T> partition : PARTITIONS) {
+                candidates.add(partition.candidatesFor(criterion));
+            }
+            return new MergedCollection<T>(candidates, identityOrder);
+        }
+
+        private Object identityOf(T entity) {
+            return normalizeIdentity(domainClass.getIdentity().getValue(entity));
         }
 
         private GriffonDomainClass domainClassOf(GriffonDomain entity) {
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.orm.*;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeValue;
+import static org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation.compareEqual;
+import static org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation.compareTo;
+
+/**
+ * Turns a {@code Criterion} into a {@code RowFilter} that is built once per query and
+ * applied to every candidate row.
+ * <p/>
+ * Properties are resolved against the domain class while compiling, and literals are
+ * coerced to the type of the property they are compared with, so that rows of integral,
+ * floating point, {@code String} and other {@code Comparable} properties are compared
+ * without going through Groovy's generic comparison. Results match those of
+ * {@code BeanCriterionEvaluator}: {@code null} property values compare lower than
+ * any literal.
+ *
+ * @author Andres Almiray
+ */
+public final class CriterionCompiler {
+    private CriterionCompiler() {
+
+    }
+
+    public static <T> RowFilter<T> compile(GriffonDomainClass domainClass, Criterion criterion) {
+        if (criterion == null) {
+            throw new IllegalArgumentException("Criterion is null!");
+        }
+
+        if (criterion instanceof CompositeCriterion) {
+            CompositeCriterion composite = (CompositeCriterion) criterion;
+            Criterion[] criteria = composite.getCriteria();
+            if (criteria.length == 1) return compile(domainClass, criteria[0]);
+            List<RowFilter<T>> filters = new ArrayList<RowFilter<T>>(criteria.length);
+            for (Criterion c : criteria) {
+                filters.add(CriterionCompiler.<T>compile(domainClass, c));
+            }
+            return composite.getOperator() == Operator.OR ? new Or<T>(filters) : new And<T>(filters);
+        } else if (criterion instanceof UnaryExpression) {
+            UnaryExpression expression = (UnaryExpression) criterion;
+            switch (expression.getOperator()) {
+                case IS_NULL:
+                    return new IsNull<T>(propertyOf(domainClass, expression.getPropertyName()), true);
+                case IS_NOT_NULL:
+                    return new IsNull<T>(propertyOf(domainClass, expression.getPropertyName()), false);
+                default:
+                    throw new IllegalArgumentException("Invalid UnaryExpression " + criterion);
+            }
+        } else if (criterion instanceof BinaryExpression) {
+            BinaryExpression expression = (BinaryExpression) criterion;
+            checkComparison(expression.getOperator(), criterion);
+            return compileBinary(propertyOf(domainClass, expression.getPropertyName()), expression.getOperator(), expression.getValue());
+        } else if (criterion instanceof PropertyExpression) {
+            PropertyExpression expression = (PropertyExpression) criterion;
+            checkComparison(expression.getOperator(), criterion);
+            return new PropertyComparison<T>(propertyOf(domainClass, expression.getPropertyName()),
+                expression.getOperator(),
+                propertyOf(domainClass, expression.getOtherPropertyName()));
+        }
+        throw new IllegalArgumentException("Don't know how to evaluate criterion " + criterion);
+    }
+
+    private static void checkComparison(Operator operator, Criterion criterion) {
+        switch (operator) {
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+                return;
+            default:
+                throw new IllegalArgumentException("Invalid " + criterion.getClass().getSimpleName() + " " + criterion);
+        }
+    }
+
+    private static <T> RowFilter<T> compileBinary(GriffonDomainProperty property, Operator operator, Object value) {
+        Object literal = normalizeValue(value);
+        Class<?> type = boxed(property.getType());
+        if (literal == null) {
+            return new GenericComparison<T>(property, operator, null);
+        } else if (isIntegral(type) && literal instanceof Long) {
+            return new LongComparison<T>(property, operator, (Long) literal);
+        } else if ((type == Double.class || type == Float.class) && literal instanceof Number) {
+            return new DoubleComparison<T>(property, operator, ((Number) value).doubleValue());
+        } else if (type == BigDecimal.class && (literal instanceof Long || literal instanceof BigDecimal) &&
+            !(value instanceof Double || value instanceof Float)) {
+            // floating point literals, normalized to BigDecimal above, are compared as doubles by
+            // Groovy, hence the original literal is left to the generic comparison
+            BigDecimal decimal = literal instanceof Long ? BigDecimal.valueOf((Long) literal) : (BigDecimal) literal;
+            return new ComparableComparison<T>(property, operator, decimal);
+        } else if (type == String.class && literal instanceof String) {
+            return new ComparableComparison<T>(property, operator, (String) literal);
+        } else if (Comparable.class.isAssignableFrom(type) && !(literal instanceof Number) && type == literal.getClass()) {
+            return new ComparableComparison<T>(property, operator, (Comparable) literal);
+        }
+        return new GenericComparison<T>(property, operator, value);
+    }
+
+    private static GriffonDomainProperty propertyOf(GriffonDomainClass domainClass, String propertyName) {
+        GriffonDomainProperty property = domainClass.getPropertyByName(propertyName);
+        return property != null ? property : new DynamicProperty(propertyName);
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == Long.class || type == Integer.class || type == Short.class || type == Byte.class;
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (type == null || !type.isPrimitive()) return type != null ? type : Object.class;
+        if (type == long.class) return Long.class;
+        if (type == int.class) return Integer.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == char.class) return Character.class;
+        return type;
+    }
+
+    private static boolean matches(Operator operator, int comparison) {
+        switch (operator) {
+            case EQUAL:
+                return comparison == 0;
+            case NOT_EQUAL:
+                return comparison != 0;
+            case GREATER_THAN:
+                return comparison > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return comparison >= 0;
+            case LESS_THAN:
+                return comparison < 0;
+            default:
+                return comparison <= 0;
+        }
+    }
+
+    private static final class And<T> implements RowFilter<T> {
+        private final RowFilter<T>[] filters;
+
+        @SuppressWarnings("unchecked")
+        private And(List<RowFilter<T>> filters) {
+            this.filters = filters.toArray(new RowFilter[filters.size()]);
+        }
+
+        public boolean accept(T entity) {
+            for (RowFilter<T> filter : filters) {
+                if (!filter.accept(entity)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Or<T> implements RowFilter<T> {
+        private final RowFilter<T>[] filters;
+
+        @SuppressWarnings("unchecked")
+        private Or(List<RowFilter<T>> filters) {
+            this.filters = filters.toArray(new RowFilter[filters.size()]);
+        }
+
+        public boolean accept(T entity) {
+            for (RowFilter<T> filter : filters) {
+                if (filter.accept(entity)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class IsNull<T> implements RowFilter<T> {
+        private final GriffonDomainProperty property;
+        private final boolean isNull;
+
+        private IsNull(GriffonDomainProperty property, boolean isNull) {
+            this.property = property;
+            this.isNull = isNull;
+        }
+
+        public boolean accept(T entity) {
+            return (property.getValue(entity) == null) == isNull;
+        }
+    }
+
+    /**
+     * Compares a property with a literal of a known type; {@code null} values compare lower.
+     */
+    private static abstract class Comparison<T> implements RowFilter<T> {
+        protected final GriffonDomainProperty property;
+        protected final Operator operator;
+
+        protected Comparison(GriffonDomainProperty property, Operator operator) {
+            this.property = property;
+            this.operator = operator;
+        }
+
+        public boolean accept(T entity) {
+            Object value = property.getValue(entity);
+            return matches(operator, value == null ? -1 : compare(value));
+        }
+
+        protected abstract int compare(Object value);
+    }
+
+    private static final class LongComparison<T> extends Comparison<T> {
+        private final long literal;
+
+        private LongComparison(GriffonDomainProperty property, Operator operator, long literal) {
+            super(property, operator);
+            this.literal = literal;
+        }
+
+        protected int compare(Object value) {
+            if (!(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)) {
+                return compareTo(value, literal);
+            }
+            long x = ((Number) value).longValue();
+            return x < literal ? -1 : (x == literal ? 0 : 1);
+        }
+    }
+
+    private static final class DoubleComparison<T> extends Comparison<T> {
+        private final double literal;
+
+        private DoubleComparison(GriffonDomainProperty property, Operator operator, double literal) {
+            super(property, operator);
+            this.literal = literal;
+        }
+
+        protected int compare(Object value) {
+            if (!(value instanceof Double || value instanceof Float)) {
+                return compareTo(value, literal);
+            }
+            return Double.compare(((Number) value).doubleValue(), literal);
+        }
+    }
+
+    private static final class ComparableComparison<T> extends Comparison<T> {
+        private final Comparable literal;
+        private final Class<?> literalClass;
+
+        private ComparableComparison(GriffonDomainProperty property, Operator operator, Comparable literal) {
+            super(property, operator);
+            this.literal = literal;
+            this.literalClass = literal.getClass();
+        }
+
+        @SuppressWarnings("unchecked")
+        protected int compare(Object value) {
+            if (value.getClass() != literalClass) {
+                return compareTo(value, literal);
+            }
+            return ((Comparable) value).compareTo(literal);
+        }
+    }
+
+    private static final class GenericComparison<T> implements RowFilter<T> {
+        private final GriffonDomainProperty property;
+        private final Operator operator;
+        private final Object literal;
+
+        private GenericComparison(GriffonDomainProperty property, Operator operator, Object literal) {
+            this.property = property;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        public boolean accept(T entity) {
+            Object value = property.getValue(entity);
+            switch (operator) {
+                case EQUAL:
+                    return compareEqual(value, literal);
+                case NOT_EQUAL:
+                    return !compareEqual(value, literal);
+                default:
+                    return matches(operator, compareTo(value, literal));
+            }
+        }
+    }
+
+    private static final class PropertyComparison<T> implements RowFilter<T> {
+        private final GriffonDomainProperty property;
+        private final Operator operator;
+        private final GriffonDomainProperty otherProperty;
+
+        private PropertyComparison(GriffonDomainProperty property, Operator operator, GriffonDomainProperty otherProperty) {
+            this.property = property;
+            this.operator = operator;
+            this.otherProperty = otherProperty;
+        }
+
+        public boolean accept(T entity) {
+            Object value = property.getValue(entity);
+            Object otherValue = otherProperty.getValue(entity);
+            switch (operator) {
+                case EQUAL:
+                    return compareEqual(value, otherValue);
+                case NOT_EQUAL:
+                    return !compareEqual(value, otherValue);
+                default:
+                    return matches(operator, compareTo(value, otherValue));
+            }
+        }
+    }
+
+    /**
+     * Reads properties that are not part of the domain model, such as transient ones.
+     */
+    private static final class DynamicProperty implements GriffonDomainProperty {
+        private final String name;
+
+        private DynamicProperty(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class getType() {
+            return Object.class;
+        }
+
+        public Object getValue(Object owner) {
+            return InvokerHelper.getProperty(owner, name);
+        }
+
+        public void setValue(Object owner, Object value) {
+            InvokerHelper.setProperty(owner, name, value);
+        }
+    }
+}
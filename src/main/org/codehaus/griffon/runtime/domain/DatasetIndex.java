@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.orm.Operator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeValue;
+
+/**
+ * Base class for secondary indexes kept by {@code ConcurrentHashMapDatastore.Dataset}.
+ * <p/>
+ * Every index entry maps a normalized property value to the rows holding that value,
+ * sorted by identity so that lookups return rows in the same order as a full scan.
+ * The index remembers the key each row was stored under, which lets it move a row
+ * to a different bucket when the property value changes between saves.
+ * <p/>
+ * Lookups never block and see a weakly consistent view of the index. Callers must
+ * serialize {@code add} and {@code remove} calls for the same identity; calls for
+ * different identities may run concurrently.
+ *
+ * @author Andres Almiray
+ */
+public abstract class DatasetIndex<T extends GriffonDomain> {
+    private static final Object NULL_KEY = new Object();
+
+    private final GriffonDomainProperty property;
+    private final ConcurrentMap<Object, Object> keys = new ConcurrentHashMap<Object, Object>();
+    private final Bucket<T> nulls = new Bucket<T>();
+
+    protected DatasetIndex(GriffonDomainProperty property) {
+        this.property = property;
+    }
+
+    public GriffonDomainProperty getProperty() {
+        return property;
+    }
+
+    public String getPropertyName() {
+        return property.getName();
+    }
+
+    public void add(Object identity, T entity) {
+        Object key = keyOf(property.getValue(entity));
+        Object previous = keys.put(identity, key != null ? key : NULL_KEY);
+        if (key == null) {
+            nulls.put(identity, entity);
+        } else {
+            while (true) {
+                Bucket<T> bucket = buckets().get(key);
+                if (bucket == null) {
+                    Bucket<T> created = new Bucket<T>();
+                    bucket = buckets().putIfAbsent(key, created);
+                    if (bucket == null) bucket = created;
+                }
+                synchronized (bucket) {
+                    if (bucket.retired) continue;
+                    bucket.put(identity, entity);
+                }
+                break;
+            }
+        }
+        // the row is visible under its new key before it leaves the old one
+        if (previous != null && !previous.equals(key != null ? key : NULL_KEY)) {
+            remove(identity, previous);
+        }
+    }
+
+    public void remove(Object identity) {
+        Object key = keys.remove(identity);
+        if (key != null) remove(identity, key);
+    }
+
+    private void remove(Object identity, Object key) {
+        if (key == NULL_KEY) {
+            nulls.remove(identity);
+            return;
+        }
+        Bucket<T> bucket = buckets().get(key);
+        if (bucket == null) return;
+        synchronized (bucket) {
+            bucket.remove(identity);
+            if (bucket.isEmpty()) {
+                bucket.retired = true;
+                buckets().remove(key, bucket);
+            }
+        }
+    }
+
+    /**
+     * Returns all rows whose property value equals the supplied value, in identity order.
+     */
+    public Collection<T> lookup(Object value) {
+        if (value == null) {
+            return nulls.values();
+        }
+        Bucket<T> bucket = buckets().get(keyOf(value));
+        return bucket != null ? bucket.values() : Collections.<T>emptyList();
+    }
+
+    /**
+     * Returns the rows that may satisfy {@code property operator value}, in identity order,
+     * or {@code null} if this index cannot resolve the operator.
+     */
+    public Collection<T> lookup(Operator operator, Object value) {
+        return operator == Operator.EQUAL ? lookup(value) : null;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    protected Object keyOf(Object value) {
+        return value == null ? null : normalizeValue(value);
+    }
+
+    protected Bucket<T> nulls() {
+        return nulls;
+    }
+
+    protected abstract ConcurrentMap<Object, Bucket<T>> buckets();
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{property=" + getPropertyName() + ", size=" + size() + "}";
+    }
+
+    /**
+     * Rows sharing the same key, in identity order. A bucket is retired once it becomes
+     * empty, after which writers must install a fresh one. The bucket tracks its own
+     * size as counting the rows of a skip list requires a full traversal.
+     */
+    protected static final class Bucket<T> {
+        private final ConcurrentNavigableMap<Object, T> rows = new ConcurrentSkipListMap<Object, T>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final Collection<T> values = new AbstractCollection<T>() {
+            public Iterator<T> iterator() {
+                return Collections.unmodifiableCollection(rows.values()).iterator();
+            }
+
+            public int size() {
+                return size.get();
+            }
+        };
+        private boolean retired;
+
+        private void put(Object identity, T entity) {
+            if (rows.put(identity, entity) == null) size.incrementAndGet();
+        }
+
+        private void remove(Object identity) {
+            if (rows.remove(identity) != null) size.decrementAndGet();
+        }
+
+        private boolean isEmpty() {
+            return size.get() == 0;
+        }
+
+        public Collection<T> values() {
+            return values;
+        }
+
+        public Map<Object, T> rows() {
+            return Collections.unmodifiableMap(rows);
+        }
+    }
+}
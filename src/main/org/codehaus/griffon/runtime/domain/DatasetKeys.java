@@ -0,0 +1,124 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Comparator;
+
+/**
+ * Normalizes values used as keys by {@code ConcurrentHashMapDatastore.Dataset}.
+ * <p/>
+ * Identities may reach the datastore as any integral type (the injected {@code id}
+ * property is a {@code Long} while callers often look rows up by {@code Integer}); all of
+ * them are folded into a single {@code Long} key so that hash lookups resolve the
+ * same row regardless of the numeric type supplied by the caller.
+ *
+ * @author Andres Almiray
+ */
+public final class DatasetKeys {
+    /**
+     * Orders normalized values the same way Groovy's comparison operators do,
+     * which lets {@code Long} and {@code BigDecimal} keys share a sorted index.
+     */
+    public static final Comparator<Object> VALUE_COMPARATOR = new Comparator<Object>() {
+        public int compare(Object a, Object b) {
+            if (a instanceof Long && b instanceof Long) {
+                long x = (Long) a;
+                long y = (Long) b;
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+            return DefaultTypeTransformation.compareTo(a, b);
+        }
+    };
+
+    private DatasetKeys() {
+
+    }
+
+    public static Object normalizeIdentity(Object identity) {
+        if (identity == null || identity instanceof Long) {
+            return identity;
+        } else if (identity instanceof Integer || identity instanceof Short || identity instanceof Byte) {
+            return ((Number) identity).longValue();
+        } else if (identity instanceof BigInteger) {
+            BigInteger value = (BigInteger) identity;
+            return value.bitLength() < 64 ? (Object) value.longValue() : value;
+        } else if (identity instanceof BigDecimal) {
+            BigDecimal value = (BigDecimal) identity;
+            try {
+                return value.longValueExact();
+            } catch (ArithmeticException e) {
+                return value.stripTrailingZeros();
+            }
+        } else if (identity instanceof Double || identity instanceof Float) {
+            double value = ((Number) identity).doubleValue();
+            if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 0x1p63) {
+                return (long) value;
+            }
+            return value;
+        } else if (identity instanceof CharSequence) {
+            return identity.toString();
+        }
+        return identity;
+    }
+
+    /**
+     * Normalizes a property value into an index key. Values that are equal according
+     * to Groovy's equality rules ({@code 1 == 1L}, {@code 1.0G == 1}, {@code "a" == "${'a'}"})
+     * share the same key.
+     */
+    public static Object normalizeValue(Object value) {
+        if (value instanceof Number) {
+            return normalizeNumber((Number) value);
+        } else if (value instanceof CharSequence) {
+            return value.toString();
+        } else if (value instanceof Character) {
+            return String.valueOf(value);
+        }
+        return value;
+    }
+
+    private static Object normalizeNumber(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value.longValue();
+        }
+
+        BigDecimal decimal;
+        if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            decimal = new BigDecimal((BigInteger) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return d;
+            }
+            decimal = new BigDecimal(value.toString());
+        } else {
+            return value;
+        }
+
+        try {
+            return decimal.longValueExact();
+        } catch (ArithmeticException e) {
+            return decimal.stripTrailingZeros();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.persistence.Indexed;
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.orm.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+import static org.codehaus.griffon.runtime.domain.GriffonDomainConfigurationUtil.getIndexDefinition;
+import static org.codehaus.griffon.runtime.domain.GriffonDomainConfigurationUtil.isColumnar;
+
+/**
+ * A slice of the rows of a {@code ConcurrentHashMapDatastore.Dataset} together with
+ * the matching slices of its secondary indexes.
+ * <p/>
+ * Rows are reachable both in identity order, which scans and sorted reads rely on, and
+ * through an {@link IdentityTable} that serves lookups by identity along with the saved
+ * versions and images described below. With primitive identities the table provides
+ * the identity order as well, otherwise rows are also kept in a skip list.
+ * <p/>
+ * Reads never block: scans iterate a weakly consistent view of the rows and may or
+ * may not observe writes made while they run. Writes are serialized per identity
+ * only, hence writers saving different rows proceed in parallel.
+ * <p/>
+ * Every row keeps its version as of its last save, which optimistic locking checks
+ * saves against. Partitions created with images retained keep a copy of all the
+ * persistent property values instead, which lets a transaction put back the row as it
+ * was stored even if the instance has been modified since.
+ *
+ * @author Andres Almiray
+ */
+public class DatasetPartition<T extends GriffonDomain> {
+    private final ConcurrentNavigableMap<Object, T> ROWS;
+    private final IdentityTable<T> IDENTITIES;
+    private final IdentityTable<Object[]> IMAGES;
+    private final IdentityTable<Object> VERSIONS;
+    private final StripedLock LOCKS = new StripedLock();
+    private final Map<String, DatasetIndex<T>> INDEXES = new LinkedHashMap<String, DatasetIndex<T>>();
+    private final ColumnStore<T> COLUMNS;
+    private final GriffonDomainClass domainClass;
+    private final GriffonDomainProperty[] persistentProperties;
+    private final int versionIndex;
+    private final Comparator<T> identityOrder = new Comparator<T>() {
+        public int compare(T a, T b) {
+            return ((Comparable) identityOf(a)).compareTo(identityOf(b));
+        }
+    };
+
+    public DatasetPartition(GriffonDomainClass domainClass) {
+        this(domainClass, false);
+    }
+
+    /**
+     * @param primitiveIdentities whether rows are looked up by identity through tables of
+     *                            primitive keys rather than hash maps, see {@link IdentityTable}
+     */
+    public DatasetPartition(GriffonDomainClass domainClass, boolean primitiveIdentities) {
+        this(domainClass, primitiveIdentities, false);
+    }
+
+    /**
+     * @param primitiveIdentities whether rows are looked up by identity through tables of
+     *                            primitive keys rather than hash maps, see {@link IdentityTable}
+     * @param retainImages        whether every row keeps a copy of its persistent property
+     *                            values as of its last save, see {@link #image}
+     */
+    public DatasetPartition(GriffonDomainClass domainClass, boolean primitiveIdentities, boolean retainImages) {
+        this.domainClass = domainClass;
+        this.IDENTITIES = new IdentityTable<T>(primitiveIdentities);
+        this.ROWS = primitiveIdentities ? null : new ConcurrentSkipListMap<Object, T>();
+        this.persistentProperties = domainClass.getPersistentProperties();
+        this.versionIndex = indexOf(persistentProperties, GriffonDomainProperty.VERSION);
+        this.IMAGES = retainImages ? new IdentityTable<Object[]>(primitiveIdentities) : null;
+        this.VERSIONS = !retainImages && versionIndex >= 0 ? new IdentityTable<Object>(primitiveIdentities) : null;
+        for (GriffonDomainProperty property : domainClass.getPersistentProperties()) {
+            Indexed indexed = getIndexDefinition(domainClass.getClazz(), property.getName());
+            if (indexed != null) {
+                INDEXES.put(property.getName(), indexed.ordered() ? new OrderedIndex<T>(property) : new HashIndex<T>(property));
+            }
+        }
+        COLUMNS = isColumnar(domainClass.getClazz()) ? new ColumnStore<T>(domainClass) : null;
+    }
+
+    /**
+     * Stores the entity under the supplied identity, returning true if it replaced an existing row.
+     */
+    public boolean save(Object identity, T entity) {
+        synchronized (LOCKS.lockFor(identity)) {
+            boolean update = IDENTITIES.put(identity, entity) != null;
+            retain(identity, entity);
+            if (ROWS != null) ROWS.put(identity, entity);
+            for (DatasetIndex<T> index : INDEXES.values()) {
+                index.add(identity, entity);
+            }
+            if (COLUMNS != null) COLUMNS.put(identity, entity);
+            return update;
+        }
+    }
+
+    /**
+     * Stores a batch of rows read back from disk. Unlike {@link #save} this takes no
+     * locks, hence it may only be called before the partition is shared with other threads.
+     */
+    public void load(SortedMap<Object, T> rows) {
+        if (ROWS != null) ROWS.putAll(rows);
+        IDENTITIES.putAll(rows);
+        if (IMAGES != null || VERSIONS != null) {
+            for (Map.Entry<Object, T> row : rows.entrySet()) {
+                retain(row.getKey(), row.getValue());
+            }
+        }
+        for (DatasetIndex<T> index : INDEXES.values()) {
+            for (Map.Entry<Object, T> row : rows.entrySet()) {
+                index.add(row.getKey(), row.getValue());
+            }
+        }
+        if (COLUMNS != null) {
+            for (Map.Entry<Object, T> row : rows.entrySet()) {
+                COLUMNS.put(row.getKey(), row.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the row stored under the supplied identity, returning true if there was one.
+     */
+    public boolean remove(Object identity) {
+        synchronized (LOCKS.lockFor(identity)) {
+            if (ROWS != null) ROWS.remove(identity);
+            if (IMAGES != null) IMAGES.remove(identity);
+            if (VERSIONS != null) VERSIONS.remove(identity);
+            if (IDENTITIES.remove(identity) == null) return false;
+            for (DatasetIndex<T> index : INDEXES.values()) {
+                index.remove(identity);
+            }
+            if (COLUMNS != null) COLUMNS.remove(identity);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the monitor guarding writes to the supplied identity. Callers holding it
+     * may perform further work that must be ordered with the row's saves and removals.
+     */
+    public Object lockFor(Object identity) {
+        return LOCKS.lockFor(identity);
+    }
+
+    public T fetch(Object identity) {
+        return IDENTITIES.get(identity);
+    }
+
+    /**
+     * Returns the values of the persistent properties of the row stored under the supplied
+     * identity as of its last save, or {@code null} if there is no such row or images are
+     * not retained.
+     */
+    public Object[] image(Object identity) {
+        return IMAGES != null ? IMAGES.get(identity) : null;
+    }
+
+    public boolean isRetainingImages() {
+        return IMAGES != null;
+    }
+
+    /**
+     * Returns the version of the row stored under the supplied identity as of its last
+     * save, or {@code null} if there is no such row. Unlike the version of the stored
+     * instance, it does not change when the instance is modified without being saved.
+     */
+    public Object savedVersion(Object identity) {
+        if (VERSIONS != null) return VERSIONS.get(identity);
+        Object[] image = image(identity);
+        return image != null && versionIndex >= 0 ? image[versionIndex] : null;
+    }
+
+    /**
+     * Copies the values of an image obtained from {@link #image} back into an entity.
+     * Values are not copied deeply, hence changes made to mutable values such as dates
+     * are not undone.
+     */
+    public void restore(T entity, Object[] image) {
+        for (int i = 0; i < persistentProperties.length; i++) {
+            persistentProperties[i].setValue(entity, image[i]);
+        }
+    }
+
+    private void retain(Object identity, T entity) {
+        if (IMAGES != null) {
+            IMAGES.put(identity, imageOf(entity));
+        } else if (VERSIONS != null) {
+            Object version = persistentProperties[versionIndex].getValue(entity);
+            if (version != null) {
+                VERSIONS.put(identity, version);
+            } else {
+                VERSIONS.remove(identity);
+            }
+        }
+    }
+
+    private Object[] imageOf(T entity) {
+        Object[] image = new Object[persistentProperties.length];
+        for (int i = 0; i < persistentProperties.length; i++) {
+            image[i] = persistentProperties[i].getValue(entity);
+        }
+        return image;
+    }
+
+    private static int indexOf(GriffonDomainProperty[] properties, String propertyName) {
+        for (int i = 0; i < properties.length; i++) {
+            if (properties[i].getName().equals(propertyName)) return i;
+        }
+        return -1;
+    }
+
+    public boolean exists(Object identity) {
+        return IDENTITIES.containsKey(identity);
+    }
+
+    public int size() {
+        return IDENTITIES.size();
+    }
+
+    /**
+     * Returns all rows in identity order.
+     */
+    public Collection<T> rows() {
+        if (ROWS != null) return Collections.unmodifiableCollection(ROWS.values());
+        return new AbstractCollection<T>() {
+            public Iterator<T> iterator() {
+                return IDENTITIES.values(true);
+            }
+
+            public int size() {
+                return IDENTITIES.size();
+            }
+        };
+    }
+
+    public DatasetIndex<T> index(String propertyName) {
+        return INDEXES.get(propertyName);
+    }
+
+    /**
+     * Returns an iterator over all rows sorted by the given property, or {@code null}
+     * if the partition cannot produce rows in that order without sorting them.
+     */
+    public Iterator<T> iterator(String propertyName, boolean ascending) {
+        DatasetIndex<T> index = INDEXES.get(propertyName);
+        if (index instanceof OrderedIndex) {
+            return ((OrderedIndex<T>) index).iterator(ascending);
+        } else if (GriffonDomainProperty.IDENTITY.equals(propertyName)) {
+            if (ROWS == null) return IDENTITIES.values(ascending);
+            return (ascending ? ROWS : ROWS.descendingMap()).values().iterator();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the rows that may match the supplied parameters, in identity order.
+     */
+    public Collection<T> candidatesFor(Map<String, Object> params) {
+        Collection<T> candidates = null;
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            DatasetIndex<T> index = INDEXES.get(param.getKey());
+            if (index == null) continue;
+            Collection<T> rows = index.lookup(param.getValue());
+            if (candidates == null || rows.size() < candidates.size()) {
+                candidates = rows;
+            }
+        }
+        return candidates != null ? candidates : rows();
+    }
+
+    /**
+     * Returns the rows that may match the supplied criterion, in identity order.
+     * Secondary indexes are consulted first, then the columns of a columnar class.
+     */
+    public Collection<T> candidatesFor(Criterion criterion) {
+        Collection<T> candidates = indexedCandidatesFor(criterion);
+        if (candidates == null && COLUMNS != null) {
+            List<T> matches = COLUMNS.candidatesFor(criterion);
+            if (matches != null) candidates = inIdentityOrder(matches);
+        }
+        return candidates != null ? candidates : rows();
+    }
+
+    /**
+     * Sorts the rows matched by the columns, which come in slot order. Slots are handed
+     * out in insertion order, hence the rows are mostly sorted already. A row moved to
+     * another slot while the columns were scanned may show up twice and is kept once.
+     */
+    private List<T> inIdentityOrder(List<T> rows) {
+        if (rows.size() < 2) return rows;
+        Collections.sort(rows, identityOrder);
+        List<T> sorted = new ArrayList<T>(rows.size());
+        Object last = null;
+        for (T row : rows) {
+            Object identity = identityOf(row);
+            if (last != null && last.equals(identity)) continue;
+            sorted.add(row);
+            last = identity;
+        }
+        return sorted;
+    }
+
+    private Collection<T> indexedCandidatesFor(Criterion criterion) {
+        if (criterion instanceof BinaryExpression) {
+            BinaryExpression expression = (BinaryExpression) criterion;
+            DatasetIndex<T> index = INDEXES.get(expression.getPropertyName());
+            if (index != null) {
+                return index.lookup(expression.getOperator(), expression.getValue());
+            }
+        } else if (criterion instanceof UnaryExpression) {
+            UnaryExpression expression = (UnaryExpression) criterion;
+            DatasetIndex<T> index = INDEXES.get(expression.getPropertyName());
+            if (index != null && expression.getOperator() == Operator.IS_NULL) {
+                return index.lookup(null);
+            }
+        } else if (criterion instanceof CompositeCriterion) {
+            CompositeCriterion composite = (CompositeCriterion) criterion;
+            Criterion[] criteria = composite.getCriteria();
+            if (criteria.length == 0) return null;
+            if (composite.getOperator() == Operator.OR) {
+                SortedMap<Object, T> union = new TreeMap<Object, T>();
+                for (Criterion c : criteria) {
+                    Collection<T> rows = indexedCandidatesFor(c);
+                    if (rows == null) return null;
+                    for (T row : rows) {
+                        union.put(identityOf(row), row);
+                    }
+                }
+                return union.values();
+            }
+            Collection<T> smallest = null;
+            for (Criterion c : criteria) {
+                Collection<T> rows = indexedCandidatesFor(c);
+                if (rows != null && (smallest == null || rows.size() < smallest.size())) {
+                    smallest = rows;
+                }
+            }
+            return smallest;
+        }
+        return null;
+    }
+
+    private Object identityOf(T entity) {
+        return normalizeIdentity(domainClass.getIdentity().getValue(entity));
+    }
+}
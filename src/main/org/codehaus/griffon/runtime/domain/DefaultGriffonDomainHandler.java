@@ -20,6 +20,7 @@ import griffon.plugins.domain.GriffonDomain;
 import griffon.plugins.domain.methods.InstanceMethodInvocation;
 import griffon.plugins.domain.methods.StaticMethodInvocation;
 
+import java.util.List;
 import java.util.Map;
 
 import static griffon.util.GriffonExceptionHandler.sanitize;
@@ -43,6 +44,14 @@ public class DefaultGriffonDomainHandler extends AbstractGriffonDomainHandler {
         return "default";
     }
 
+    /**
+     * Nothing is stored with this mapping, hence no value is taken.
+     */
+    @Override
+    public Object uniqueOwnerOf(GriffonDomain target, String propertyName, List<String> uniquenessGroup) {
+        return null;
+    }
+
     @Override
     protected Object doInvokeInstanceMethod(InstanceMethodInvocation method, GriffonDomain target, String methodName, Object... args) {
         throw (RuntimeException) sanitize(new UnsupportedOperationException("Domain method " + methodName + " is not supported by mapping '" + getMapping() + "'"));
@@ -17,18 +17,35 @@
 package org.codehaus.griffon.runtime.domain;
 
 import griffon.plugins.domain.GriffonDomainProperty;
+import org.codehaus.groovy.reflection.ReflectionCache;
 import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
 
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation.castToType;
 
 /**
+ * Reads and writes a property through the accessors found by introspection, which are
+ * resolved once rather than looked up through the owner's metaclass on every call.
+ * Values are coerced to the property type before being written, as Groovy would.
+ * Properties lacking an accessor are handled by the metaclass.
+ *
  * @author Andres Almiray
  */
 public class DefaultGriffonDomainProperty implements GriffonDomainProperty {
     private final PropertyDescriptor propertyDescriptor;
+    private final Method readMethod;
+    private final Method writeMethod;
+    private final Class<?> valueType;
 
     public DefaultGriffonDomainProperty(PropertyDescriptor propertyDescriptor) {
         this.propertyDescriptor = propertyDescriptor;
+        this.readMethod = accessible(propertyDescriptor.getReadMethod());
+        this.writeMethod = accessible(propertyDescriptor.getWriteMethod());
+        this.valueType = propertyDescriptor.getPropertyType() != null ? ReflectionCache.autoboxType(propertyDescriptor.getPropertyType()) : Object.class;
     }
 
     public String getName() {
@@ -40,10 +57,40 @@ public class DefaultGriffonDomainProperty implements GriffonDomainProperty {
     }
 
     public Object getValue(Object owner) {
-        return InvokerHelper.getProperty(owner, getName());
+        if (readMethod == null || !readMethod.getDeclaringClass().isInstance(owner)) {
+            return InvokerHelper.getProperty(owner, getName());
+        }
+        return invoke(readMethod, owner);
     }
 
     public void setValue(Object owner, Object value) {
-        InvokerHelper.setProperty(owner, propertyDescriptor.getName(), value);
+        if (writeMethod == null || !writeMethod.getDeclaringClass().isInstance(owner)) {
+            InvokerHelper.setProperty(owner, propertyDescriptor.getName(), value);
+            return;
+        }
+        invoke(writeMethod, owner, castToType(value, valueType));
+    }
+
+    private Object invoke(Method method, Object owner, Object... args) {
+        try {
+            return method.invoke(owner, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access property " + getName() + " of " + owner.getClass().getName(), e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new InvokerInvocationException(e);
+        }
+    }
+
+    private static Method accessible(Method method) {
+        if (method == null) return null;
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            // public accessors remain callable, access checks are merely slower
+        }
+        return method;
     }
 }
@@ -15,9 +15,16 @@
  */
 package org.codehaus.griffon.runtime.domain;
 
+import griffon.persistence.Columnar;
+import griffon.persistence.Indexed;
+import griffon.persistence.Partitioned;
+import griffon.persistence.Restorable;
 import griffon.persistence.Transient;
 import griffon.plugins.domain.GriffonDomainClass;
 import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.identity.IdentityGenerator;
+import griffon.plugins.domain.identity.SequenceIdentityGenerator;
+import griffon.transform.Domain;
 import griffon.util.GriffonClassUtils;
 import org.codehaus.griffon.runtime.core.ClassPropertyFetcher;
 
@@ -157,4 +164,35 @@ public class GriffonDomainConfigurationUtil {
         final Field propertyField = GriffonClassUtils.getField(owner, descriptor.getName());
         return propertyField != null && propertyField.getAnnotation(Transient.class) != null;
     }
-}
\ No newline at end of file
+
+    public static boolean isIndexedProperty(Class owner, String propertyName) {
+        return getIndexDefinition(owner, propertyName) != null;
+    }
+
+    public static Indexed getIndexDefinition(Class owner, String propertyName) {
+        final Field propertyField = GriffonClassUtils.getField(owner, propertyName);
+        return propertyField != null ? propertyField.getAnnotation(Indexed.class) : null;
+    }
+
+    public static boolean isColumnar(Class owner) {
+        return owner.getAnnotation(Columnar.class) != null;
+    }
+
+    public static boolean isRestorable(Class owner) {
+        return owner.getAnnotation(Restorable.class) != null;
+    }
+
+    public static int getPartitionCount(Class owner) {
+        Partitioned partitioned = (Partitioned) owner.getAnnotation(Partitioned.class);
+        if (partitioned == null) return 1;
+        if (partitioned.value() < 1) {
+            throw new IllegalArgumentException("Invalid partition count " + partitioned.value() + " for " + owner.getName());
+        }
+        return partitioned.value();
+    }
+
+    public static Class<? extends IdentityGenerator> getIdentityGenerator(Class owner) {
+        Domain domain = (Domain) owner.getAnnotation(Domain.class);
+        return domain != null ? domain.identity() : SequenceIdentityGenerator.class;
+    }
+}
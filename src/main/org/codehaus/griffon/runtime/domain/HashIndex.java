@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainProperty;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index that resolves equality lookups with a single hash probe.
+ *
+ * @author Andres Almiray
+ */
+public class HashIndex<T extends GriffonDomain> extends DatasetIndex<T> {
+    private final ConcurrentMap<Object, Bucket<T>> buckets = new ConcurrentHashMap<Object, Bucket<T>>();
+
+    public HashIndex(GriffonDomainProperty property) {
+        super(property);
+    }
+
+    protected ConcurrentMap<Object, Bucket<T>> buckets() {
+        return buckets;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps row identities to values.
+ * <p/>
+ * When primitive keys are enabled {@code Long} identities, the kind every generated
+ * identity normalizes to, are kept in an open-addressing table of {@code long} keys
+ * that costs neither an entry object nor a boxed key per row. Any other identity is
+ * kept in a {@code ConcurrentHashMap}.
+ * <p/>
+ * Reads never block and see every write completed before they started. Writes to the
+ * primitive table are serialized; the table is rebuilt, dropping removed slots, once
+ * live and removed slots fill it past its load factor. Rebuilt tables leave room for
+ * as many live keys again.
+ * <p/>
+ * Values can be iterated in identity order. Primitive keys are then sorted into a
+ * {@code long[]} that is only built the first time an ordered iteration is requested,
+ * and merged with the keys added since on the next one. Keys are sorted and merged
+ * outside the table's monitor, hence ordered reads never hold up writers.
+ *
+ * @author Andres Almiray
+ */
+public final class IdentityTable<V> {
+    private static final Object REMOVED = new Object();
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Map<Object, V> others = new ConcurrentHashMap<Object, V>();
+    private final boolean primitive;
+    private volatile Table table;
+    private volatile int size;
+    private int used;
+    private volatile long[] order;
+    private long[] sorted;
+    private long[] added = new long[0];
+    private int addedCount;
+    private boolean removedSinceSort;
+    // whether added keys are recorded, which they are once sorting has been requested
+    private boolean tracking;
+    // bumped whenever a key is added or removed
+    private int generation;
+    // bumped whenever sorted is replaced or recording starts over
+    private int epoch;
+
+    public IdentityTable(boolean primitive) {
+        this.primitive = primitive;
+        this.table = primitive ? new Table(INITIAL_CAPACITY) : null;
+    }
+
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    public V get(Object identity) {
+        if (!primitive || !(identity instanceof Long)) return others.get(identity);
+        return lookup((Long) identity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V lookup(long key) {
+        Table t = table;
+        for (int i = t.indexOf(key); ; i = (i + 1) & t.mask) {
+            Object value = t.values.get(i);
+            if (value == null) return null;
+            if (t.keys.get(i) == key) return value != REMOVED ? (V) value : null;
+        }
+    }
+
+    public boolean containsKey(Object identity) {
+        return get(identity) != null;
+    }
+
+    /**
+     * Stores a value, returning the one it replaced if any.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(Object identity, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot store a null value for identity " + identity);
+        }
+        if (!primitive || !(identity instanceof Long)) return others.put(identity, value);
+        long key = (Long) identity;
+        synchronized (this) {
+            Table t = table;
+            for (int i = t.indexOf(key); ; i = (i + 1) & t.mask) {
+                Object current = t.values.get(i);
+                if (current == null) {
+                    if (used + 1 > t.threshold) {
+                        table = t.rebuild(size + 1);
+                        used = size;
+                        return put(identity, value);
+                    }
+                    // the key is published by the volatile write of the value
+                    t.keys.lazySet(i, key);
+                    t.values.set(i, value);
+                    used++;
+                    size++;
+                    keyAdded(key);
+                    return null;
+                } else if (t.keys.get(i) == key) {
+                    t.values.set(i, value);
+                    if (current != REMOVED) return (V) current;
+                    size++;
+                    keyAdded(key);
+                    return null;
+                }
+            }
+        }
+    }
+
+    public void putAll(Map<?, ? extends V> values) {
+        for (Map.Entry<?, ? extends V> entry : values.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes the value stored under the supplied identity, returning it if there was one.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object identity) {
+        if (!primitive || !(identity instanceof Long)) return others.remove(identity);
+        long key = (Long) identity;
+        synchronized (this) {
+            Table t = table;
+            for (int i = t.indexOf(key); ; i = (i + 1) & t.mask) {
+                Object current = t.values.get(i);
+                if (current == null) return null;
+                if (t.keys.get(i) == key) {
+                    if (current == REMOVED) return null;
+                    // the slot keeps its key so that readers never see it pointing to another row
+                    t.values.set(i, REMOVED);
+                    size--;
+                    order = null;
+                    generation++;
+                    removedSinceSort = true;
+                    return (V) current;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size + others.size();
+    }
+
+    /**
+     * Records a key added to the primitive table, unless no ordered iteration has been
+     * requested yet or so many keys were added that sorting them all again is cheaper.
+     */
+    private void keyAdded(long key) {
+        order = null;
+        generation++;
+        if (!tracking) return;
+        if (addedCount == added.length) {
+            if (addedCount >= Math.max(INITIAL_CAPACITY, sorted != null ? sorted.length : size)) {
+                sorted = null;
+                tracking = false;
+                added = new long[0];
+                addedCount = 0;
+                epoch++;
+                return;
+            }
+            added = Arrays.copyOf(added, Math.max(INITIAL_CAPACITY, addedCount * 2));
+        }
+        added[addedCount++] = key;
+    }
+
+    /**
+     * Returns the primitive keys in ascending order. Callers must not modify the array.
+     * <p/>
+     * The keys are sorted from a snapshot taken under the monitor, then published if
+     * no key was added or removed meanwhile. Otherwise the result still replaces the
+     * sorted keys, and keys added since the snapshot are merged on the next call.
+     */
+    private long[] sortedKeys() {
+        long[] keys = order;
+        if (keys != null) return keys;
+        long[] base;
+        long[] pending;
+        int pendingCount;
+        boolean checkRemoved;
+        int snapshotGeneration;
+        int snapshotEpoch;
+        synchronized (this) {
+            if (order != null) return order;
+            if (!tracking) {
+                // keys added while the table is scanned are merged next time
+                tracking = true;
+                epoch++;
+            }
+            base = sorted;
+            pending = added;
+            pendingCount = addedCount;
+            checkRemoved = removedSinceSort;
+            snapshotGeneration = generation;
+            snapshotEpoch = epoch;
+        }
+
+        if (base == null) {
+            Table t = table;
+            keys = new long[Math.max(INITIAL_CAPACITY, size)];
+            int count = 0;
+            for (int i = 0; i <= t.mask; i++) {
+                Object value = t.values.get(i);
+                if (value == null || value == REMOVED) continue;
+                if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+                keys[count++] = t.keys.get(i);
+            }
+            Arrays.sort(keys, 0, count);
+            keys = count == keys.length ? keys : Arrays.copyOf(keys, count);
+        } else {
+            long[] run = Arrays.copyOf(pending, pendingCount);
+            Arrays.sort(run);
+            keys = merge(base, base.length, run, pendingCount, checkRemoved);
+        }
+
+        synchronized (this) {
+            if (epoch == snapshotEpoch) {
+                sorted = keys;
+                int remaining = addedCount - pendingCount;
+                added = Arrays.copyOfRange(added, pendingCount, pendingCount + Math.max(INITIAL_CAPACITY, remaining));
+                addedCount = remaining;
+                epoch++;
+                if (generation == snapshotGeneration) {
+                    removedSinceSort = false;
+                    order = keys;
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Merges two sorted runs of keys, dropping duplicates as well as keys that have been
+     * removed if {@code checkRemoved} is set.
+     */
+    private long[] merge(long[] left, int leftCount, long[] right, int rightCount, boolean checkRemoved) {
+        long[] keys = new long[leftCount + rightCount];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < leftCount || j < rightCount) {
+            long key = j == rightCount || i < leftCount && left[i] <= right[j] ? left[i++] : right[j++];
+            if (count > 0 && keys[count - 1] == key) continue;
+            if (checkRemoved && lookup(key) == null) continue;
+            keys[count++] = key;
+        }
+        return count == keys.length ? keys : Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Returns the values in identity order, or in reverse order if {@code ascending} is
+     * false. Values removed while iterating are skipped, values of identities added
+     * while iterating may not be returned. Only primitive tables support ordered
+     * iteration, other tables leave ordering to the caller.
+     */
+    public Iterator<V> values(final boolean ascending) {
+        if (!primitive) {
+            throw new UnsupportedOperationException("Identity table does not keep identity order");
+        }
+        final long[] keys = sortedKeys();
+        final List<Object> otherKeys = new ArrayList<Object>(others.keySet());
+        Collections.sort((List) otherKeys);
+        if (!ascending) Collections.reverse(otherKeys);
+        return new Iterator<V>() {
+            private int index;
+            private V next = advance();
+
+            private V advance() {
+                while (index < keys.length + otherKeys.size()) {
+                    int i = index++;
+                    V value;
+                    if (ascending) {
+                        value = i < keys.length ? lookup(keys[i]) : others.get(otherKeys.get(i - keys.length));
+                    } else {
+                        value = i < otherKeys.size() ? others.get(otherKeys.get(i)) : lookup(keys[keys.length - 1 - (i - otherKeys.size())]);
+                    }
+                    if (value != null) return value;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public V next() {
+                if (next == null) throw new NoSuchElementException();
+                V value = next;
+                next = advance();
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+        private final int threshold;
+
+        private Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        private int indexOf(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        /**
+         * Copies the live slots into the smallest table that holds twice {@code size}
+         * keys below its load factor. The headroom keeps inserts and removals churning
+         * around a steady number of keys from rebuilding the table over and over.
+         */
+        private Table rebuild(int size) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity * LOAD_FACTOR < 2L * size && capacity < (1 << 30)) {
+                capacity <<= 1;
+            }
+            Table table = new Table(capacity);
+            for (int i = 0; i <= mask; i++) {
+                Object value = values.get(i);
+                if (value == null || value == REMOVED) continue;
+                long key = keys.get(i);
+                int j = table.indexOf(key);
+                while (table.values.get(j) != null) {
+                    j = (j + 1) & table.mask;
+                }
+                table.keys.set(j, key);
+                table.values.set(j, value);
+            }
+            return table;
+        }
+    }
+}
@@ -20,22 +20,25 @@ import griffon.plugins.domain.GriffonDomain;
 import griffon.plugins.domain.GriffonDomainClass;
 import griffon.plugins.domain.GriffonDomainHandler;
 import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.exceptions.UniqueConstraintException;
 import griffon.plugins.domain.methods.InstanceMethodInvocation;
 import griffon.plugins.domain.methods.StaticMethodInvocation;
 import griffon.plugins.domain.orm.Criterion;
-import griffon.plugins.validation.constraints.ConstrainedProperty;
-import griffon.plugins.validation.exceptions.ValidationException;
 import griffon.util.CollectionUtils;
+import groovy.lang.Closure;
 import org.codehaus.griffon.runtime.domain.methods.*;
+import org.codehaus.griffon.runtime.validation.constraints.UniqueConstraint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Andres Almiray
  */
 public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryGriffonDomainHandler.class);
     private static final String MAPPING = "memory";
     private static final ConcurrentHashMapDatastore DEFAULT_DATASTORE = new ConcurrentHashMapDatastore("default");
     private static final Map<String, ConcurrentHashMapDatastore> DATASTORES = new ConcurrentHashMap<String, ConcurrentHashMapDatastore>();
@@ -58,6 +61,7 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         staticMethods.put(CountByMethod.METHOD_NAME, new CountByMethod(this));
         staticMethods.put(CountMethod.METHOD_NAME, new CountMethod(this));
         staticMethods.put(CreateMethod.METHOD_NAME, new CreateMethod(this));
+        staticMethods.put(DeleteAllMethod.METHOD_NAME, new DeleteAllMethod(this));
         staticMethods.put(ExistsMethod.METHOD_NAME, new ExistsMethod(this));
         staticMethods.put(FindAllByMethod.METHOD_NAME, new FindAllByMethod(this));
         staticMethods.put(FindAllMethod.METHOD_NAME, new FindAllMethod(this));
@@ -75,8 +79,12 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         staticMethods.put(LastMethod.METHOD_NAME, new LastMethod(this));
         staticMethods.put(ListMethod.METHOD_NAME, new ListMethod(this));
         staticMethods.put(ListOrderByMethod.METHOD_NAME, new ListOrderByMethod(this));
+        staticMethods.put(SaveAllMethod.METHOD_NAME, new SaveAllMethod(this));
+        staticMethods.put(UpdateAllMethod.METHOD_NAME, new UpdateAllMethod(this));
         // staticMethods.put(WhereMethod.METHOD_NAME, new WhereMethod(this));
         staticMethods.put(WithCriteriaMethod.METHOD_NAME, new WithCriteriaMethod(this));
+        staticMethods.put(WithTransactionMethod.METHOD_NAME, new WithTransactionMethod(this));
+        staticMethods.put(StreamMethod.METHOD_NAME, new StreamMethod(this));
         return staticMethods;
     }
 
@@ -92,6 +100,15 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         return DATASTORES.get(name);
     }
 
+    /**
+     * Reads the owner from the unique indexes of the dataset, which cover the
+     * uniqueness group of the property.
+     */
+    @Override
+    public Object uniqueOwnerOf(GriffonDomain target, String propertyName, List<String> uniquenessGroup) {
+        return datasetOf((GriffonDomainClass) target.getGriffonClass()).uniqueOwnerOf(propertyName, target);
+    }
+
     private <T extends GriffonDomain> ConcurrentHashMapDatastore.Dataset<T> datasetOf(GriffonDomainClass domainClass) {
         if (domainClass == null) {
             throw new IllegalArgumentException("DomainClass is null!");
@@ -100,8 +117,6 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
     }
 
     private class SaveMethod extends AbstractSavePersistentMethod {
-        private final AtomicInteger identitySequence = new AtomicInteger(0);
-
         public SaveMethod(GriffonDomainHandler griffonDomainHandler) {
             super(griffonDomainHandler);
         }
@@ -115,52 +130,106 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected GriffonDomain insert(GriffonDomainClass domainClass, GriffonDomain target, Object[] arguments, Map<String, Object> params) {
-            final ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(domainClass);
-            if (null != checkUniqueConstraints(domainClass, target, params, dataset)) {
-                GriffonDomainProperty identity = identityOf(target);
-                identity.setValue(target, identitySequence.incrementAndGet());
+            GriffonDomainProperty identity = identityOf(target);
+            Object identityValue = DEFAULT_DATASTORE.nextIdentity(domainClass);
+            identity.setValue(target, identityValue);
+            ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(domainClass);
+            try {
                 return dataset.save(target);
+            } catch (UniqueConstraintException e) {
+                identity.setValue(target, null);
+                return rejectUnique(target, e, params);
+            } catch (RuntimeException e) {
+                // an instance that was not stored must be inserted again when saved next
+                if (dataset.fetch(identityValue) != target) identity.setValue(target, null);
+                throw e;
             }
-            return null;
         }
 
         @Override
         protected GriffonDomain save(GriffonDomainClass domainClass, GriffonDomain target, Object[] arguments, Map<String, Object> params) {
-            final ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(domainClass);
-            if (null != checkUniqueConstraints(domainClass, target, params, dataset)) {
-                return dataset.save(target);
+            try {
+                return datasetOf(domainClass).save(target);
+            } catch (UniqueConstraintException e) {
+                return rejectUnique(target, e, params);
             }
-            return null;
-        }
-
-        private GriffonDomain checkUniqueConstraints(GriffonDomainClass domainClass, GriffonDomain target, Map<String, Object> params, ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset) {
-            boolean validate = (Boolean) params.get(VALIDATE);
-            boolean failOnError = (Boolean) params.get(FAIL_ON_ERROR);
-
-            if (validate) {
-                final Map<String, ConstrainedProperty> constrainedProperties = domainClass.getConstrainedProperties();
-                for (Map.Entry<String, ConstrainedProperty> entry : constrainedProperties.entrySet()) {
-                    String propertyName = entry.getKey();
-                    GriffonDomainProperty domainProperty = domainClass.getPropertyByName(propertyName);
-                    ConstrainedProperty constrainedProperty = entry.getValue();
-                    Object uniqueValue = constrainedProperty.getMetaConstraintValue("unique");
-                    if (null != uniqueValue && (Boolean) uniqueValue) {
-                        final Object value = domainProperty.getValue(target);
-                        final Map<String, Object> args = CollectionUtils.<String, Object>map().e(propertyName, value);
-                        GriffonDomain other = dataset.first(args);
-                        if (null != other && target != other) {
-                            if (failOnError) {
-                                throw new ValidationException("Constraint 'unique' failed validation for property '" + propertyName + "' with value " + value);
-                            } else {
-                                target.getErrors().rejectField(propertyName, value, "unique", null);
-                            }
-                        }
+        }
+    }
+
+    private class SaveAllMethod extends AbstractSaveAllPersistentMethod {
+        public SaveAllMethod(GriffonDomainHandler griffonDomainHandler) {
+            super(griffonDomainHandler);
+        }
+
+        @Override
+        protected boolean shouldInsert(GriffonDomainClass domainClass, GriffonDomain target) {
+            return identityOf(target).getValue(target) == null;
+        }
+
+        @Override
+        protected List<GriffonDomain> saveAll(GriffonDomainClass domainClass, List<GriffonDomain> targets, Set<GriffonDomain> inserts, Map<String, Object> params) {
+            Iterator<Object> identities = DEFAULT_DATASTORE.nextIdentities(domainClass, inserts.size()).iterator();
+            for (GriffonDomain target : targets) {
+                if (inserts.contains(target)) identityOf(target).setValue(target, identities.next());
+            }
+
+            boolean failOnError = (Boolean) params.get(AbstractSavePersistentMethod.FAIL_ON_ERROR);
+            Map<GriffonDomain, UniqueConstraintException> violations = failOnError ? null : new IdentityHashMap<GriffonDomain, UniqueConstraintException>();
+            try {
+                List<GriffonDomain> saved = datasetOf(domainClass).saveAll(targets, violations);
+                if (violations != null) {
+                    for (Map.Entry<GriffonDomain, UniqueConstraintException> violation : violations.entrySet()) {
+                        if (inserts.contains(violation.getKey())) identityOf(violation.getKey()).setValue(violation.getKey(), null);
+                        rejectUnique(violation.getKey(), violation.getValue(), params);
                     }
                 }
-                if (target.getErrors().hasErrors()) return null;
+                return saved;
+            } catch (RuntimeException e) {
+                // groups of rows handled before the failure remain saved and keep their identity
+                ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(domainClass);
+                for (GriffonDomain target : inserts) {
+                    GriffonDomainProperty identity = identityOf(target);
+                    if (dataset.fetch(identity.getValue(target)) != target) identity.setValue(target, null);
+                }
+                throw e;
             }
+        }
+    }
+
+    /**
+     * Turns a unique constraint violation detected while storing an instance into a field
+     * error, unless {@code failOnError} is set.
+     */
+    private GriffonDomain rejectUnique(GriffonDomain target, UniqueConstraintException e, Map<String, Object> params) {
+        if ((Boolean) params.get(AbstractSavePersistentMethod.FAIL_ON_ERROR)) throw e;
+        target.getErrors().rejectField(e.getPropertyName(), e.getValue(), UniqueConstraint.VALIDATION_DSL_NAME, null);
+        return null;
+    }
 
-            return target;
+    private class DeleteAllMethod extends AbstractDeleteAllPersistentMethod {
+        public DeleteAllMethod(GriffonDomainHandler griffonDomainHandler) {
+            super(griffonDomainHandler);
+        }
+
+        @Override
+        protected int deleteAll(GriffonDomainClass domainClass, List<GriffonDomain> targets) {
+            return datasetOf(domainClass).removeAll(targets);
+        }
+
+        @Override
+        protected int deleteAll(GriffonDomainClass domainClass, Criterion criterion) {
+            return datasetOf(domainClass).removeAll(criterion);
+        }
+    }
+
+    private class UpdateAllMethod extends AbstractUpdateAllPersistentMethod {
+        public UpdateAllMethod(GriffonDomainHandler griffonDomainHandler) {
+            super(griffonDomainHandler);
+        }
+
+        @Override
+        protected int updateAll(GriffonDomainClass domainClass, Criterion criterion, Map<String, Object> values) {
+            return datasetOf(domainClass).updateAll(criterion, values);
         }
     }
 
@@ -199,7 +268,12 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected boolean exists(GriffonDomainClass domainClass, Object key) {
-            return datasetOf(domainClass).fetch(key) != null;
+            return datasetOf(domainClass).exists(key);
+        }
+
+        @Override
+        protected boolean existsByCriterion(GriffonDomainClass domainClass, Criterion criterion) {
+            return datasetOf(domainClass).exists(criterion);
         }
     }
 
@@ -269,9 +343,9 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection listOrderBy(GriffonDomainClass domainClass, String propertyName, Map<String, Object> params) {
-            List<GriffonDomain> entities = datasetOf(domainClass).list(params);
-            Collections.sort(entities, new GriffonDomain.Comparator(propertyName, (String) params.get(ListOrderByMethod.ORDER)));
-            return entities;
+            Map<String, Object> options = new LinkedHashMap<String, Object>(params);
+            options.put(ConcurrentHashMapDatastore.Dataset.KEY_SORT, propertyName);
+            return datasetOf(domainClass).list(options);
         }
     }
 
@@ -284,6 +358,11 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         protected int count(GriffonDomainClass domainClass) {
             return datasetOf(domainClass).size();
         }
+
+        @Override
+        protected int countByCriterion(GriffonDomainClass domainClass, Criterion criterion) {
+            return datasetOf(domainClass).count(criterion);
+        }
     }
 
     private class FindAllWhereMethod extends AbstractFindAllWherePersistentMethod {
@@ -293,9 +372,7 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection<GriffonDomain> findByParams(GriffonDomainClass domainClass, Map params, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(options);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(params, options);
         }
     }
 
@@ -339,7 +416,8 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         @Override
         protected Object firstByPropertyName(GriffonDomainClass domainClass, String propertyName) {
             Map<String, Object> options = CollectionUtils.<String, Object>map()
-                .e(ConcurrentHashMapDatastore.Dataset.KEY_SORT, propertyName);
+                .e(ConcurrentHashMapDatastore.Dataset.KEY_SORT, propertyName)
+                .e(ConcurrentHashMapDatastore.Dataset.KEY_MAX, 1);
             List<GriffonDomain> objects = datasetOf(domainClass).list(options);
             return objects.size() > 0 ? objects.get(0) : null;
         }
@@ -354,7 +432,8 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         protected Object lastByPropertyName(GriffonDomainClass domainClass, String propertyName) {
             Map<String, Object> options = CollectionUtils.<String, Object>map()
                 .e(ConcurrentHashMapDatastore.Dataset.KEY_SORT, propertyName)
-                .e(ConcurrentHashMapDatastore.Dataset.KEY_ORDER, "desc");
+                .e(ConcurrentHashMapDatastore.Dataset.KEY_ORDER, "desc")
+                .e(ConcurrentHashMapDatastore.Dataset.KEY_MAX, 1);
             List<GriffonDomain> objects = datasetOf(domainClass).list(options);
             return objects.size() > 0 ? objects.get(0) : null;
         }
@@ -367,16 +446,12 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection<GriffonDomain> findByProperties(GriffonDomainClass domainClass, Map<String, Object> properties, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(properties, options);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(properties, options);
         }
 
         @Override
         protected Collection<GriffonDomain> findByExample(GriffonDomainClass domainClass, Object example, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(example);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(example, options);
         }
 
         @Override
@@ -392,9 +467,7 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection<GriffonDomain> withCriteria(GriffonDomainClass domainClass, Criterion criterion, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(criterion);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(criterion, options);
         }
     }
 
@@ -405,9 +478,58 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection<GriffonDomain> withCriteria(GriffonDomainClass domainClass, Criterion criterion, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(criterion);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(criterion, options);
+        }
+    }
+
+    private class WithTransactionMethod extends AbstractWithTransactionPersistentMethod {
+        public WithTransactionMethod(GriffonDomainHandler griffonDomainHandler) {
+            super(griffonDomainHandler);
+        }
+
+        @Override
+        protected Object withTransaction(GriffonDomainClass domainClass, Closure closure) {
+            ConcurrentHashMapDatastore.Transaction transaction = DEFAULT_DATASTORE.currentTransaction();
+            if (transaction != null) return closure.call(transaction);
+
+            transaction = DEFAULT_DATASTORE.begin();
+            boolean completed = false;
+            try {
+                Object result = closure.call(transaction);
+                completed = true;
+                if (transaction.isRollbackOnly()) {
+                    transaction.rollback();
+                } else {
+                    transaction.commit();
+                }
+                return result;
+            } finally {
+                if (!completed) rollbackAfterFailure(transaction);
+            }
+        }
+
+        /**
+         * Rolls back a transaction whose closure failed. A failure to roll back, such as rows
+         * changed by other threads meanwhile, is logged so that the closure's exception
+         * is the one reaching the caller.
+         */
+        private void rollbackAfterFailure(ConcurrentHashMapDatastore.Transaction transaction) {
+            try {
+                transaction.rollback();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not roll back a failed transaction", e);
+            }
+        }
+    }
+
+    private class StreamMethod extends AbstractStreamPersistentMethod {
+        public StreamMethod(GriffonDomainHandler griffonDomainHandler) {
+            super(griffonDomainHandler);
+        }
+
+        @Override
+        protected Iterator<GriffonDomain> stream(GriffonDomainClass domainClass, Criterion criterion) {
+            return datasetOf(domainClass).stream(criterion);
         }
     }
 
@@ -471,20 +593,13 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         }
 
         @Override
-        protected Object findOrSaveBy(GriffonDomainClass domainClass, String methodName, Criterion criterion, Map<String, Object> options) {
-            GriffonDomain domain = datasetOf(domainClass).first(criterion);
-
-            if (null == domain) {
-                domain = (GriffonDomain) domainClass.newInstance();
-                Map<String, Object> props = criterionToMap(criterion);
-                for (GriffonDomainProperty property : domainClass.getProperties()) {
-                    Object value = props.get(property.getName());
-                    if (value != null) property.setValue(domain, value);
+        protected Object findOrSaveBy(final GriffonDomainClass domainClass, String methodName, Criterion criterion, final Map<String, Object> options) {
+            final Map<String, Object> props = criterionToMap(criterion);
+            return datasetOf(domainClass).findOrSave(criterion, props, new RowFactory<GriffonDomain>() {
+                public GriffonDomain create() {
+                    return saveNewInstance(domainClass, props, options);
                 }
-                domain = (GriffonDomain) getGriffonDomainHandler().invokeInstanceMethod(domain, SaveMethod.METHOD_NAME, options);
-            }
-
-            return domain;
+            });
         }
     }
 
@@ -494,20 +609,22 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
         }
 
         @Override
-        protected GriffonDomain findOrSaveByParams(GriffonDomainClass domainClass, Map params, Map<String, Object> options) {
-            GriffonDomain domain = datasetOf(domainClass).first(options);
-
-            if (null == domain) {
-                domain = (GriffonDomain) domainClass.newInstance();
-                for (GriffonDomainProperty property : domainClass.getProperties()) {
-                    Object value = options.get(property.getName());
-                    if (value != null) property.setValue(domain, value);
+        protected GriffonDomain findOrSaveByParams(final GriffonDomainClass domainClass, final Map params, final Map<String, Object> options) {
+            return datasetOf(domainClass).findOrSave((Map<String, Object>) params, new RowFactory<GriffonDomain>() {
+                public GriffonDomain create() {
+                    return saveNewInstance(domainClass, (Map<String, Object>) params, options);
                 }
-                domain = (GriffonDomain) getGriffonDomainHandler().invokeInstanceMethod(domain, SaveMethod.METHOD_NAME, options);
-            }
+            });
+        }
+    }
 
-            return domain;
+    private GriffonDomain saveNewInstance(GriffonDomainClass domainClass, Map<String, Object> props, Map<String, Object> options) {
+        GriffonDomain domain = (GriffonDomain) domainClass.newInstance();
+        for (GriffonDomainProperty property : domainClass.getProperties()) {
+            Object value = props.get(property.getName());
+            if (value != null) property.setValue(domain, value);
         }
+        return (GriffonDomain) invokeInstanceMethod(domain, SaveMethod.METHOD_NAME, options);
     }
 
     private class FindAllByMethod extends AbstractFindAllByPersistentMethod {
@@ -517,9 +634,7 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected Collection findAllBy(GriffonDomainClass domainClass, String methodName, Criterion criterion, Map<String, Object> options) {
-            List<GriffonDomain> entities = datasetOf(domainClass).query(criterion);
-            Collections.sort(entities, IDENTITY_COMPARATOR);
-            return entities;
+            return datasetOf(domainClass).query(criterion, options);
         }
     }
 
@@ -530,7 +645,7 @@ public class MemoryGriffonDomainHandler extends AbstractGriffonDomainHandler {
 
         @Override
         protected int countBy(GriffonDomainClass domainClass, String methodName, Criterion criterion) {
-            return datasetOf(domainClass).query(criterion).size();
+            return datasetOf(domainClass).count(criterion);
         }
     }
 }
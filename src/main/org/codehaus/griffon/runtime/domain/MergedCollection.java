@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain;
+
+import java.util.*;
+
+/**
+ * Read-only view over several collections that are each sorted by the same
+ * comparator. Iteration performs a k-way merge, yielding elements in global order;
+ * elements that compare equal are returned in the order of their source collections.
+ *
+ * @author Andres Almiray
+ */
+public class MergedCollection<T> extends AbstractCollection<T> {
+    private final List<? extends Collection<T>> sources;
+    private final Comparator<? super T> comparator;
+
+    public MergedCollection(List<? extends Collection<T>> sources, Comparator<? super T> comparator) {
+        this.sources = sources;
+        this.comparator = comparator;
+    }
+
+    public Iterator<T> iterator() {
+        List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(sources.size());
+        for (Collection<T> source : sources) {
+            iterators.add(source.iterator());
+        }
+        return merge(iterators, comparator);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Collection<T> source : sources) {
+            size += source.size();
+        }
+        return size;
+    }
+
+    /**
+     * Merges iterators that are each sorted by the supplied comparator.
+     */
+    public static <T> Iterator<T> merge(List<Iterator<T>> iterators, final Comparator<? super T> comparator) {
+        if (iterators.size() == 1) return iterators.get(0);
+
+        final PriorityQueue<Head<T>> heads = new PriorityQueue<Head<T>>(Math.max(1, iterators.size()), new Comparator<Head<T>>() {
+            public int compare(Head<T> a, Head<T> b) {
+                int result = comparator.compare(a.value, b.value);
+                return result != 0 ? result : (a.source < b.source ? -1 : (a.source == b.source ? 0 : 1));
+            }
+        });
+        for (int i = 0; i < iterators.size(); i++) {
+            Iterator<T> iterator = iterators.get(i);
+            if (iterator.hasNext()) heads.add(new Head<T>(i, iterator.next(), iterator));
+        }
+
+        return new Iterator<T>() {
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            public T next() {
+                Head<T> head = heads.poll();
+                if (head == null) throw new NoSuchElementException();
+                T value = head.value;
+                if (head.iterator.hasNext()) {
+                    head.value = head.iterator.next();
+                    heads.add(head);
+                }
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static final class Head<T> {
+        private final int source;
+        private final Iterator<T> iterator;
+        private T value;
+
+        private Head(int source, T value, Iterator<T> iterator) {
+            this.source = source;
+            this.value = value;
+            this.iterator = iterator;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainProperty;
+import griffon.plugins.domain.orm.Operator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.VALUE_COMPARATOR;
+
+/**
+ * Index that keeps its keys sorted, resolving range comparisons with a sub-map
+ * scan and iterating rows in property order for sorted listings.
+ * <p/>
+ * Null values are ordered before any other value, matching Groovy's comparison
+ * rules; hence {@code <} and {@code <=} comparisons include rows holding null.
+ *
+ * @author Andres Almiray
+ */
+public class OrderedIndex<T extends GriffonDomain> extends DatasetIndex<T> {
+    private final ConcurrentNavigableMap<Object, Bucket<T>> buckets = new ConcurrentSkipListMap<Object, Bucket<T>>(VALUE_COMPARATOR);
+
+    public OrderedIndex(GriffonDomainProperty property) {
+        super(property);
+    }
+
+    @Override
+    public Collection<T> lookup(Operator operator, Object value) {
+        if (value == null) return super.lookup(operator, value);
+        Object key = keyOf(value);
+        switch (operator) {
+            case GREATER_THAN:
+                return collect(buckets.tailMap(key, false), false);
+            case GREATER_THAN_OR_EQUAL:
+                return collect(buckets.tailMap(key, true), false);
+            case LESS_THAN:
+                return collect(buckets.headMap(key, false), true);
+            case LESS_THAN_OR_EQUAL:
+                return collect(buckets.headMap(key, true), true);
+            default:
+                return super.lookup(operator, value);
+        }
+    }
+
+    /**
+     * Returns an iterator over all rows sorted by property value. Rows sharing the
+     * same value are returned in identity order regardless of direction.
+     */
+    public Iterator<T> iterator(final boolean ascending) {
+        final Iterator<Bucket<T>> values = (ascending ? buckets : buckets.descendingMap()).values().iterator();
+        return new Iterator<T>() {
+            private Iterator<T> inner = ascending ? nulls().values().iterator() : Collections.<T>emptyList().iterator();
+            private boolean nullsVisited = ascending;
+
+            public boolean hasNext() {
+                while (!inner.hasNext()) {
+                    if (values.hasNext()) {
+                        inner = values.next().values().iterator();
+                    } else if (!nullsVisited) {
+                        inner = nulls().values().iterator();
+                        nullsVisited = true;
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return inner.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private Collection<T> collect(SortedMap<Object, Bucket<T>> range, boolean includeNulls) {
+        SortedMap<Object, T> rows = new TreeMap<Object, T>();
+        if (includeNulls) rows.putAll(nulls().rows());
+        for (Bucket<T> bucket : range.values()) {
+            rows.putAll(bucket.rows());
+        }
+        return Collections.unmodifiableCollection(rows.values());
+    }
+
+    @Override
+    protected ConcurrentMap<Object, Bucket<T>> buckets() {
+        return buckets;
+    }
+}
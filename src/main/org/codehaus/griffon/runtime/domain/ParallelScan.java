@@ -0,0 +1,219 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.exceptions.GriffonDomainException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a {@link RowFilter} over a list of rows using a shared pool of daemon
+ * threads. Rows are split into contiguous chunks whose matches are concatenated in
+ * chunk order, hence the result keeps the order of the input list. The calling
+ * thread evaluates the first chunk itself.
+ * <p/>
+ * Arrays are sorted the same way: chunks are sorted concurrently, then merged pairwise
+ * in rounds whose merges run concurrently as well. The sort is stable.
+ * <p/>
+ * Growing the pool replaces the shared executor. A task the retired executor rejects
+ * runs on the calling thread instead.
+ *
+ * @author Andres Almiray
+ */
+public final class ParallelScan {
+    private static final int MIN_CHUNK_SIZE = 1024;
+    private static final int MIN_SORT_CHUNK_SIZE = 8192;
+    private static final Object LOCK = new Object();
+    private static ExecutorService executor;
+    private static int poolSize;
+
+    private ParallelScan() {
+
+    }
+
+    public static <T> List<T> filter(final List<T> rows, final RowFilter<T> filter, int threads) {
+        int chunks = Math.min(threads * 4, Math.max(1, rows.size() / MIN_CHUNK_SIZE));
+        if (threads < 2 || chunks < 2) {
+            return filterChunk(rows, filter);
+        }
+
+        ExecutorService executor = executor(threads);
+        int chunkSize = (rows.size() + chunks - 1) / chunks;
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(chunks);
+        for (int from = chunkSize; from < rows.size(); from += chunkSize) {
+            final List<T> chunk = rows.subList(from, Math.min(rows.size(), from + chunkSize));
+            futures.add(submit(executor, new Callable<List<T>>() {
+                public List<T> call() {
+                    return filterChunk(chunk, filter);
+                }
+            }));
+        }
+
+        List<T> matches = new ArrayList<T>();
+        try {
+            matches.addAll(filterChunk(rows.subList(0, Math.min(rows.size(), chunkSize)), filter));
+            for (Future<List<T>> future : futures) {
+                matches.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonDomainException("Interrupted while evaluating query", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            cancel(futures);
+        }
+        return matches;
+    }
+
+    public static <T> void sort(final T[] rows, final Comparator<? super T> comparator, int threads) {
+        int chunks = Math.min(threads, rows.length / MIN_SORT_CHUNK_SIZE);
+        if (threads < 2 || chunks < 2) {
+            Arrays.sort(rows, comparator);
+            return;
+        }
+
+        ExecutorService executor = executor(threads);
+        final int chunkSize = (rows.length + chunks - 1) / chunks;
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+        try {
+            for (int from = 0; from < rows.length; from += chunkSize) {
+                final int start = from;
+                futures.add(submit(executor, new Runnable() {
+                    public void run() {
+                        Arrays.sort(rows, start, Math.min(rows.length, start + chunkSize), comparator);
+                    }
+                }));
+            }
+            await(futures);
+
+            T[] source = rows;
+            T[] target = rows.clone();
+            for (int width = chunkSize; width < rows.length; width *= 2) {
+                final T[] src = source;
+                final T[] dst = target;
+                futures.clear();
+                for (int from = 0; from < rows.length; from += 2 * width) {
+                    final int low = from;
+                    final int middle = Math.min(rows.length, from + width);
+                    final int high = Math.min(rows.length, from + 2 * width);
+                    futures.add(submit(executor, new Runnable() {
+                        public void run() {
+                            merge(src, dst, low, middle, high, comparator);
+                        }
+                    }));
+                }
+                await(futures);
+                source = dst;
+                target = src;
+            }
+            if (source != rows) {
+                System.arraycopy(source, 0, rows, 0, rows.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonDomainException("Interrupted while sorting query results", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            cancel(futures);
+        }
+    }
+
+    private static <V> Future<V> submit(ExecutorService executor, Callable<V> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            FutureTask<V> future = new FutureTask<V>(task);
+            future.run();
+            return future;
+        }
+    }
+
+    private static Future<?> submit(ExecutorService executor, Runnable task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            FutureTask<Object> future = new FutureTask<Object>(task, null);
+            future.run();
+            return future;
+        }
+    }
+
+    private static <T> void merge(T[] source, T[] target, int low, int middle, int high, Comparator<? super T> comparator) {
+        int i = low;
+        int j = middle;
+        for (int k = low; k < high; k++) {
+            if (j >= high || i < middle && comparator.compare(source[i], source[j]) <= 0) {
+                target[k] = source[i++];
+            } else {
+                target[k] = source[j++];
+            }
+        }
+    }
+
+    private static void await(List<Future<?>> futures) throws InterruptedException, ExecutionException {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new GriffonDomainException(cause);
+    }
+
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static <T> List<T> filterChunk(List<T> rows, RowFilter<T> filter) {
+        List<T> matches = new ArrayList<T>();
+        for (T row : rows) {
+            if (filter.accept(row)) matches.add(row);
+        }
+        return matches;
+    }
+
+    private static ExecutorService executor(int threads) {
+        synchronized (LOCK) {
+            if (executor == null || poolSize < threads) {
+                ExecutorService retired = executor;
+                final AtomicInteger counter = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "griffon-domain-query-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                poolSize = threads;
+                // callers still holding the retired executor run their rejected tasks themselves
+                if (retired != null) retired.shutdown();
+            }
+            return executor;
+        }
+    }
+}
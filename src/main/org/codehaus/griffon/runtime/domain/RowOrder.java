@@ -0,0 +1,192 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.*;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+
+/**
+ * Orders rows by one or more properties, breaking ties by ascending identity.
+ * <p/>
+ * Null values sort first in ascending order and last in descending order, as they do
+ * with Groovy's comparison operators, unless told otherwise. Strings are compared by
+ * {@code Collator} keys when a collator is supplied.
+ * <p/>
+ * {@link #sort(Collection, int)} reads the sort keys of every row once before sorting,
+ * whereas comparing rows through {@link #compare(Object, Object)} reads them again on
+ * every comparison.
+ *
+ * @author Andres Almiray
+ */
+public final class RowOrder<T> implements Comparator<T> {
+    private final String[] propertyNames;
+    private final GriffonDomainProperty[] properties;
+    private final boolean[] ascending;
+    private final boolean[] nullsFirst;
+    private final boolean natural;
+    private final Collator collator;
+    private final GriffonDomainProperty identity;
+    private final Comparator<Entry<T>> entryOrder = new Comparator<Entry<T>>() {
+        public int compare(Entry<T> a, Entry<T> b) {
+            return compareKeys(a.keys, b.keys);
+        }
+    };
+
+    /**
+     * @param nullsFirst whether null values sort first, or {@code null} to sort them as the lowest values
+     * @param collator   compares String values, or {@code null} to compare them by their natural order
+     */
+    public RowOrder(GriffonDomainClass domainClass, String[] propertyNames, boolean[] ascending, Boolean nullsFirst, Collator collator) {
+        if (propertyNames == null || propertyNames.length == 0) {
+            throw new IllegalArgumentException("No property to sort by!");
+        }
+        if (ascending == null || ascending.length != propertyNames.length) {
+            throw new IllegalArgumentException("Sort order must be given for each of " + Arrays.asList(propertyNames));
+        }
+        this.propertyNames = propertyNames.clone();
+        this.properties = new GriffonDomainProperty[propertyNames.length];
+        this.ascending = ascending.clone();
+        this.nullsFirst = new boolean[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            properties[i] = domainClass.getPropertyByName(propertyNames[i]);
+            if (properties[i] == null) {
+                throw new IllegalArgumentException("Cannot sort by " + propertyNames[i] + " because it is not a property of " + domainClass.getClazz());
+            }
+            this.nullsFirst[i] = nullsFirst != null ? nullsFirst : ascending[i];
+        }
+        this.natural = nullsFirst == null && collator == null;
+        this.collator = collator;
+        this.identity = domainClass.getIdentity();
+    }
+
+    public static <T> RowOrder<T> by(GriffonDomainClass domainClass, String propertyName, boolean ascending) {
+        return new RowOrder<T>(domainClass, new String[]{propertyName}, new boolean[]{ascending}, null, null);
+    }
+
+    /**
+     * Returns the name of the property rows are sorted by, or {@code null} if they are
+     * sorted by several properties or in an order other indexes do not keep.
+     */
+    public String getNaturalOrderPropertyName() {
+        return natural && propertyNames.length == 1 ? propertyNames[0] : null;
+    }
+
+    public boolean isAscending() {
+        return ascending[0];
+    }
+
+    public int compare(T a, T b) {
+        return compareKeys(keysOf(a), keysOf(b));
+    }
+
+    /**
+     * Returns a sorted copy of the supplied rows. Lists of rows are sorted in chunks on up
+     * to {@code threads} threads, then merged.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> sort(Collection<T> rows, int threads) {
+        Entry<T>[] entries = new Entry[rows.size()];
+        int i = 0;
+        for (T row : rows) {
+            entries[i++] = entry(row);
+        }
+        ParallelScan.sort(entries, entryOrder, threads);
+        List<T> sorted = new ArrayList<T>(entries.length);
+        for (Entry<T> entry : entries) {
+            sorted.add(entry.row);
+        }
+        return sorted;
+    }
+
+    public Entry<T> entry(T row) {
+        return new Entry<T>(keysOf(row), row);
+    }
+
+    public Comparator<Entry<T>> entryOrder() {
+        return entryOrder;
+    }
+
+    private Object[] keysOf(T row) {
+        Object[] keys = new Object[properties.length + 1];
+        for (int i = 0; i < properties.length; i++) {
+            keys[i] = keyOf(properties[i].getValue(row));
+        }
+        keys[properties.length] = normalizeIdentity(identity.getValue(row));
+        return keys;
+    }
+
+    private Object keyOf(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (collator != null && value instanceof CharSequence) {
+            return collator.getCollationKey(value.toString());
+        } else if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private int compareKeys(Object[] a, Object[] b) {
+        for (int i = 0; i < properties.length; i++) {
+            Object x = a[i];
+            Object y = b[i];
+            if (x == y) continue;
+            if (x == null) return nullsFirst[i] ? -1 : 1;
+            if (y == null) return nullsFirst[i] ? 1 : -1;
+            int result = compareValues(x, y);
+            if (result != 0) return ascending[i] ? result : -result;
+        }
+        return compareValues(a[properties.length], b[properties.length]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object x, Object y) {
+        if (x instanceof Long && y instanceof Long) {
+            long l = (Long) x;
+            long r = (Long) y;
+            return l < r ? -1 : (l == r ? 0 : 1);
+        } else if (x instanceof String && y instanceof String) {
+            return ((String) x).compareTo((String) y);
+        } else if (x instanceof CollationKey && y instanceof CollationKey) {
+            return ((CollationKey) x).compareTo((CollationKey) y);
+        }
+        return DatasetKeys.VALUE_COMPARATOR.compare(x, y);
+    }
+
+    /**
+     * A row along with the sort keys read from it.
+     */
+    public static final class Entry<T> {
+        private final Object[] keys;
+        private final T row;
+
+        private Entry(Object[] keys, T row) {
+            this.keys = keys;
+            this.row = row;
+        }
+
+        public T getRow() {
+            return row;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+/**
+ * Fixed set of monitors selected by key hash. Writers touching the same key always
+ * synchronize on the same monitor while writers on different keys rarely contend.
+ *
+ * @author Andres Almiray
+ */
+public final class StripedLock {
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final Object[] stripes;
+
+    public StripedLock() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedLock(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive, was " + stripes);
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) size <<= 1;
+        this.stripes = new Object[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the monitor guarding the supplied key.
+     */
+    public Object lockFor(Object key) {
+        int h = key != null ? key.hashCode() : 0;
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[h & (stripes.length - 1)];
+    }
+}
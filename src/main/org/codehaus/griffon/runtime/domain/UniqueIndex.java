@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeValue;
+
+/**
+ * Enforces a {@code unique} constraint across every partition of a dataset. The key of
+ * a row is the normalized value of the constrained property, combined with the values
+ * of its uniqueness group if there is one; rows whose constrained value is null have
+ * no key.
+ * <p/>
+ * Every key is owned by at most one identity. Writers claim the keys of a row before
+ * storing it, which either succeeds or reports that another row owns the key, then bind
+ * them once the row is stored, releasing the keys the row held before. Claims are atomic,
+ * hence two rows can never be stored with the same key. Callers must serialize
+ * {@code bind} and {@code release} calls for the same identity.
+ *
+ * @author Andres Almiray
+ */
+public class UniqueIndex<T extends GriffonDomain> {
+    private final String propertyName;
+    private final GriffonDomainProperty[] properties;
+    private final ConcurrentMap<Object, Object> owners = new ConcurrentHashMap<Object, Object>();
+    private final ConcurrentMap<Object, Object> keys = new ConcurrentHashMap<Object, Object>();
+
+    public UniqueIndex(GriffonDomainClass domainClass, String propertyName, List<String> uniquenessGroup) {
+        this.propertyName = propertyName;
+        List<GriffonDomainProperty> properties = new ArrayList<GriffonDomainProperty>();
+        properties.add(propertyOf(domainClass, propertyName));
+        for (String groupPropertyName : uniquenessGroup) {
+            properties.add(propertyOf(domainClass, groupPropertyName));
+        }
+        this.properties = properties.toArray(new GriffonDomainProperty[properties.size()]);
+    }
+
+    private static GriffonDomainProperty propertyOf(GriffonDomainClass domainClass, String propertyName) {
+        GriffonDomainProperty property = domainClass.getPropertyByName(propertyName);
+        if (property == null) {
+            throw new IllegalArgumentException(domainClass.getName() + " does not have a property named " + propertyName);
+        }
+        return property;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Returns the key of the entity, or {@code null} if the constrained property is null.
+     * Values held by the supplied map, if any, take precedence over those of the entity.
+     */
+    public Object keyOf(T entity, Map<String, Object> values) {
+        Object value = valueOf(properties[0], entity, values);
+        if (value == null) return null;
+        if (properties.length == 1) return normalizeValue(value);
+        List<Object> key = new ArrayList<Object>(properties.length);
+        key.add(normalizeValue(value));
+        for (int i = 1; i < properties.length; i++) {
+            Object groupValue = valueOf(properties[i], entity, values);
+            key.add(groupValue != null ? normalizeValue(groupValue) : null);
+        }
+        return key;
+    }
+
+    private Object valueOf(GriffonDomainProperty property, T entity, Map<String, Object> values) {
+        if (values != null && values.containsKey(property.getName())) {
+            return values.get(property.getName());
+        }
+        return property.getValue(entity);
+    }
+
+    /**
+     * Returns the identity of the row owning the key, or {@code null} if there is none.
+     */
+    public Object ownerOf(Object key) {
+        return key != null ? owners.get(key) : null;
+    }
+
+    /**
+     * Claims the key for the identity, returning false if it is owned by another row.
+     */
+    public boolean claim(Object identity, Object key) {
+        if (key == null) return true;
+        Object owner = owners.putIfAbsent(key, identity);
+        return owner == null || owner.equals(identity);
+    }
+
+    /**
+     * Gives up a claim that was not followed by {@link #bind}.
+     */
+    public void unclaim(Object identity, Object key) {
+        if (key == null || key.equals(keys.get(identity))) return;
+        owners.remove(key, identity);
+    }
+
+    /**
+     * Records the key of a stored row, releasing the key it held before.
+     */
+    public void bind(Object identity, Object key) {
+        Object previous = key != null ? keys.put(identity, key) : keys.remove(identity);
+        if (previous != null && !previous.equals(key)) owners.remove(previous, identity);
+    }
+
+    /**
+     * Binds the key of a row that is stored without being claimed first, such as a row
+     * read back from disk or put back by a rollback, taking the key over if need be.
+     */
+    public void restore(Object identity, Object key) {
+        if (key != null) owners.put(key, identity);
+        bind(identity, key);
+    }
+
+    /**
+     * Releases the key of a removed row.
+     */
+    public void release(Object identity) {
+        Object key = keys.remove(identity);
+        if (key != null) owners.remove(key, identity);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{property=" + propertyName + ", size=" + keys.size() + "}";
+    }
+}
@@ -16,9 +16,12 @@
 package org.codehaus.griffon.runtime.domain.methods;
 
 import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
 import griffon.plugins.domain.GriffonDomainHandler;
 import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
 import griffon.plugins.domain.methods.CountMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
 import groovy.lang.MissingMethodException;
 
 /**
@@ -32,6 +35,13 @@ public abstract class AbstractCountPersistentMethod extends AbstractPersistentSt
     protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
         if (arguments.length == 0) {
             return count(domainClass);
+        } else if (arguments.length == 1) {
+            final Object arg1 = arguments[0];
+            if (arg1 instanceof Criterion) {
+                return countByCriterion(domainClass, (Criterion) arg1);
+            } else if (arg1 instanceof Closure) {
+                return countByCriterion(domainClass, GriffonDomainClassUtils.getInstance().buildCriterion((Closure) arg1));
+            }
         }
         throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
     }
@@ -39,4 +49,8 @@ public abstract class AbstractCountPersistentMethod extends AbstractPersistentSt
     protected int count(GriffonDomainClass domainClass) {
         throw new UnsupportedDomainMethodException();
     }
+
+    protected int countByCriterion(GriffonDomainClass domainClass, Criterion criterion) {
+        throw new UnsupportedDomainMethodException();
+    }
 }
\ No newline at end of file
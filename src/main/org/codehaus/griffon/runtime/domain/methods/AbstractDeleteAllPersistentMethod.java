@@ -0,0 +1,79 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain.methods;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
+import griffon.plugins.domain.methods.DeleteAllMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+import groovy.lang.MissingMethodException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Andres Almiray
+ */
+public abstract class AbstractDeleteAllPersistentMethod extends AbstractPersistentStaticMethodInvocation implements DeleteAllMethod {
+    public AbstractDeleteAllPersistentMethod(GriffonDomainHandler griffonDomainHandler) {
+        super(griffonDomainHandler);
+    }
+
+    protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
+        if (arguments.length == 1 && arguments[0] instanceof Collection) {
+            List<GriffonDomain> targets = new ArrayList<GriffonDomain>();
+            for (Object element : (Collection) arguments[0]) {
+                if (!domainClass.getClazz().isInstance(element)) {
+                    throw new IllegalArgumentException("Cannot delete " + element + " because it is not an instance of " + domainClass.getClazz().getName());
+                }
+                targets.add((GriffonDomain) element);
+            }
+            for (GriffonDomain target : targets) {
+                target.beforeDelete();
+            }
+            int count = deleteAll(domainClass, targets);
+            for (GriffonDomain target : targets) {
+                target.afterDelete();
+            }
+            return count;
+        } else if (arguments.length == 1 && arguments[0] instanceof Criterion) {
+            return deleteAll(domainClass, (Criterion) arguments[0]);
+        } else if (arguments.length == 1 && arguments[0] instanceof Closure) {
+            return deleteAll(domainClass, GriffonDomainClassUtils.getInstance().buildCriterion((Closure) arguments[0]));
+        }
+        throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
+    }
+
+    /**
+     * Removes the supplied instances, returning how many of them were stored.
+     */
+    protected int deleteAll(GriffonDomainClass domainClass, List<GriffonDomain> targets) {
+        throw new UnsupportedDomainMethodException();
+    }
+
+    /**
+     * Removes every instance matching the criterion, returning how many were removed.
+     * Matching instances are removed inside the datastore, hence no events are triggered.
+     */
+    protected int deleteAll(GriffonDomainClass domainClass, Criterion criterion) {
+        throw new UnsupportedDomainMethodException();
+    }
+}
@@ -16,9 +16,12 @@
 package org.codehaus.griffon.runtime.domain.methods;
 
 import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
 import griffon.plugins.domain.GriffonDomainHandler;
 import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
 import griffon.plugins.domain.methods.ExistsMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
 import groovy.lang.MissingMethodException;
 
 /**
@@ -31,7 +34,13 @@ public abstract class AbstractExistsPersistentMethod extends AbstractPersistentS
 
     protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
         if (arguments.length == 1) {
-            return exists(domainClass, arguments[0]);
+            final Object arg1 = arguments[0];
+            if (arg1 instanceof Criterion) {
+                return existsByCriterion(domainClass, (Criterion) arg1);
+            } else if (arg1 instanceof Closure) {
+                return existsByCriterion(domainClass, GriffonDomainClassUtils.getInstance().buildCriterion((Closure) arg1));
+            }
+            return exists(domainClass, arg1);
         }
         throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
     }
@@ -39,4 +48,8 @@ public abstract class AbstractExistsPersistentMethod extends AbstractPersistentS
     protected boolean exists(GriffonDomainClass domainClass, Object key) {
         throw new UnsupportedDomainMethodException();
     }
+
+    protected boolean existsByCriterion(GriffonDomainClass domainClass, Criterion criterion) {
+        throw new UnsupportedDomainMethodException();
+    }
 }
\ No newline at end of file
@@ -44,7 +44,7 @@ public abstract class AbstractFindOrSaveWherePersistentMethod extends AbstractPe
             final Object arg1 = arguments[0];
             final Object arg2 = arguments[1];
             if (arg1 instanceof Map && arg2 instanceof Map) {
-                return findOrSaveByParams(domainClass, (Map) arg1, Collections.<String, Object>emptyMap());
+                return findOrSaveByParams(domainClass, (Map) arg1, (Map) arg2);
             }
         }
         throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
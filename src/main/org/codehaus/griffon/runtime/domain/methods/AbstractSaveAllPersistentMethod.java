@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain.methods;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
+import griffon.plugins.domain.methods.SaveAllMethod;
+import griffon.plugins.validation.exceptions.ValidationException;
+import groovy.lang.MissingMethodException;
+
+import java.util.*;
+
+import static griffon.util.ApplicationHolder.getApplication;
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static org.codehaus.griffon.runtime.domain.methods.AbstractSavePersistentMethod.FAIL_ON_ERROR;
+import static org.codehaus.griffon.runtime.domain.methods.AbstractSavePersistentMethod.VALIDATE;
+
+/**
+ * Saves a batch of instances. Options are resolved once for the whole batch and every
+ * instance is validated before any of them is stored; instances failing validation are
+ * left out of the batch unless {@code failOnError} is set, in which case nothing is saved.
+ *
+ * @author Andres Almiray
+ */
+public abstract class AbstractSaveAllPersistentMethod extends AbstractPersistentStaticMethodInvocation implements SaveAllMethod {
+    private static final String FAIL_ON_ERROR_CONFIG_KEY = "griffon.domain.failOnError";
+
+    public AbstractSaveAllPersistentMethod(GriffonDomainHandler griffonDomainHandler) {
+        super(griffonDomainHandler);
+    }
+
+    protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
+        if (arguments.length < 1 || arguments.length > 2 || !(arguments[0] instanceof Collection) ||
+            (arguments.length == 2 && !(arguments[1] instanceof Map))) {
+            throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
+        }
+
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        if (arguments.length == 2) params.putAll((Map) arguments[1]);
+        boolean validate = getConfigValueAsBoolean(params, VALIDATE, true);
+        boolean failOnError = getConfigValueAsBoolean(getApplication().getConfig(), FAIL_ON_ERROR_CONFIG_KEY, false);
+        if (params.containsKey(FAIL_ON_ERROR)) {
+            failOnError = getConfigValueAsBoolean(params, FAIL_ON_ERROR);
+        }
+        params.put(VALIDATE, validate);
+        params.put(FAIL_ON_ERROR, failOnError);
+
+        List<GriffonDomain> targets = new ArrayList<GriffonDomain>();
+        for (Object element : (Collection) arguments[0]) {
+            if (!domainClass.getClazz().isInstance(element)) {
+                throw new IllegalArgumentException("Cannot save " + element + " because it is not an instance of " + domainClass.getClazz().getName());
+            }
+            GriffonDomain target = (GriffonDomain) element;
+            if (validate) {
+                target.getErrors().clearAllErrors();
+                if (!target.validate()) {
+                    if (failOnError) {
+                        throw new ValidationException("An instance of " + target.getClass() + " failed validation");
+                    }
+                    continue;
+                }
+            }
+            targets.add(target);
+        }
+
+        Set<GriffonDomain> inserts = Collections.newSetFromMap(new IdentityHashMap<GriffonDomain, Boolean>());
+        for (GriffonDomain target : targets) {
+            if (shouldInsert(domainClass, target)) {
+                inserts.add(target);
+                target.beforeInsert();
+            } else {
+                target.beforeUpdate();
+            }
+        }
+
+        List<GriffonDomain> saved = saveAll(domainClass, targets, inserts, params);
+        for (GriffonDomain entity : saved) {
+            entity.onSave();
+            if (inserts.contains(entity)) {
+                entity.afterInsert();
+            } else {
+                entity.afterUpdate();
+            }
+        }
+        return saved;
+    }
+
+    protected abstract boolean shouldInsert(GriffonDomainClass domainClass, GriffonDomain target);
+
+    /**
+     * Stores the validated instances, returning those that were saved.
+     *
+     * @param inserts the instances among {@code targets} that have not been saved before
+     */
+    protected List<GriffonDomain> saveAll(GriffonDomainClass domainClass, List<GriffonDomain> targets, Set<GriffonDomain> inserts, Map<String, Object> params) {
+        throw new UnsupportedDomainMethodException();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain.methods;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
+import griffon.plugins.domain.methods.StreamMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+import groovy.lang.MissingMethodException;
+
+import java.util.Iterator;
+
+/**
+ * @author Andres Almiray
+ */
+public abstract class AbstractStreamPersistentMethod extends AbstractPersistentStaticMethodInvocation implements StreamMethod {
+    public AbstractStreamPersistentMethod(GriffonDomainHandler griffonDomainHandler) {
+        super(griffonDomainHandler);
+    }
+
+    protected Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
+        if (arguments.length == 0) {
+            return stream(domainClass, null);
+        } else if (arguments.length == 1) {
+            final Object arg1 = arguments[0];
+            if (arg1 instanceof Criterion) {
+                return stream(domainClass, (Criterion) arg1);
+            } else if (arg1 instanceof Closure) {
+                return stream(domainClass, GriffonDomainClassUtils.getInstance().buildCriterion((Closure) arg1));
+            }
+        }
+        throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
+    }
+
+    /**
+     * Returns a lazy iterator over the instances matching the criterion, or over all
+     * instances if the criterion is null.
+     */
+    protected Iterator<GriffonDomain> stream(GriffonDomainClass domainClass, Criterion criterion) {
+        throw new UnsupportedDomainMethodException();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain.methods;
+
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainClassUtils;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
+import griffon.plugins.domain.methods.UpdateAllMethod;
+import griffon.plugins.domain.orm.Criterion;
+import groovy.lang.Closure;
+import groovy.lang.MissingMethodException;
+
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public abstract class AbstractUpdateAllPersistentMethod extends AbstractPersistentStaticMethodInvocation implements UpdateAllMethod {
+    public AbstractUpdateAllPersistentMethod(GriffonDomainHandler griffonDomainHandler) {
+        super(griffonDomainHandler);
+    }
+
+    protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
+        if (arguments.length == 2) {
+            Object arg1 = arguments[0];
+            Object arg2 = arguments[1];
+            if (arg1 instanceof Map) {
+                arg1 = arguments[1];
+                arg2 = arguments[0];
+            }
+            if (arg2 instanceof Map) {
+                if (arg1 instanceof Criterion) {
+                    return updateAll(domainClass, (Criterion) arg1, (Map<String, Object>) arg2);
+                } else if (arg1 instanceof Closure) {
+                    return updateAll(domainClass, GriffonDomainClassUtils.getInstance().buildCriterion((Closure) arg1), (Map<String, Object>) arg2);
+                }
+            }
+        }
+        throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
+    }
+
+    /**
+     * Sets the supplied property values on every instance matching the criterion,
+     * returning how many were updated. Matching instances are changed inside the
+     * datastore, hence neither validation nor events are triggered.
+     */
+    protected int updateAll(GriffonDomainClass domainClass, Criterion criterion, Map<String, Object> values) {
+        throw new UnsupportedDomainMethodException();
+    }
+}
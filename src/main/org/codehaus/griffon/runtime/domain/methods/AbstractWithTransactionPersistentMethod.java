@@ -0,0 +1,47 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.domain.methods;
+
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.domain.exceptions.UnsupportedDomainMethodException;
+import griffon.plugins.domain.methods.WithTransactionMethod;
+import groovy.lang.Closure;
+import groovy.lang.MissingMethodException;
+
+/**
+ * @author Andres Almiray
+ */
+public abstract class AbstractWithTransactionPersistentMethod extends AbstractPersistentStaticMethodInvocation implements WithTransactionMethod {
+    public AbstractWithTransactionPersistentMethod(GriffonDomainHandler griffonDomainHandler) {
+        super(griffonDomainHandler);
+    }
+
+    protected final Object invokeInternal(GriffonDomainClass domainClass, String methodName, Object[] arguments) {
+        if (arguments.length == 1 && arguments[0] instanceof Closure) {
+            return withTransaction(domainClass, (Closure) arguments[0]);
+        }
+        throw new MissingMethodException(methodName, domainClass.getClazz(), arguments);
+    }
+
+    /**
+     * Runs the closure inside a transaction, passing it a {@code TransactionStatus}.
+     * Blocks nested in a running transaction join it.
+     */
+    protected Object withTransaction(GriffonDomainClass domainClass, Closure closure) {
+        throw new UnsupportedDomainMethodException();
+    }
+}
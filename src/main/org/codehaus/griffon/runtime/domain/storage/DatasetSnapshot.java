@@ -0,0 +1,147 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import org.codehaus.griffon.runtime.domain.ConcurrentHashMapDatastore;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+
+/**
+ * Binary image of every row of a single dataset.
+ * <p/>
+ * A snapshot records the sequence number of the last journal record it is known to
+ * include. Rows are read without holding any lock, so the snapshot may also include
+ * later changes; replaying the journal records that follow that sequence number
+ * restores the exact state, as every record carries a full row image.
+ * <p/>
+ * Snapshots are written to a temporary file that replaces the previous snapshot once
+ * complete, and are read back through memory-mapped buffers in batches that are
+ * handed to {@link ConcurrentHashMapDatastore.Dataset#load(java.util.Collection)}.
+ *
+ * @author Andres Almiray
+ */
+public class DatasetSnapshot {
+    private static final int MAGIC = 0x47445331;
+    private static final int VERSION = 1;
+    private static final int BATCH_SIZE = 4096;
+    public static final String SUFFIX = ".snapshot";
+
+    private final File file;
+
+    public DatasetSnapshot(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("Snapshot file is null!");
+        }
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes every row of the dataset, returning the number of rows written.
+     *
+     * @param lsn sequence number of the last journal record applied before the first row was read
+     */
+    public <T extends GriffonDomain> long write(ConcurrentHashMapDatastore.Dataset<T> dataset, long lsn) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        long rows = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lsn);
+            out.writeUTF(dataset.getName());
+
+            GriffonDomainClass domainClass = dataset.getDomainClass();
+            for (Iterator<T> iterator = dataset.stream(null); iterator.hasNext(); ) {
+                T entity = iterator.next();
+                out.writeBoolean(true);
+                RowCodec.writeRow(out, domainClass, normalizeIdentity(domainClass.getIdentity().getValue(entity)), entity);
+                rows++;
+            }
+            out.writeBoolean(false);
+            out.writeLong(rows);
+            out.flush();
+            stream.getChannel().force(true);
+        } finally {
+            stream.close();
+        }
+
+        if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file + " with " + temporary);
+        }
+        return rows;
+    }
+
+    /**
+     * Loads every row held by the snapshot into the datastore of the supplied loader.
+     * Journal records up to the snapshot's sequence number are skipped by the loader from then on.
+     *
+     * @return the number of rows read
+     */
+    public long read(RowLoader loader) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedInput in = new MappedInput(channel);
+            if (in.readInt() != MAGIC) {
+                throw new StreamCorruptedException(file + " is not a datastore snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new StreamCorruptedException(file + " has unsupported version " + version);
+            }
+            long lsn = in.readLong();
+            String dataset = in.readUTF();
+
+            long rows = 0;
+            List<RowImage> batch = new ArrayList<RowImage>(BATCH_SIZE);
+            while (in.readBoolean()) {
+                batch.add(RowCodec.readRow(in));
+                rows++;
+                if (batch.size() == BATCH_SIZE) {
+                    loader.load(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) loader.load(batch);
+            if (in.readLong() != rows) {
+                throw new StreamCorruptedException(file + " is incomplete");
+            }
+            loader.skipRecords(dataset, lsn);
+            return rows;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import java.io.*;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Directory holding a consistent image of a datastore.
+ * <p/>
+ * A checkpoint is made of one {@link DatasetSnapshot} per dataset, written while saves
+ * continue, plus a tail of the journal records appended while the snapshots were being
+ * written. Loading the snapshots and redoing the tail yields the state of every dataset
+ * as of the last record of the tail, whose sequence number is kept in the manifest.
+ * <p/>
+ * Checkpoints are assembled in a temporary directory that replaces the previous
+ * checkpoint once complete. Should the application stop while the directories are
+ * being swapped, the previous checkpoint is used. Snapshots, tail and directory
+ * entries are forced to disk before the manifest is written, and the swap is forced
+ * before the journal may be compacted.
+ *
+ * @author Andres Almiray
+ */
+public class DatastoreCheckpoint {
+    public static final String SUFFIX = ".checkpoint";
+    private static final String MANIFEST = "checkpoint.properties";
+    private static final String TAIL = "tail.journal";
+    private static final String KEY_SEQUENCE = "sequence";
+    private static final String KEY_HIGH_WATER_MARK = "identity.";
+
+    private final File directory;
+    private final File work;
+    private final File previous;
+
+    public DatastoreCheckpoint(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Checkpoint directory is null!");
+        }
+        this.directory = directory;
+        this.work = new File(directory.getPath() + ".tmp");
+        this.previous = new File(directory.getPath() + ".old");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Prepares an empty directory to assemble a new checkpoint in.
+     */
+    public void begin() throws IOException {
+        delete(work);
+        if (!work.mkdirs()) {
+            throw new IOException("Cannot create directory " + work);
+        }
+    }
+
+    public File snapshotFile(String dataset) {
+        return new File(work, dataset + DatasetSnapshot.SUFFIX);
+    }
+
+    public File tailFile() {
+        return new File(work, TAIL);
+    }
+
+    /**
+     * Records the sequence number the checkpoint is consistent with, along with the identity
+     * high-water mark of every dataset, and makes it the current checkpoint.
+     */
+    public void commit(long lsn, Map<String, Long> highWaterMarks) throws IOException {
+        // snapshots and tail must be in place before the manifest vouches for them
+        FileSync.directory(work);
+        Properties manifest = new Properties();
+        manifest.setProperty(KEY_SEQUENCE, String.valueOf(lsn));
+        for (Map.Entry<String, Long> mark : highWaterMarks.entrySet()) {
+            manifest.setProperty(KEY_HIGH_WATER_MARK + mark.getKey(), String.valueOf(mark.getValue()));
+        }
+        FileOutputStream out = new FileOutputStream(new File(work, MANIFEST));
+        try {
+            manifest.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        delete(previous);
+        if (directory.exists() && !directory.renameTo(previous)) {
+            throw new IOException("Cannot move " + directory + " to " + previous);
+        }
+        if (!work.renameTo(directory)) {
+            throw new IOException("Cannot move " + work + " to " + directory);
+        }
+        // the journal may be compacted as soon as this returns
+        File parent = directory.getAbsoluteFile().getParentFile();
+        if (parent != null) FileSync.directory(parent);
+        delete(previous);
+    }
+
+    /**
+     * Discards a checkpoint that could not be completed.
+     */
+    public void abort() {
+        try {
+            delete(work);
+        } catch (IOException e) {
+            // the next checkpoint starts from scratch anyway
+        }
+    }
+
+    /**
+     * Loads the current checkpoint, if any, returning the sequence number it is consistent
+     * with. Journal records up to that number are skipped by the loader from then on.
+     *
+     * @return the sequence number of the checkpoint, or -1 if there is none
+     */
+    public long read(RowLoader loader) throws IOException {
+        File source = new File(directory, MANIFEST).exists() ? directory : previous;
+        File manifestFile = new File(source, MANIFEST);
+        if (!manifestFile.exists()) return -1;
+
+        Properties manifest = new Properties();
+        FileInputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+
+        File[] files = source.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.getName().endsWith(DatasetSnapshot.SUFFIX)) {
+                new DatasetSnapshot(file).read(loader);
+            }
+        }
+        File tail = new File(source, TAIL);
+        if (tail.exists()) DatastoreJournal.replay(tail, loader);
+
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.startsWith(KEY_HIGH_WATER_MARK)) {
+                loader.restoreHighWaterMark(key.substring(KEY_HIGH_WATER_MARK.length()), Long.parseLong(manifest.getProperty(key)));
+            }
+        }
+        long lsn = Long.parseLong(manifest.getProperty(KEY_SEQUENCE, "0"));
+        loader.skipRecords(lsn);
+        return lsn;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.exists()) return;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
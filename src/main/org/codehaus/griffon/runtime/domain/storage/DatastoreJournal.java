@@ -0,0 +1,536 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import griffon.plugins.domain.exceptions.GriffonDomainException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the saves and deletes applied to a datastore, along with the
+ * identity high-water marks of its datasets.
+ * <p/>
+ * Records are queued by the writing thread and written by a background thread, which
+ * forces them to disk once {@code flushRecords} records are pending or {@code flushInterval}
+ * milliseconds have elapsed, whichever comes first. Every record written in between is
+ * made durable by the same {@code force}, which keeps the cost of a save close to that of
+ * encoding the row. Callers that must not return before their record is durable wait on
+ * the log sequence number returned by {@link #append}.
+ * <p/>
+ * The file starts with a magic number followed by frames of the form
+ * {@code [length][crc32][type][lsn][payload]}. A frame that was only partially written
+ * when the application stopped fails its checksum; replay stops there and the file is
+ * truncated to the last complete frame.
+ * <p/>
+ * Records made redundant by a checkpoint are dropped by {@link #compact}, which starts
+ * a new file holding only the records that follow it.
+ *
+ * @author Andres Almiray
+ */
+public class DatastoreJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(DatastoreJournal.class);
+    public static final byte SAVE = 1;
+    public static final byte DELETE = 2;
+    /**
+     * Identity high-water mark of a dataset, written as the dataset name followed by the mark.
+     */
+    public static final byte IDENTITY = 3;
+    private static final int MAGIC = 0x47444a31;
+    private static final int FRAME_HEADER = 8;
+    private static final int RECORD_HEADER = 9;
+
+    private final File file;
+    private final long flushInterval;
+    private final int flushRecords;
+    private final boolean sync;
+    private final Object lock = new Object();
+    private final Object channelLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+    private long appended;
+    private long durable;
+    private boolean flushRequested;
+    private boolean sealed;
+    private boolean closed = true;
+    private IOException failure;
+    private FileChannel channel;
+    private Thread flusher;
+
+    public DatastoreJournal(File file, long flushInterval, int flushRecords, boolean sync) {
+        if (file == null) {
+            throw new IllegalArgumentException("Journal file is null!");
+        }
+        this.file = file;
+        this.flushInterval = Math.max(0, flushInterval);
+        this.flushRecords = Math.max(1, flushRecords);
+        this.sync = sync;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns true if saves should wait for their record to be durable before returning.
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Replays every complete record held by the file, then opens it for appending.
+     *
+     * @return the number of records replayed
+     */
+    public long open(final RecordHandler handler) throws IOException {
+        synchronized (lock) {
+            if (!closed) {
+                throw new IllegalStateException("Journal " + file + " is already open");
+            }
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+
+            final long[] records = new long[1];
+            long end = scan(file, new FrameHandler() {
+                public void onFrame(byte[] body) throws IOException {
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                    byte type = record.readByte();
+                    long lsn = record.readLong();
+                    handler.onRecord(type, lsn, record);
+                    appended = Math.max(appended, lsn);
+                    records[0]++;
+                }
+            });
+
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            if (end == 0) {
+                channel.truncate(0);
+                channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(MAGIC).flip(), 0);
+                channel.force(true);
+                end = 4;
+            } else if (channel.size() > end) {
+                LOG.warn("Discarding " + (channel.size() - end) + " bytes of incomplete records at the end of " + file);
+                channel.truncate(end);
+            }
+            channel.position(end);
+
+            durable = appended;
+            closed = false;
+            failure = null;
+            flusher = new Thread(new Runnable() {
+                public void run() {
+                    flushLoop();
+                }
+            }, "griffon-domain-journal-" + file.getName());
+            flusher.setDaemon(true);
+            flusher.start();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Replayed " + records[0] + " records from " + file);
+            }
+            return records[0];
+        }
+    }
+
+    /**
+     * Reads every complete record of a journal file without opening it for appending.
+     *
+     * @return the number of records read
+     */
+    public static long replay(File file, final RecordHandler handler) throws IOException {
+        final long[] records = new long[1];
+        scan(file, new FrameHandler() {
+            public void onFrame(byte[] body) throws IOException {
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = record.readByte();
+                handler.onRecord(type, record.readLong(), record);
+                records[0]++;
+            }
+        });
+        return records[0];
+    }
+
+    /**
+     * Copies the records whose sequence number falls in {@code (from, to]} to a new journal
+     * file, which is forced to disk before returning. Records up to {@code to} must have
+     * been flushed.
+     *
+     * @return the number of records copied
+     */
+    public long copy(final long from, final long to, File target) throws IOException {
+        FileOutputStream stream = new FileOutputStream(target);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        final long[] records = new long[1];
+        try {
+            out.writeInt(MAGIC);
+            scan(file, new FrameHandler() {
+                public void onFrame(byte[] body) throws IOException {
+                    long lsn = ByteBuffer.wrap(body).getLong(1);
+                    if (lsn <= from || lsn > to) return;
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    out.writeInt(body.length);
+                    out.writeInt((int) crc.getValue());
+                    out.write(body);
+                    records[0]++;
+                }
+            });
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return records[0];
+    }
+
+    /**
+     * Replaces the file with one holding only the records whose sequence number is above
+     * the supplied one, which must have been flushed. Records appended meanwhile are
+     * written to the new file once it is in place. Should the file not be replaced, the
+     * journal keeps appending to the original one.
+     *
+     * @return the number of records kept
+     */
+    public long compact(long lsn) throws IOException {
+        synchronized (channelLock) {
+            synchronized (lock) {
+                checkWritable();
+            }
+            File compacted = new File(file.getPath() + ".compact");
+            long records;
+            try {
+                records = copy(lsn, Long.MAX_VALUE, compacted);
+            } catch (IOException e) {
+                compacted.delete();
+                throw e;
+            }
+            channel.close();
+            boolean replaced = false;
+            try {
+                replaced = replace(file, compacted);
+                if (replaced) {
+                    File directory = file.getAbsoluteFile().getParentFile();
+                    if (directory != null) FileSync.directory(directory);
+                }
+            } finally {
+                if (!replaced) compacted.delete();
+                reopen();
+            }
+            if (!replaced) {
+                throw new IOException("Cannot replace " + file + " with " + compacted);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compacted " + file + " to " + records + " records after sequence " + lsn);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Renames the replacement over the target, moving the target aside first on platforms
+     * that do not rename over existing files. Returns false with the target in place if
+     * the replacement could not be moved.
+     */
+    private static boolean replace(File target, File replacement) {
+        if (replacement.renameTo(target)) return true;
+        File aside = new File(target.getPath() + ".old");
+        aside.delete();
+        if (!target.renameTo(aside)) return false;
+        if (replacement.renameTo(target)) {
+            aside.delete();
+            return true;
+        }
+        aside.renameTo(target);
+        return false;
+    }
+
+    private void reopen() throws IOException {
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.position(channel.size());
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands every complete frame of the file to the handler, returning the offset right
+     * after the last one, or 0 if the file does not even hold a header.
+     */
+    private static long scan(File file, FrameHandler handler) throws IOException {
+        if (file.length() < 4) return 0;
+        long size = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new StreamCorruptedException(file + " is not a datastore journal");
+            }
+            long end = 4;
+            byte[] body;
+            while ((body = readFrame(in, size - end - FRAME_HEADER)) != null) {
+                handler.onFrame(body);
+                end += FRAME_HEADER + body.length;
+            }
+            return end;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFrame(DataInputStream in, long available) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < RECORD_HEADER || length > available) return null;
+        byte[] body = new byte[length];
+        try {
+            in.readFully(body);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == checksum ? body : null;
+    }
+
+    /**
+     * Queues a record, returning its log sequence number. Records appended to a sealed
+     * journal are discarded and get sequence number 0.
+     */
+    public long append(byte type, byte[] payload) {
+        return append(type, Collections.singletonList(payload));
+    }
+
+    /**
+     * Queues a batch of records of the same type, returning the sequence number of the last one.
+     */
+    public long append(byte type, List<byte[]> payloads) {
+        ByteBuffer[] frames = new ByteBuffer[payloads.size()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = ByteBuffer.allocate(FRAME_HEADER + RECORD_HEADER + payloads.get(i).length);
+        }
+        synchronized (lock) {
+            if (sealed) return 0;
+            checkWritable();
+            for (int i = 0; i < frames.length; i++) {
+                byte[] payload = payloads.get(i);
+                ByteBuffer frame = frames[i];
+                frame.position(FRAME_HEADER);
+                frame.put(type).putLong(++appended).put(payload);
+                crc.reset();
+                crc.update(frame.array(), FRAME_HEADER, RECORD_HEADER + payload.length);
+                frame.putInt(0, RECORD_HEADER + payload.length);
+                frame.putInt(4, (int) crc.getValue());
+                frame.flip();
+                pending.add(frame);
+            }
+            if (pending.size() == frames.length || pending.size() >= flushRecords) lock.notifyAll();
+            return appended;
+        }
+    }
+
+    /**
+     * Blocks until the record with the supplied sequence number has been forced to disk.
+     */
+    public void await(long lsn) {
+        synchronized (lock) {
+            try {
+                while (durable < lsn && failure == null && flusher != null) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GriffonDomainException("Interrupted while waiting for journal " + file, e);
+            }
+            if (durable < lsn) {
+                throw new GriffonDomainException("Record " + lsn + " of journal " + file + " could not be written", failure);
+            }
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk without waiting for the flush interval.
+     */
+    public void flush() {
+        long lsn;
+        synchronized (lock) {
+            lsn = appended;
+            flushRequested = true;
+            lock.notifyAll();
+        }
+        await(lsn);
+    }
+
+    /**
+     * Makes sure the next record appended gets a sequence number above the supplied one,
+     * which a snapshot may have recorded before the journal file was discarded.
+     */
+    public void advance(long lsn) {
+        synchronized (lock) {
+            if (appended < lsn) {
+                appended = lsn;
+                durable = Math.max(durable, lsn);
+            }
+        }
+    }
+
+    /**
+     * Discards every record appended from now on, returning the sequence number of the
+     * last record kept. Used by journals that capture changes for a limited time only,
+     * as writers may still hold on to them after they have been retired.
+     */
+    public long seal() {
+        synchronized (lock) {
+            sealed = true;
+            return appended;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record appended.
+     */
+    public long lastSequence() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    /**
+     * Writes pending records and closes the file. Further appends fail.
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            thread = flusher;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channelLock) {
+            synchronized (lock) {
+                flusher = null;
+                lock.notifyAll();
+                try {
+                    if (failure != null) throw failure;
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new GriffonDomainException("Journal " + file + " is no longer writable", failure);
+        }
+        if (closed) {
+            throw new GriffonDomainException("Journal " + file + " is closed");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer[] batch;
+            long lsn;
+            synchronized (lock) {
+                try {
+                    while (!closed && pending.isEmpty()) {
+                        lock.wait();
+                    }
+                    long deadline = System.currentTimeMillis() + flushInterval;
+                    while (!closed && !flushRequested && pending.size() < flushRecords) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) break;
+                        lock.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                flushRequested = false;
+                if (pending.isEmpty()) {
+                    if (closed) return;
+                    continue;
+                }
+                batch = pending.toArray(new ByteBuffer[pending.size()]);
+                pending = new ArrayList<ByteBuffer>();
+                lsn = appended;
+            }
+
+            try {
+                synchronized (channelLock) {
+                    write(batch);
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                LOG.error("Could not write journal " + file, e);
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                durable = lsn;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void write(ByteBuffer[] batch) throws IOException {
+        int offset = 0;
+        while (offset < batch.length) {
+            channel.write(batch, offset, batch.length - offset);
+            while (offset < batch.length && !batch[offset].hasRemaining()) offset++;
+        }
+    }
+
+    private interface FrameHandler {
+        void onFrame(byte[] body) throws IOException;
+    }
+
+    /**
+     * Receives the records read back by {@link DatastoreJournal#open}. The payload holds
+     * a single record, which handlers may leave partially read.
+     */
+    public interface RecordHandler {
+        void onRecord(byte type, long lsn, DataInput payload) throws IOException;
+    }
+}
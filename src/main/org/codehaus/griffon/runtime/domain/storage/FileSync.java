@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Forces directory entries to disk, so that files created or renamed in a directory
+ * survive a crash along with their contents.
+ * <p/>
+ * Directories can only be opened through {@code java.nio.file}, hence this is a no-op
+ * on runtimes older than Java 7 as well as on platforms that refuse to open them.
+ *
+ * @author Andres Almiray
+ */
+final class FileSync {
+    private FileSync() {
+
+    }
+
+    static void directory(File directory) throws IOException {
+        FileChannel channel;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+            Object path = File.class.getMethod("toPath").invoke(directory.getAbsoluteFile());
+            channel = (FileChannel) FileChannel.class.getMethod("open", pathClass, options.getClass()).invoke(null, path, options);
+        } catch (InvocationTargetException e) {
+            // directories cannot be opened on this platform
+            return;
+        } catch (Exception e) {
+            // java.nio.file is not available
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
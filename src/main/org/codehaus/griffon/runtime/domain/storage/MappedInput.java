@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through memory-mapped windows. Files larger than a single window are
+ * remapped as reading progresses, hence their size is not limited to 2GB.
+ *
+ * @author Andres Almiray
+ */
+final class MappedInput implements DataInput {
+    private static final long WINDOW = 1L << 28;
+    private final FileChannel channel;
+    private final long size;
+    private long offset;
+    private MappedByteBuffer buffer;
+
+    MappedInput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        map(0);
+    }
+
+    long position() {
+        return offset + buffer.position();
+    }
+
+    private void map(long position) throws IOException {
+        offset = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        long position = position();
+        if (position + bytes > size) throw new EOFException();
+        map(position);
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                if (position() >= size) throw new EOFException();
+                map(position());
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public int skipBytes(int n) throws IOException {
+        int skipped = (int) Math.min(n, size - position());
+        long target = position() + skipped;
+        if (target - offset <= buffer.limit()) {
+            buffer.position((int) (target - offset));
+        } else {
+            map(target);
+        }
+        return skipped;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        ensure(1);
+        return buffer.get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        ensure(2);
+        return buffer.getShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        ensure(2);
+        return buffer.getChar();
+    }
+
+    public int readInt() throws IOException {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        ensure(4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        ensure(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * Reads bytes up to the next line terminator as {@link DataInputStream#readLine} does,
+     * returning {@code null} at the end of the file.
+     */
+    public String readLine() throws IOException {
+        if (position() >= size) return null;
+        StringBuilder line = new StringBuilder();
+        while (position() < size) {
+            int c = readUnsignedByte();
+            if (c == '\n') break;
+            if (c == '\r') {
+                if (position() < size) {
+                    ensure(1);
+                    if (buffer.get(buffer.position()) == '\n') buffer.get();
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
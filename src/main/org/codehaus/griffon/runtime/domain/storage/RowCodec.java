@@ -0,0 +1,409 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Binary encoding of domain rows shared by the journal and snapshot files.
+ * <p/>
+ * A row is written as the name of its dataset, its identity and the values of every
+ * persistent property. Values are tagged with their type; references to other domain
+ * instances are written as the dataset name and identity of the target and read back
+ * as {@link Reference}s, as the target may not have been loaded yet. Values of any
+ * other type must be {@code Serializable}.
+ *
+ * @author Andres Almiray
+ */
+public final class RowCodec {
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte DATE = 12;
+    private static final byte SQL_DATE = 13;
+    private static final byte SQL_TIME = 14;
+    private static final byte SQL_TIMESTAMP = 15;
+    private static final byte ENUM = 16;
+    private static final byte REFERENCE = 17;
+    private static final byte LIST = 18;
+    private static final byte SET = 19;
+    private static final byte MAP = 20;
+    private static final byte SERIALIZED = 21;
+
+    private RowCodec() {
+
+    }
+
+    public static void writeRow(DataOutput out, GriffonDomainClass domainClass, Object identity, GriffonDomain entity) throws IOException {
+        writeKey(out, domainClass, identity);
+        GriffonDomainProperty[] properties = domainClass.getPersistentProperties();
+        out.writeInt(properties.length);
+        for (GriffonDomainProperty property : properties) {
+            out.writeUTF(property.getName());
+            writeValue(out, property.getValue(entity));
+        }
+    }
+
+    public static void writeKey(DataOutput out, GriffonDomainClass domainClass, Object identity) throws IOException {
+        out.writeUTF(domainClass.getName());
+        writeValue(out, identity);
+    }
+
+    public static RowImage readRow(DataInput in) throws IOException {
+        return readRow(readDataset(in), in);
+    }
+
+    /**
+     * Reads the name of the dataset a row or key belongs to, which lets readers decide
+     * whether to decode the rest of it.
+     */
+    public static String readDataset(DataInput in) throws IOException {
+        return in.readUTF();
+    }
+
+    /**
+     * Reads the remainder of a row whose dataset name was read by {@link #readDataset}.
+     */
+    public static RowImage readRow(String dataset, DataInput in) throws IOException {
+        Object identity = readValue(in);
+        int count = in.readInt();
+        Map<String, Object> values = new LinkedHashMap<String, Object>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String property = in.readUTF();
+            values.put(property, readValue(in));
+        }
+        return new RowImage(dataset, identity, values);
+    }
+
+    public static RowImage readKey(DataInput in) throws IOException {
+        return readKey(readDataset(in), in);
+    }
+
+    /**
+     * Reads the remainder of a key whose dataset name was read by {@link #readDataset}.
+     */
+    public static RowImage readKey(String dataset, DataInput in) throws IOException {
+        return new RowImage(dataset, readValue(in), null);
+    }
+
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(SQL_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value.getClass() == java.sql.Date.class) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass() == Time.class) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeUTF(((Enum) value).getDeclaringClass().getName());
+            out.writeUTF(((Enum) value).name());
+        } else if (value instanceof GriffonDomain) {
+            GriffonDomainClass domainClass = (GriffonDomainClass) ((GriffonDomain) value).getGriffonClass();
+            Object identity = domainClass.getIdentity().getValue(value);
+            if (identity == null) {
+                throw new NotSerializableException("Cannot write a reference to unsaved instance " + value);
+            }
+            out.writeByte(REFERENCE);
+            writeKey(out, domainClass, identity);
+        } else if (value instanceof List) {
+            out.writeByte(LIST);
+            writeElements(out, (Collection) value);
+        } else if (value instanceof Set) {
+            out.writeByte(SET);
+            writeElements(out, (Collection) value);
+        } else if (value instanceof Map) {
+            out.writeByte(MAP);
+            Map<?, ?> map = (Map) value;
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof CharSequence) {
+            out.writeByte(STRING);
+            writeString(out, value.toString());
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(bytes);
+            stream.writeObject(value);
+            stream.close();
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case BIG_INTEGER:
+                return new BigInteger(in.readUTF());
+            case DATE:
+                return new Date(in.readLong());
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case SQL_TIME:
+                return new Time(in.readLong());
+            case SQL_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case ENUM:
+                return readEnum(in.readUTF(), in.readUTF());
+            case REFERENCE:
+                String dataset = in.readUTF();
+                return new Reference(dataset, readValue(in));
+            case LIST:
+                return readElements(in, new ArrayList<Object>());
+            case SET:
+                return readElements(in, new LinkedHashSet<Object>());
+            case MAP:
+                int size = in.readInt();
+                Map<Object, Object> map = new LinkedHashMap<Object, Object>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            case SERIALIZED:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return deserialize(bytes);
+            default:
+                throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Returns true if the value is, or contains, a {@link Reference}.
+     */
+    public static boolean hasReferences(Object value) {
+        if (value instanceof Reference) {
+            return true;
+        } else if (value instanceof Collection) {
+            for (Object element : (Collection) value) {
+                if (hasReferences(element)) return true;
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (hasReferences(entry.getKey()) || hasReferences(entry.getValue())) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every {@link Reference} held by the value with the instance returned by the resolver.
+     * Collection elements and map entries whose reference cannot be resolved are dropped.
+     */
+    public static Object resolve(Object value, ReferenceResolver resolver) {
+        if (value instanceof Reference) {
+            return resolver.resolve((Reference) value);
+        } else if (value instanceof Collection) {
+            Collection<Object> elements = value instanceof Set ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+            for (Object element : (Collection) value) {
+                Object resolved = resolve(element, resolver);
+                if (resolved != null || !(element instanceof Reference)) elements.add(resolved);
+            }
+            return elements;
+        } else if (value instanceof Map) {
+            Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object key = resolve(entry.getKey(), resolver);
+                if (key == null && entry.getKey() instanceof Reference) continue;
+                entries.put(key, resolve(entry.getValue(), resolver));
+            }
+            return entries;
+        }
+        return value;
+    }
+
+    // writeUTF is limited to 64K of encoded data
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeElements(DataOutput out, Collection<?> elements) throws IOException {
+        out.writeInt(elements.size());
+        for (Object element : elements) {
+            writeValue(out, element);
+        }
+    }
+
+    private static Collection<Object> readElements(DataInput in, Collection<Object> elements) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            elements.add(readValue(in));
+        }
+        return elements;
+    }
+
+    private static Object readEnum(String className, String name) throws IOException {
+        try {
+            Class type = Class.forName(className, true, classLoader());
+            return Enum.valueOf(type, name);
+        } catch (ClassNotFoundException e) {
+            throw (IOException) new InvalidClassException(className).initCause(e);
+        }
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader());
+                } catch (ClassNotFoundException e) {
+                    return super.resolveClass(desc);
+                }
+            }
+        };
+        try {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw (IOException) new InvalidClassException(e.getMessage()).initCause(e);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static ClassLoader classLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : RowCodec.class.getClassLoader();
+    }
+
+    /**
+     * Identifies a row of another dataset.
+     */
+    public static final class Reference {
+        private final String dataset;
+        private final Object identity;
+
+        public Reference(String dataset, Object identity) {
+            this.dataset = dataset;
+            this.identity = identity;
+        }
+
+        public String getDataset() {
+            return dataset;
+        }
+
+        public Object getIdentity() {
+            return identity;
+        }
+
+        @Override
+        public String toString() {
+            return dataset + "#" + identity;
+        }
+    }
+
+    public interface ReferenceResolver {
+        Object resolve(Reference reference);
+    }
+}
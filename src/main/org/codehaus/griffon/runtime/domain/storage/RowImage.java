@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import java.util.Map;
+
+/**
+ * A row read back by {@link RowCodec}. Deleted rows carry no values.
+ *
+ * @author Andres Almiray
+ */
+public final class RowImage {
+    private final String dataset;
+    private final Object identity;
+    private final Map<String, Object> values;
+
+    public RowImage(String dataset, Object identity, Map<String, Object> values) {
+        this.dataset = dataset;
+        this.identity = identity;
+        this.values = values;
+    }
+
+    public String getDataset() {
+        return dataset;
+    }
+
+    public Object getIdentity() {
+        return identity;
+    }
+
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return dataset + "#" + identity;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codehaus.griffon.runtime.domain.storage;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainProperty;
+import org.codehaus.griffon.runtime.domain.ConcurrentHashMapDatastore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.*;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+
+/**
+ * Rebuilds the rows of a datastore from {@link RowImage}s. Rows are stored directly,
+ * skipping validation, events and the journal. Properties referring to other rows are
+ * set once every row has been loaded, see {@link #resolveReferences()}.
+ *
+ * @author Andres Almiray
+ */
+public class RowLoader implements DatastoreJournal.RecordHandler, RowCodec.ReferenceResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(RowLoader.class);
+    private final ConcurrentHashMapDatastore datastore;
+    private final Map<GriffonDomain, Map<GriffonDomainProperty, Object>> references = new IdentityHashMap<GriffonDomain, Map<GriffonDomainProperty, Object>>();
+    private final Map<String, Long> horizons = new HashMap<String, Long>();
+    private long skippedRecords;
+    private long highestSkippedRecord;
+
+    public RowLoader(ConcurrentHashMapDatastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * Ignores journal records of the dataset up to and including the supplied sequence
+     * number, as they are already reflected by a snapshot.
+     */
+    public void skipRecords(String dataset, long lsn) {
+        horizons.put(dataset, lsn);
+        highestSkippedRecord = Math.max(highestSkippedRecord, lsn);
+    }
+
+    /**
+     * Ignores journal records of every dataset up to and including the supplied sequence number.
+     */
+    public void skipRecords(long lsn) {
+        skippedRecords = Math.max(skippedRecords, lsn);
+        highestSkippedRecord = Math.max(highestSkippedRecord, lsn);
+    }
+
+    public long getHighestSkippedRecord() {
+        return highestSkippedRecord;
+    }
+
+    /**
+     * Applies a journal record. Records already reflected by a snapshot are skipped
+     * before their row is decoded.
+     */
+    public void onRecord(byte type, long lsn, DataInput payload) throws IOException {
+        switch (type) {
+            case DatastoreJournal.SAVE:
+            case DatastoreJournal.DELETE:
+                if (lsn <= skippedRecords) {
+                    payload.skipBytes(Integer.MAX_VALUE);
+                    break;
+                }
+                String dataset = RowCodec.readDataset(payload);
+                if (skipped(dataset, lsn)) {
+                    payload.skipBytes(Integer.MAX_VALUE);
+                } else if (type == DatastoreJournal.SAVE) {
+                    load(RowCodec.readRow(dataset, payload));
+                } else {
+                    unload(RowCodec.readKey(dataset, payload));
+                }
+                break;
+            case DatastoreJournal.IDENTITY:
+                // marks only ever grow, hence they are safe to apply whatever their sequence number
+                restoreHighWaterMark(payload.readUTF(), payload.readLong());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type + " at sequence " + lsn);
+        }
+    }
+
+    public void restoreHighWaterMark(String dataset, long mark) {
+        datastore.restoreHighWaterMark(dataset, mark);
+    }
+
+    private boolean skipped(String dataset, long lsn) {
+        Long horizon = horizons.get(dataset);
+        return lsn <= skippedRecords || horizon != null && lsn <= horizon;
+    }
+
+    public GriffonDomain load(RowImage image) {
+        ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(image);
+        if (dataset == null) return null;
+        GriffonDomain entity = materialize(dataset.getDomainClass(), image);
+        dataset.load(entity);
+        return entity;
+    }
+
+    /**
+     * Loads a batch of rows belonging to the same dataset.
+     */
+    public void load(List<RowImage> images) {
+        if (images.isEmpty()) return;
+        ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datasetOf(images.get(0));
+        if (dataset == null) return;
+        List<GriffonDomain> entities = new ArrayList<GriffonDomain>(images.size());
+        for (RowImage image : images) {
+            entities.add(materialize(dataset.getDomainClass(), image));
+        }
+        dataset.load(entities);
+    }
+
+    private ConcurrentHashMapDatastore.Dataset<GriffonDomain> datasetOf(RowImage image) {
+        ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datastore.dataset(image.getDataset());
+        if (dataset == null) {
+            LOG.warn("Skipping row " + image + " as its domain class no longer exists");
+        }
+        return dataset;
+    }
+
+    private GriffonDomain materialize(GriffonDomainClass domainClass, RowImage image) {
+        GriffonDomain entity = (GriffonDomain) domainClass.newInstance();
+        for (Map.Entry<String, Object> entry : image.getValues().entrySet()) {
+            GriffonDomainProperty property = domainClass.getPropertyByName(entry.getKey());
+            if (property == null) continue;
+            if (RowCodec.hasReferences(entry.getValue())) {
+                Map<GriffonDomainProperty, Object> values = references.get(entity);
+                if (values == null) {
+                    values = new LinkedHashMap<GriffonDomainProperty, Object>();
+                    references.put(entity, values);
+                }
+                values.put(property, entry.getValue());
+            } else {
+                setValue(entity, property, entry.getValue());
+            }
+        }
+        domainClass.getIdentity().setValue(entity, image.getIdentity());
+        return entity;
+    }
+
+    public void unload(RowImage image) {
+        ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datastore.dataset(image.getDataset());
+        if (dataset != null) dataset.unload(image.getIdentity());
+    }
+
+    /**
+     * Sets the properties referring to other rows. References to rows that no longer
+     * exist are resolved to {@code null}.
+     */
+    public void resolveReferences() {
+        for (Map.Entry<GriffonDomain, Map<GriffonDomainProperty, Object>> entry : references.entrySet()) {
+            GriffonDomain entity = entry.getKey();
+            for (Map.Entry<GriffonDomainProperty, Object> value : entry.getValue().entrySet()) {
+                setValue(entity, value.getKey(), RowCodec.resolve(value.getValue(), this));
+            }
+        }
+        references.clear();
+    }
+
+    public Object resolve(RowCodec.Reference reference) {
+        ConcurrentHashMapDatastore.Dataset<GriffonDomain> dataset = datastore.dataset(reference.getDataset());
+        if (dataset == null || reference.getIdentity() == null) return null;
+        return dataset.fetch(normalizeIdentity(reference.getIdentity()));
+    }
+
+    private void setValue(GriffonDomain entity, GriffonDomainProperty property, Object value) {
+        try {
+            property.setValue(entity, value);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not restore property " + property.getName() + " of " + entity.getClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.validation.constraints;
+
+import griffon.plugins.domain.GriffonDomain;
+import griffon.plugins.domain.GriffonDomainClass;
+import griffon.plugins.domain.GriffonDomainHandler;
+import griffon.plugins.validation.Errors;
+
+import static org.codehaus.griffon.runtime.domain.DatasetKeys.normalizeIdentity;
+
+/**
+ * Checks uniqueness by asking the domain handler of the class which stored instance
+ * owns the value, which the in-memory datastore answers from its unique indexes
+ * without scanning stored rows. Instances of classes that are not domain classes are
+ * not checked.
+ * <p/>
+ * Passing validation does not guarantee that a later save succeeds, as another row may
+ * be saved with the same value in the meantime; saves claim unique values atomically.
+ *
+ * @author Andres Almiray
+ */
+public class UniqueConstraint extends AbstractUniqueConstraint {
+    public static final String DEFAULT_NOT_UNIQUE_MESSAGE_CODE = "default.not.unique.message";
+    public static final String DEFAULT_NOT_UNIQUE_MESSAGE = "Property [{0}] of class [{1}] with value [{2}] must be unique";
+
+    @Override
+    protected void processValidate(Object target, Object propertyValue, Errors errors) {
+        if (target instanceof GriffonDomain) super.processValidate(target, propertyValue, errors);
+    }
+
+    @Override
+    protected void doUniqueConstraintCheck(Object target, Object propertyValue, Errors errors) {
+        GriffonDomain domain = (GriffonDomain) target;
+        GriffonDomainClass domainClass = (GriffonDomainClass) domain.getGriffonClass();
+        GriffonDomainHandler handler = domainClass.getDomainHandler();
+
+        Object owner = handler.uniqueOwnerOf(domain, constraintPropertyName, getUniquenessGroup());
+        if (owner != null && !normalizeIdentity(owner).equals(normalizeIdentity(domainClass.getIdentity().getValue(domain)))) {
+            Object[] args = new Object[]{constraintPropertyName, constraintOwningClass, propertyValue};
+            rejectValue(target, errors, DEFAULT_NOT_UNIQUE_MESSAGE_CODE, VALIDATION_DSL_NAME, args);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package griffon.plugins.domain
+
+import griffon.transform.Domain
+
+@Domain
+class Badge {
+    String code
+    String tenant
+    String holder
+
+    static constraints = {
+        code(nullable: false, unique: 'tenant')
+        tenant(nullable: false)
+        holder(nullable: true, unique: true)
+    }
+
+    String toString() {"<$id> $tenant/$code $holder"}
+}
@@ -0,0 +1,130 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.exceptions.UniqueConstraintException
+import griffon.plugins.validation.exceptions.ValidationException
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+import org.codehaus.griffon.runtime.domain.AbstractGriffonDomainHandler
+import org.codehaus.griffon.runtime.domain.DefaultGriffonDomainHandler
+import org.codehaus.griffon.runtime.domain.MemoryGriffonDomainHandler
+
+import java.util.concurrent.CountDownLatch
+
+class BadgeTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+    }
+
+    void testUniquenessGroups() {
+        assert Badge.create(code: 'g-1', tenant: 'acme').save()
+        assert Badge.create(code: 'g-1', tenant: 'initech').save()
+
+        Badge duplicate = Badge.create(code: 'g-1', tenant: 'acme')
+        assert !duplicate.validate()
+        assert duplicate.errors.getFieldError('code')
+        assert !duplicate.save()
+        assert !duplicate.id
+        shouldFail(ValidationException) { duplicate.save(failOnError: true) }
+        // storing bypasses validation but the datastore still refuses the duplicate
+        shouldFail(UniqueConstraintException) { duplicate.save(validate: false, failOnError: true) }
+
+        Badge moved = Badge.findByTenantAndCode('initech', 'g-1')
+        moved.tenant = 'umbrella'
+        assert moved.save()
+        assert Badge.create(code: 'g-1', tenant: 'initech').save()
+        moved.delete()
+        assert Badge.create(code: 'g-1', tenant: 'umbrella').save()
+    }
+
+    void testHandlersTellUniqueOwners() {
+        Badge saved = Badge.create(code: 'o-1', tenant: 'acme', holder: 'o-alice')
+        assert saved.save()
+        Badge duplicate = Badge.create(code: 'o-1', tenant: 'acme', holder: 'o-bob')
+        Badge other = Badge.create(code: 'o-1', tenant: 'initech', holder: 'o-carol')
+
+        MemoryGriffonDomainHandler memory = MemoryGriffonDomainHandler.instance
+        // answers through findWhere, as handlers of other datastores do
+        AbstractGriffonDomainHandler querying = new AbstractGriffonDomainHandler() {
+            protected Map getInstanceMethods() { [:] }
+
+            protected Map getStaticMethods() { memory.getStaticMethods() }
+
+            String getMapping() { 'querying' }
+        }
+        [memory, querying].each { handler ->
+            assert handler.uniqueOwnerOf(saved, 'code', ['tenant']) == saved.id
+            assert handler.uniqueOwnerOf(duplicate, 'code', ['tenant']) == saved.id
+            assert handler.uniqueOwnerOf(duplicate, 'holder', []) == null
+            assert handler.uniqueOwnerOf(other, 'code', ['tenant']) == null
+        }
+        assert new DefaultGriffonDomainHandler().uniqueOwnerOf(duplicate, 'code', ['tenant']) == null
+    }
+
+    void testSaveAllRejectsDuplicatesWithinTheBatch() {
+        List badges = [
+            Badge.create(code: 'b-1', tenant: 'acme', holder: 'b-alice'),
+            Badge.create(code: 'b-2', tenant: 'acme', holder: 'b-alice'),
+            Badge.create(code: 'b-1', tenant: 'acme', holder: 'b-bob')
+        ]
+        List saved = Badge.saveAll(badges)
+        assert saved.holder == ['b-alice']
+        assert badges[1].errors.getFieldError('holder')
+        assert badges[2].errors.getFieldError('code')
+        assert !badges[1].id && !badges[2].id
+
+        shouldFail(ValidationException) {
+            Badge.saveAll([Badge.create(code: 'b-3', tenant: 'acme'), Badge.create(code: 'b-3', tenant: 'acme')], [failOnError: true])
+        }
+        assert !Badge.findByCode('b-3')
+    }
+
+    void testConcurrentSavesClaimUniqueValuesOnce() {
+        def latch = new CountDownLatch(1)
+        def saved = Collections.synchronizedList([])
+        def threads = (1..8).collect {
+            Thread.start {
+                latch.await()
+                def badge = Badge.create(code: 'race', tenant: 'acme').save(validate: false)
+                if (badge) saved << badge
+            }
+        }
+        latch.countDown()
+        threads*.join()
+
+        assert saved.size() == 1
+        assert Badge.findAllByCode('race').size() == 1
+    }
+
+    void testUpdateAllHonoursUniqueConstraints() {
+        Badge.create(code: 'u-1', tenant: 'acme').save()
+        Badge.create(code: 'u-2', tenant: 'acme').save()
+        shouldFail(UniqueConstraintException) {
+            Badge.updateAll(code: 'u-1') { code == 'u-2' }
+        }
+        assert Badge.findAllByTenantAndCode('acme', 'u-1').size() == 1
+    }
+
+    void testRollbackWithoutImagesPutsBackVersionsOnly() {
+        Badge kept = Badge.create(code: 'tx-1', tenant: 'acme').save()
+        assert kept.version == 0
+
+        shouldFail(IllegalStateException) {
+            Badge.withTransaction {
+                kept.holder = 'tx-holder'
+                kept.save()
+                Badge.create(code: 'tx-2', tenant: 'acme').save()
+                throw new IllegalStateException('abort')
+            }
+        }
+        assert !Badge.findByCode('tx-2')
+        assert kept.version == 0
+        assert kept.holder == 'tx-holder'
+        kept.save()
+        assert kept.version == 1
+    }
+}
@@ -0,0 +1,169 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.exceptions.GriffonDomainException
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+import org.codehaus.griffon.runtime.domain.ConcurrentHashMapDatastore
+import org.codehaus.griffon.runtime.domain.storage.DatastoreJournal
+
+class DatastoreJournalTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+    private File directory
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+
+        directory = File.createTempFile('journal', '')
+        directory.delete()
+        app.config.griffon.domain.journal.enabled = true
+        app.config.griffon.domain.journal.directory = directory.absolutePath
+        app.config.griffon.domain.journal.flushInterval = 5
+    }
+
+    void tearDown() {
+        app.config.griffon.domain.journal.enabled = false
+        directory.deleteDir()
+    }
+
+    void testJournalIsReplayed() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('journal')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'j-a', price: 10))
+        Item b = items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'j-b', price: 20))
+        Item c = items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'j-c', price: 30))
+        b.price = 25
+        items.save(b)
+        items.remove(c)
+        datastore.close()
+
+        datastore = new ConcurrentHashMapDatastore('journal')
+        items = datastore.dataset(domainClass)
+        assert items.list().code == ['j-a', 'j-b']
+        assert items.list().price == [10, 25]
+        // the identity of the deleted row is not handed out again
+        assert datastore.getHighWaterMark(domainClass) >= c.id
+        assert datastore.nextIdentity(domainClass) > c.id
+        datastore.close()
+    }
+
+    void testSnapshotIsLoadedBeforeJournal() {
+        app.config.griffon.domain.snapshot.enabled = true
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('snapshot')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        Item a = items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 's-a', price: 10))
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 's-b', price: 20))
+        datastore.snapshot()
+        a.price = 15
+        items.save(a)
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 's-c', price: 30))
+        // no final snapshot, the last changes come from the journal
+        datastore.journal.close()
+
+        datastore = new ConcurrentHashMapDatastore('snapshot')
+        items = datastore.dataset(domainClass)
+        assert new File(directory, 'snapshot.checkpoint/Item.snapshot').exists()
+        assert items.list().code == ['s-a', 's-b', 's-c']
+        assert items.list().price == [15, 20, 30]
+        assert items.first([code: 's-b']).price == 20
+        datastore.close()
+        app.config.griffon.domain.snapshot.enabled = false
+    }
+
+    void testCheckpointCompactsJournal() {
+        app.config.griffon.domain.snapshot.enabled = true
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('compact')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        20.times { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "k-$it", price: it)) }
+        datastore.snapshot()
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'k-late', price: 20))
+        datastore.journal.flush()
+
+        List saves = []
+        DatastoreJournal.replay(datastore.journal.file, { byte type, long lsn, DataInput payload ->
+            if (type == DatastoreJournal.SAVE) saves << lsn
+        } as DatastoreJournal.RecordHandler)
+        assert saves.size() == 1
+        datastore.journal.close()
+
+        datastore = new ConcurrentHashMapDatastore('compact')
+        items = datastore.dataset(domainClass)
+        assert items.size() == 21
+        assert items.first([code: 'k-late']).price == 20
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'k-next', price: 21))
+        assert datastore.journal.lastSequence() > saves[0]
+        datastore.close()
+        app.config.griffon.domain.snapshot.enabled = false
+    }
+
+    void testFailedCompactionKeepsJournal() {
+        app.config.griffon.domain.snapshot.enabled = true
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('uncompacted')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        5.times { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "u-$it", price: it)) }
+        File blocker = new File(datastore.journal.file.path + '.compact')
+        assert blocker.mkdirs()
+
+        datastore.snapshot()
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'u-late', price: 5))
+        datastore.journal.flush()
+        blocker.deleteDir()
+        datastore.close()
+
+        datastore = new ConcurrentHashMapDatastore('uncompacted')
+        items = datastore.dataset(domainClass)
+        assert items.size() == 6
+        assert items.first([code: 'u-late']).price == 5
+        datastore.close()
+        app.config.griffon.domain.snapshot.enabled = false
+    }
+
+    void testCheckpointWithoutJournal() {
+        app.config.griffon.domain.journal.enabled = false
+        app.config.griffon.domain.snapshot.enabled = true
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('checkpoint')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        100.times { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "c-$it", price: it)) }
+        def checkpoint = datastore.checkpoint()
+        items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'c-late', price: 100))
+        checkpoint.get()
+
+        datastore = new ConcurrentHashMapDatastore('checkpoint')
+        items = datastore.dataset(domainClass)
+        assert items.size() in [100, 101]
+        assert items.first([code: 'c-99']).price == 99
+        assert datastore.nextIdentity(domainClass) > 100
+        app.config.griffon.domain.snapshot.enabled = false
+    }
+
+    void testRowsThatCannotBeJournaledAreLeftUnchanged() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('unencodable')
+        GriffonDomainClass domainClass = Book.create().griffonClass
+        def books = datastore.dataset(domainClass)
+        Author unsaved = Author.create(name: 'unsaved', lastName: 'author')
+
+        Book orphan = Book.create(id: datastore.nextIdentity(domainClass), title: 'orphan', author: unsaved)
+        shouldFail(GriffonDomainException) { books.save(orphan) }
+        shouldFail(GriffonDomainException) { books.saveAll([orphan]) }
+        assert !books.exists(orphan.id)
+        assert orphan.version == null
+
+        Book kept = books.save(Book.create(id: datastore.nextIdentity(domainClass), title: 'kept'))
+        shouldFail(GriffonDomainException) { books.updateAll(null, [title: 'changed', author: unsaved]) }
+        assert kept.title == 'kept' && kept.author == null
+        assert kept.version == 0
+        datastore.close()
+
+        datastore = new ConcurrentHashMapDatastore('unencodable')
+        books = datastore.dataset(domainClass)
+        assert books.list().title == ['kept']
+        datastore.close()
+    }
+}
@@ -0,0 +1,69 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.transfer.*
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+
+class DomainTransferTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+    }
+
+    void testCsvImportReportsRejectedRows() {
+        String csv = '''code,category,price,unknown
+csv-a,tools,10,x
+csv-b,"books, used",abc,x
+
+,tools,30,x
+"csv-""c""",,40,x
+'''
+        DomainImporter importer = new DomainImporter(Item.create().griffonClass)
+        importer.batchSize = 2
+        importer.workers = 2
+        ImportReport report = importer.importRows(new CsvRowReader(new StringReader(csv)))
+
+        assert report.read == 4
+        assert report.imported == 2
+        assert report.rejected == 2
+        assert report.errors.row == [2, 3]
+        assert report.errors[0].errors.code == ['typeMismatch']
+        assert Item.findByCode('csv-a').price == 10
+        assert Item.findByCode('csv-"c"').category == null
+    }
+
+    void testJsonRoundTrip() {
+        String json = '[{"code": "json-a", "price": 1}, {"code": "json-b", "category": "{[tricky]}", "price": 2}]'
+        ImportReport report = new DomainImporter(Item.create().griffonClass).importRows(new JsonRowReader(new StringReader(json)))
+        assert report.imported == 2 && !report.hasErrors()
+
+        StringWriter out = new StringWriter()
+        JsonRowWriter writer = new JsonRowWriter(out)
+        assert new DomainExporter(Item.create().griffonClass).exportRows(writer) { code == 'json-b' } == 1
+        writer.close()
+
+        def rows = []
+        JsonRowReader reader = new JsonRowReader(new StringReader(out.toString()))
+        for (Map row = reader.read(); row != null; row = reader.read()) rows << row
+        assert rows.size() == 1
+        assert rows[0].category == '{[tricky]}'
+        assert rows[0].price == 2
+        assert rows[0].id == Item.findByCode('json-b').id
+    }
+
+    void testCsvExport() {
+        Item.create(code: 'export, "quoted"', category: 'multi\nline', price: 5).save(failOnError: true)
+        StringWriter out = new StringWriter()
+        CsvRowWriter writer = new CsvRowWriter(out)
+        new DomainExporter(Item.create().griffonClass).exportRows(writer) { code == 'export, "quoted"' }
+
+        Map row = new CsvRowReader(new StringReader(out.toString())).read()
+        assert row.code == 'export, "quoted"'
+        assert row.category == 'multi\nline'
+        assert row.price == '5'
+    }
+}
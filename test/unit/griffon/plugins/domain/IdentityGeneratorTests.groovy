@@ -0,0 +1,36 @@
+package griffon.plugins.domain
+
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+
+class IdentityGeneratorTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+    }
+
+    void testSequencesArePerClass() {
+        Item item = Item.create(code: 'seq', price: 1).save(failOnError: true)
+        Reading reading = Reading.create(sensor: 'seq').save(failOnError: true)
+        Item next = Item.create(code: 'seq', price: 2).save(failOnError: true)
+        assert item.id instanceof Long
+        assert next.id == item.id + 1
+        assert reading.id > 0
+    }
+
+    void testTimeOrderedIdentities() {
+        List tickets = (1..5000).collect { Ticket.create(subject: "t-$it") }
+        Ticket.saveAll(tickets)
+        Ticket last = Ticket.create(subject: 'last').save(failOnError: true)
+
+        List ids = tickets.id + last.id
+        assert ids == ids.sort(false)
+        assert ids.unique(false).size() == ids.size()
+        long millis = (last.id >>> 22) + 1356998400000L
+        assert Math.abs(System.currentTimeMillis() - millis) < 60000
+    }
+}
@@ -0,0 +1,25 @@
+package griffon.plugins.domain
+
+import griffon.persistence.Indexed
+import griffon.persistence.Partitioned
+import griffon.persistence.Restorable
+import griffon.transform.Domain
+
+@Domain
+@Partitioned(4)
+@Restorable
+class Item {
+    @Indexed
+    String code
+    String category
+    @Indexed(ordered = true)
+    Integer price
+
+    static constraints = {
+        code(nullable: false, blank: false)
+        category(nullable: true)
+        price(nullable: true)
+    }
+
+    String toString() {"<$id> $code $category [$price]"}
+}
@@ -0,0 +1,454 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.exceptions.StaleObjectException
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+import org.codehaus.griffon.runtime.domain.ConcurrentHashMapDatastore
+import org.codehaus.griffon.runtime.domain.DatasetPartition
+import org.codehaus.griffon.runtime.domain.RowFactory
+
+class ItemTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+    }
+
+    void testIndexedFinders() {
+        Item.create(code: 'idx-a', category: 'tools', price: 10).save(failOnError: true)
+        Item.create(code: 'idx-b', category: 'tools', price: 20).save(failOnError: true)
+        Item.create(code: 'idx-a', category: 'books', price: 30).save(failOnError: true)
+
+        assert Item.findByCode('idx-b').price == 20
+        assert Item.findAllByCode('idx-a').price == [10, 30]
+        assert Item.findAllByCodeAndCategory('idx-a', 'books').price == [30]
+        assert Item.findWhere(code: "${'idx'}-a").price == 10
+        assert Item.findAllWhere(code: 'idx-a', category: 'tools').price == [10]
+
+        Item item = Item.findByCode('idx-b')
+        item.code = 'idx-c'
+        item.save(failOnError: true)
+        assert !Item.findByCode('idx-b')
+        assert Item.findByCode('idx-c').price == 20
+
+        item.delete()
+        assert !Item.findByCode('idx-c')
+    }
+
+    void testOrderedIndex() {
+        Item.create(code: 'rng-a', price: 5003).save(failOnError: true)
+        Item.create(code: 'rng-b', price: 5001).save(failOnError: true)
+        Item.create(code: 'rng-c', price: 5002).save(failOnError: true)
+
+        assert Item.findAllByPriceGreaterThan(5001).code == ['rng-a', 'rng-c']
+        assert Item.findAllByPriceGreaterThanEquals(5001).code == ['rng-a', 'rng-b', 'rng-c']
+        assert Item.listOrderByPrice(order: 'desc', max: 2).code == ['rng-a', 'rng-c']
+        assert Item.last('price').code == 'rng-a'
+    }
+
+    void testPagination() {
+        [7, 3, 9, 1, 5].each { Item.create(code: 'page', category: "page-$it", price: 6000 + it).save(failOnError: true) }
+
+        def page = Item.findAllByCode('page', [max: 2, offset: 1, sort: 'category', order: 'desc'])
+        assert page.category == ['page-7', 'page-5']
+        assert page.totalCount == 5
+        assert Item.findAllWhere([code: 'page'], [max: 3, sort: 'price']).price == [6001, 6003, 6005]
+        assert Item.findAll([code: 'page'], [max: 1, offset: 4]).price == [6005]
+        assert Item.list(max: 2, sort: 'category', order: 'desc').totalCount == Item.count()
+    }
+
+    void testSortByMultipleProperties() {
+        [['b', 3], ['A', 2], [null, 5], ['b', 1], ['a', 4]].each { category, price ->
+            Item.create(code: 'multi', category: category, price: 6100 + price).save(failOnError: true)
+        }
+
+        assert Item.findAllByCode('multi', [sort: 'category,price', order: 'asc']).price == [6105, 6102, 6104, 6101, 6103]
+        assert Item.findAllByCode('multi', [sort: ['category', 'price'], order: ['desc', 'asc']]).price == [6101, 6103, 6104, 6102, 6105]
+        assert Item.findAllByCode('multi', [sort: 'category', nulls: 'last', max: 2]).price == [6102, 6104]
+        assert Item.findAllByCode('multi', [sort: ['category', 'price'], ignoreCase: true]).price == [6105, 6102, 6104, 6101, 6103]
+        assert Item.findAllByCode('multi', [sort: ['category', 'price'], ignoreCase: true, order: 'desc', offset: 3]).price == [6102, 6105]
+    }
+
+    void testCountAndExists() {
+        Item first = Item.create(code: 'cnt', price: 7001).save(failOnError: true)
+        Item.create(code: 'cnt', price: 7002).save(failOnError: true)
+
+        assert Item.countByCode('cnt') == 2
+        assert Item.countByCodeAndPrice('cnt', 7002) == 1
+        assert Item.exists(first.id)
+        assert Item.exists(first.id as Integer)
+        assert !Item.exists(-1L)
+    }
+
+    void testStream() {
+        (1..5).each { Item.create(code: 'stream', price: 8000 + it).save(failOnError: true) }
+
+        Iterator iterator = Item.stream { code == 'stream' }
+        assert iterator.next().price == 8001
+        assert iterator.next().price == 8002
+        assert Item.stream { code == 'stream' }.collect { it.price } == (8001..8005).toList()
+        assert Item.stream().any { it.code == 'stream' }
+    }
+
+    void testSaveAllAndDeleteAll() {
+        List items = [
+            Item.create(code: 'bulk', price: 1),
+            Item.create(code: '', price: 2),
+            Item.create(code: 'bulk', price: 3)
+        ]
+        List saved = Item.saveAll(items)
+        assert saved.price == [1, 3]
+        assert saved.every { it.id }
+        assert items[1].hasErrors()
+        assert Item.findAllByCode('bulk').price == [1, 3]
+
+        saved[0].price = 10
+        Item.saveAll(saved)
+        assert Item.findAllByCode('bulk').price == [10, 3]
+
+        assert Item.deleteAll(saved + items[1]) == 2
+        assert !Item.findAllByCode('bulk')
+    }
+
+    void testUpdateAllAndDeleteAllByCriterion() {
+        (1..6).each { Item.create(code: 'crit', price: it).save() }
+
+        assert Item.updateAll({ code == 'crit' && price > 3 }, [code: 'moved']) == 3
+        assert Item.findAllByCode('crit').price == [1, 2, 3]
+        assert Item.findAllByCode('moved').price == [4, 5, 6]
+        assert Item.updateAll(price: 0) { code == 'moved' } == 3
+        assert Item.findAllByCode('moved').price == [0, 0, 0]
+
+        assert Item.deleteAll { code == 'moved' } == 3
+        assert !Item.findAllByCode('moved')
+        assert Item.findAllByCode('crit').size() == 3
+    }
+
+    void testCriteriaAreCoercedToPropertyTypes() {
+        Item.create(code: 'coerce', category: 'a', price: 9001).save(failOnError: true)
+        Item.create(code: 'coerce', category: 'b', price: 9002).save(failOnError: true)
+        Item.create(code: 'coerce', price: 9003).save(failOnError: true)
+
+        assert Item.findAll { code == 'coerce' && price > 9001L }.price == [9002, 9003]
+        assert Item.findAll { code == 'coerce' && price <= 9002.0G }.price == [9001, 9002]
+        assert Item.findAll { code == 'coerce' && price < 9001.5 }.price == [9001]
+        assert Item.findAll { code == 'coerce' && (category == 'b' || category == null) }.price == [9002, 9003]
+        assert Item.findAll { code == 'coerce' && category < 'b' }.price == [9001, 9003]
+        assert Item.findAllWhere(code: 'coerce', price: 9002L).category == ['b']
+    }
+
+    void testPropertyValuesAreCoercedOnWrite() {
+        Item item = Item.create(code: 'coerce-write', price: 1).save(failOnError: true)
+        GriffonDomainClass domainClass = item.griffonClass
+        domainClass.getPropertyByName('price').setValue(item, 2L)
+        domainClass.getPropertyByName('code').setValue(item, "${'coerce'}-written")
+        assert item.price instanceof Integer && item.price == 2
+        assert item.code instanceof String && item.code == 'coerce-written'
+        assert domainClass.getPropertyByName('price').getValue(item) == 2
+    }
+
+    void testPrimitiveIdentities() {
+        app.config.griffon.domain.identity.primitive = true
+        try {
+            ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('primitive')
+            GriffonDomainClass domainClass = Item.create().griffonClass
+            def items = datastore.dataset(domainClass)
+            List saved = (1..100).collect { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "prim-$it", price: it)) }
+            saved.findAll { it.price % 2 }.each { items.remove(it) }
+
+            assert items.size() == 50
+            assert items.fetch(saved[1].id as Integer).price == 2
+            assert !items.exists(saved[0].id)
+            assert items.list().price == (2..100).step(2)
+
+            items.save(Item.create(id: saved[0].id, code: 'prim-again', price: 1))
+            assert items.fetch(saved[0].id).code == 'prim-again'
+            assert items.size() == 51
+            assert items.list().price == [1] + (2..100).step(2)
+            assert items.list(sort: 'id', order: 'desc', max: 3).price == [100, 98, 96]
+            datastore.close()
+        } finally {
+            app.config.griffon.domain.identity.primitive = false
+        }
+    }
+
+    void testOrderedReadsAlongsideWritesToPrimitiveIdentities() {
+        app.config.griffon.domain.identity.primitive = true
+        try {
+            ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('primitive-ordered')
+            GriffonDomainClass domainClass = Item.create().griffonClass
+            def items = datastore.dataset(domainClass)
+            List kept = (1..100).collect { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "kept-$it", price: it)) }
+            boolean done = false
+            Thread writer = Thread.start {
+                while (!done) {
+                    Item churn = items.save(Item.create(id: datastore.nextIdentity(domainClass), code: 'churn', price: 0))
+                    items.remove(churn)
+                }
+            }
+            try {
+                200.times {
+                    List ids = items.list().id
+                    assert ids == ids.sort(false)
+                    assert ids.containsAll(kept.id)
+                }
+            } finally {
+                done = true
+                writer.join()
+            }
+            assert items.list().id == kept.id
+            datastore.close()
+        } finally {
+            app.config.griffon.domain.identity.primitive = false
+        }
+    }
+
+    void testPrimitiveIdentitiesSkipBoxedStructures() {
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        SortedMap rows = new TreeMap()
+        for (long id = 1; id <= 1000; id++) {
+            rows[id] = new Item(id: id, code: 'boxed', price: 1)
+        }
+
+        DatasetPartition boxed = new DatasetPartition(domainClass, false)
+        DatasetPartition primitive = new DatasetPartition(domainClass, true)
+        [boxed, primitive]*.load(rows)
+        assert !boxed.@IDENTITIES.primitive
+        assert boxed.@ROWS.size() == 1000
+        assert primitive.@IDENTITIES.primitive
+        // identity order comes from the table itself, no skip list is kept
+        assert primitive.@ROWS == null
+        assert primitive.rows()*.id == (1L..1000L)
+    }
+
+    void testStaleInstancesAreRejected() {
+        Item item = Item.create(code: 'stale', price: 1).save()
+        long version = item.version
+        Item copy = Item.create(id: item.id, version: version, code: 'stale', price: 2)
+
+        item.price = 3
+        item.save()
+        assert item.version == version + 1
+
+        shouldFail(StaleObjectException) { copy.save() }
+        shouldFail(StaleObjectException) { copy.delete() }
+        assert Item.findByCode('stale').price == 3
+
+        copy.version = item.version
+        copy.save()
+        assert Item.findByCode('stale').price == 2
+    }
+
+    void testSharedInstanceEditedByTwoThreadsIsRejected() {
+        Item.create(code: 'shared', price: 1).save()
+        def read = new java.util.concurrent.CountDownLatch(1)
+        def saved = new java.util.concurrent.CountDownLatch(1)
+        def failure = null
+
+        Thread reader = Thread.start {
+            Item item = Item.findByCode('shared')
+            long version = item.version
+            read.countDown()
+            saved.await()
+            item.price = 3
+            item.version = version
+            try {
+                item.save()
+            } catch (StaleObjectException e) {
+                failure = e
+            }
+        }
+        Thread writer = Thread.start {
+            read.await()
+            Item item = Item.findByCode('shared')
+            item.price = 2
+            item.save()
+            saved.countDown()
+        }
+        [reader, writer]*.join()
+
+        assert failure instanceof StaleObjectException
+        Item item = Item.findByCode('shared')
+        shouldFail(StaleObjectException) { item.save() }
+        item.version = item.version + 1
+        item.save()
+        assert item.version == 2
+    }
+
+    void testSaveAllResetsIdentitiesOfUnsavedInserts() {
+        Item item = Item.create(code: 'stale-all', price: 1).save()
+        Item copy = Item.create(id: item.id, version: item.version, code: 'stale-all', price: 2)
+        item.save()
+
+        List inserts = (1..20).collect { Item.create(code: 'stale-all', price: 10 + it) }
+        shouldFail(StaleObjectException) { Item.saveAll([copy] + inserts) }
+        assert inserts.every { it.id == null || Item.get(it.id).is(it) }
+        assert Item.findAllByCode('stale-all').size() == 1 + inserts.count { it.id != null }
+    }
+
+    void testConcurrentFindOrSaveCreatesSingleInstance() {
+        def latch = new java.util.concurrent.CountDownLatch(1)
+        def results = Collections.synchronizedList([])
+        def threads = (1..8).collect { n ->
+            Thread.start {
+                latch.await()
+                results << Item.findOrSaveWhere(code: 'claimed', price: 7)
+                results << Item.findOrSaveByCodeAndPrice('claimed-by', 7)
+            }
+        }
+        latch.countDown()
+        threads*.join()
+
+        assert results.size() == 16
+        assert Item.findAllByCode('claimed').size() == 1
+        assert Item.findAllByCode('claimed-by').size() == 1
+        assert results.findAll { it.code == 'claimed' }.id.unique().size() == 1
+    }
+
+    void testFindOrSaveOnlyHoldsCallersOfTheSameKey() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('claims')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        def creating = new java.util.concurrent.CountDownLatch(1)
+        def proceed = new java.util.concurrent.CountDownLatch(1)
+        def factory = { String code ->
+            { -> items.save(Item.create(id: datastore.nextIdentity(domainClass), code: code, price: 1)) } as RowFactory
+        }
+
+        Thread slow = Thread.start {
+            items.findOrSave([code: 'slow'], { ->
+                creating.countDown()
+                proceed.await()
+                factory('slow').create()
+            } as RowFactory)
+        }
+        creating.await()
+        assert items.findOrSave([code: 'fast'], factory('fast')).code == 'fast'
+
+        Item found = null
+        Thread waiter = Thread.start {
+            found = items.findOrSave([code: 'slow'], { -> throw new IllegalStateException('created twice') } as RowFactory)
+        }
+        waiter.join(50)
+        assert waiter.alive
+        proceed.countDown()
+        slow.join()
+        waiter.join()
+        assert found.is(items.first([code: 'slow']))
+    }
+
+    void testNestedFindOrSaveKeepsEachClaim() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('nested')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        def factory = { String code ->
+            { -> items.save(Item.create(id: datastore.nextIdentity(domainClass), code: code, price: 1)) } as RowFactory
+        }
+
+        Item outer = items.findOrSave([code: 'outer'], { ->
+            assert items.findOrSave([code: 'inner'], factory('inner')).code == 'inner'
+            assert items.findOrSave([code: 'outer'], { -> null } as RowFactory) == null
+            factory('outer').create()
+        } as RowFactory)
+
+        Item found = null
+        Thread other = Thread.start {
+            found = items.findOrSave([code: 'outer'], { -> throw new IllegalStateException('created twice') } as RowFactory)
+        }
+        other.join(5000)
+        assert !other.alive
+        assert found.is(outer)
+        assert items.first([code: 'inner']) != null
+    }
+
+    void testWithTransactionRollsBackChanges() {
+        Item kept = Item.create(code: 'tx', price: 1).save()
+        Item dropped = Item.create(code: 'tx', price: 2).save()
+
+        shouldFail(IllegalStateException) {
+            Item.withTransaction {
+                kept.price = 10
+                kept.save()
+                dropped.delete()
+                Item.create(code: 'tx', price: 3).save()
+                throw new IllegalStateException('abort')
+            }
+        }
+        assert Item.findAllByCode('tx').price == [1, 2]
+        assert kept.price == 1
+
+        def result = Item.withTransaction { status ->
+            kept.price = 20
+            kept.save()
+            def savepoint = status.createSavepoint()
+            Item.updateAll(price: 0) { code == 'tx' }
+            status.rollbackToSavepoint(savepoint)
+            'done'
+        }
+        assert result == 'done'
+        assert Item.findAllByCode('tx').price == [20, 2]
+
+        Item.withTransaction { status ->
+            dropped.delete()
+            status.setRollbackOnly()
+        }
+        assert Item.findAllByCode('tx').price == [20, 2]
+    }
+
+    void testRollbackSkipsRowsChangedByOtherThreads() {
+        Item item = Item.create(code: 'tx-stale', price: 1).save()
+        Item other = Item.create(code: 'tx-stale', price: 1).save()
+
+        // the block's exception is not replaced by the failed rollback
+        assert shouldFail(IllegalStateException) {
+            Item.withTransaction {
+                item.price = 2
+                item.save()
+                other.price = 2
+                other.save()
+                Thread.start {
+                    item.price = 3
+                    item.save()
+                }.join()
+                throw new IllegalStateException('abort')
+            }
+        } == 'abort'
+        assert item.price == 3
+        assert item.version == 2
+        assert other.price == 1
+        assert other.version == 0
+
+        shouldFail(StaleObjectException) {
+            Item.withTransaction { status ->
+                other.price = 4
+                other.save()
+                Thread.start {
+                    other.price = 5
+                    other.save()
+                }.join()
+                status.setRollbackOnly()
+            }
+        }
+        assert other.price == 5
+    }
+
+    void testRowImagesAreOnlyRetainedWhenRequested() {
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        DatasetPartition plain = new DatasetPartition(domainClass, false, false)
+        DatasetPartition restorable = new DatasetPartition(domainClass, false, true)
+        Item item = Item.create(id: 1L, version: 3L, code: 'image', price: 1)
+        plain.save(1L, item)
+        restorable.save(1L, item)
+
+        assert plain.image(1L) == null
+        assert restorable.image(1L).toList().containsAll(['image', 1, 3L])
+        item.version = 4L
+        assert plain.savedVersion(1L) == 3L
+        assert restorable.savedVersion(1L) == 3L
+        plain.remove(1L)
+        assert plain.savedVersion(1L) == null
+    }
+}
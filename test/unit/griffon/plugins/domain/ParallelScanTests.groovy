@@ -0,0 +1,113 @@
+package griffon.plugins.domain
+
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+import org.codehaus.griffon.runtime.domain.ConcurrentHashMapDatastore
+import org.codehaus.griffon.runtime.domain.ParallelScan
+import org.codehaus.griffon.runtime.domain.RowFilter
+
+class ParallelScanTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+        app.config.griffon.domain.parallel.threshold = 100
+        app.config.griffon.domain.parallel.threads = 4
+    }
+
+    void tearDown() {
+        app.config.griffon.domain.parallel.threshold = 0
+    }
+
+    void testParallelQueriesKeepIdentityOrder() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('parallel')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        5000.times { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "p-$it", category: "c${it % 7}")) }
+
+        List matches = items.query([category: 'c3'])
+        assert matches.size() == (0..<5000).count { it % 7 == 3 }
+        assert matches.id == matches.id.sort(false)
+        assert matches.every { it.category == 'c3' }
+    }
+
+    void testParallelSortsSpanSeveralChunks() {
+        ConcurrentHashMapDatastore datastore = new ConcurrentHashMapDatastore('parallel-sort')
+        GriffonDomainClass domainClass = Item.create().griffonClass
+        def items = datastore.dataset(domainClass)
+        20000.times { items.save(Item.create(id: datastore.nextIdentity(domainClass), code: "s-$it", category: "c${(it * 7919) % 100 + 100}")) }
+
+        List sorted = items.list([sort: 'category', order: 'desc'])
+        assert sorted.size() == 20000
+        sorted.inject { a, b ->
+            assert a.category > b.category || (a.category == b.category && a.id < b.id)
+            b
+        }
+    }
+
+    void testFilterKeepsRowOrder() {
+        List rows = (0..<10000).collect { it }
+        List matches = ParallelScan.filter(rows, { it % 3 == 0 } as RowFilter, 4)
+        assert matches == rows.findAll { it % 3 == 0 }
+    }
+
+    void testSortIsStable() {
+        Random random = new Random(42)
+        List rows = (0..<40000).collect { [key: random.nextInt(50), position: it] }
+        Object[] sorted = rows.toArray()
+        ParallelScan.sort(sorted, { a, b -> a.key <=> b.key } as Comparator, 4)
+
+        assert sorted*.position == rows.sort(false) { a, b -> a.key <=> b.key ?: a.position <=> b.position }*.position
+    }
+
+    void testGrowingThePoolKeepsRunningScans() {
+        int threads = Math.max(4, ParallelScan.@poolSize)
+        def sorting = new java.util.concurrent.CountDownLatch(1)
+        def grown = new java.util.concurrent.CountDownLatch(1)
+        Object[] sortable = (0..<40000).collect { 39999 - it }.toArray()
+        Thread sorter = Thread.start {
+            ParallelScan.sort(sortable, { a, b ->
+                if (sorting.count > 0) {
+                    sorting.countDown()
+                    grown.await()
+                }
+                a <=> b
+            } as Comparator, threads)
+        }
+
+        sorting.await()
+        List rows = (0..<10000).collect { it }
+        assert ParallelScan.filter(rows, { it % 2 == 0 } as RowFilter, threads * 2).size() == 5000
+        grown.countDown()
+        sorter.join()
+        assert sortable as List == (0..<40000).collect { it }
+    }
+
+    void testWorkerFailuresReachTheCaller() {
+        List rows = (0..<10000).collect { it }
+        String failedOn = null
+        def e = shouldFail(IllegalStateException) {
+            ParallelScan.filter(rows, { row ->
+                if (row == 9999) {
+                    failedOn = Thread.currentThread().name
+                    throw new IllegalStateException('cannot evaluate row 9999')
+                }
+                true
+            } as RowFilter, 4)
+        }
+        assert e == 'cannot evaluate row 9999'
+        assert failedOn.startsWith('griffon-domain-query-')
+
+        Object[] sortable = (0..<40000).collect { it }.toArray()
+        e = shouldFail(IllegalStateException) {
+            ParallelScan.sort(sortable, { a, b ->
+                if (a == 39999 || b == 39999) throw new IllegalStateException('cannot compare row 39999')
+                a <=> b
+            } as Comparator, 4)
+        }
+        assert e == 'cannot compare row 39999'
+    }
+}
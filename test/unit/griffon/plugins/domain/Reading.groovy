@@ -0,0 +1,24 @@
+package griffon.plugins.domain
+
+import griffon.persistence.Columnar
+import griffon.transform.Domain
+
+@Domain
+@Columnar
+class Reading {
+    String sensor
+    Double level
+    Integer samples
+    Boolean alarm
+    BigDecimal threshold
+
+    static constraints = {
+        sensor(nullable: false, blank: false)
+        level(nullable: true)
+        samples(nullable: true)
+        alarm(nullable: true)
+        threshold(nullable: true)
+    }
+
+    String toString() {"<$id> $sensor $level [$samples]"}
+}
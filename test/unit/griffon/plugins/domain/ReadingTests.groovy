@@ -0,0 +1,88 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.orm.BeanCriterionEvaluator
+import griffon.plugins.domain.orm.Restrictions
+import griffon.test.GriffonUnitTestCase
+import griffon.test.mock.MockGriffonApplication
+import org.codehaus.griffon.runtime.domain.CriterionCompiler
+
+class ReadingTests extends GriffonUnitTestCase {
+    private GriffonApplication app
+
+    void setUp() {
+        ExpandoMetaClassCreationHandle.enable()
+        app = new MockGriffonApplication()
+        app.builderClass = SampleBuilderConfig
+        app.initialize()
+    }
+
+    void testColumnarCriteria() {
+        Reading.create(sensor: 'a', level: 0.5d, samples: 10, alarm: false).save(failOnError: true)
+        Reading.create(sensor: 'b', level: 2.5d, samples: 20, alarm: true).save(failOnError: true)
+        Reading.create(sensor: 'c', level: null, samples: 30, alarm: null).save(failOnError: true)
+        Reading.create(sensor: 'd', level: 1.5d, samples: null, alarm: true).save(failOnError: true)
+
+        assert Reading.findAllByLevelGreaterThan(1).sensor == ['b', 'd']
+        assert Reading.findAllByLevelLessThan(1).sensor == ['a', 'c']
+        assert Reading.findAllBySamplesGreaterThanEquals(20).sensor == ['b', 'c']
+        assert Reading.findAllByAlarm(true).sensor == ['b', 'd']
+        assert Reading.findAllByLevelIsNull().sensor == ['c']
+        assert Reading.countBySamplesNotEqual(20) == 3
+        assert Reading.findAllByAlarmAndLevelGreaterThan(true, 2).sensor == ['b']
+
+        Reading d = Reading.findBySensor('d')
+        d.level = 0.1d
+        d.save(failOnError: true)
+        assert Reading.findAllByLevelGreaterThan(1).sensor == ['b']
+        d.delete()
+        assert Reading.findAllByAlarm(true).sensor == ['b']
+    }
+
+    void testColumnarCandidatesComeInIdentityOrder() {
+        1500.times { Reading.create(sensor: "s$it", level: it % 2, samples: it).save(failOnError: true) }
+        Reading.findAllBySamplesLessThan(10)*.delete()
+        10.times { Reading.create(sensor: "t$it", level: 1, samples: 2000 + it).save(failOnError: true) }
+
+        List ids = Reading.findAllByLevelGreaterThan(0.5d).id
+        assert ids.size() == 755
+        assert ids == ids.sort(false)
+        assert Reading.findAllBySamplesGreaterThanEquals(1999).sensor == (0..<10).collect { "t$it".toString() }
+    }
+
+    void testColumnarScansSeeRowsSavedConcurrently() {
+        200.times { Reading.create(sensor: "s$it", level: 0, samples: it, alarm: it % 4 == 0).save(failOnError: true) }
+        List rows = Reading.list()
+        boolean done = false
+        Thread writer = Thread.start {
+            int round = 0
+            while (!done) {
+                rows.each { it.level = round; it.save() }
+                round++
+            }
+        }
+        try {
+            100.times {
+                List ids = Reading.findAllByAlarm(true).id
+                assert ids.size() == 50
+                assert ids == ids.sort(false)
+            }
+        } finally {
+            done = true
+            writer.join()
+        }
+    }
+
+    void testDecimalCriteriaMatchBeanEvaluation() {
+        GriffonDomainClass domainClass = Reading.create().griffonClass
+        Reading reading = Reading.create(sensor: 'e', threshold: 0.1G)
+        BeanCriterionEvaluator evaluator = new BeanCriterionEvaluator()
+        [0.1G, 0.1d, 0.1f, 0, 1L].each { literal ->
+            ['eq', 'ne', 'gt', 'ge', 'lt', 'le'].each { operator ->
+                def criterion = Restrictions."$operator"('threshold', literal)
+                assert CriterionCompiler.compile(domainClass, criterion).accept(reading) == evaluator.eval(reading, criterion),
+                    "threshold $operator $literal (${literal.getClass().simpleName})"
+            }
+        }
+        assert !CriterionCompiler.compile(domainClass, Restrictions.eq('threshold', 0.1f)).accept(reading)
+    }
+}
@@ -0,0 +1,15 @@
+package griffon.plugins.domain
+
+import griffon.plugins.domain.identity.TimeOrderedIdentityGenerator
+import griffon.transform.Domain
+
+@Domain(identity = TimeOrderedIdentityGenerator)
+class Ticket {
+    String subject
+
+    static constraints = {
+        subject(nullable: false)
+    }
+
+    String toString() {"<$id> $subject"}
+}
@@ -93,6 +93,12 @@ class BeanCriterionEvaluatorTests extends GriffonUnitTestCase {
             }
         }
     }
+
+    void testCompositeOr() {
+        Bean bean = new Bean(prop1: 'aaaa', prop2: 'bbbb')
+        assert evaluator.eval(bean) { prop1 == 'zzzz' || prop2 == 'bbbb' }
+        assert !evaluator.eval(bean) { prop1 == 'zzzz' || prop2 == 'zzzz' }
+    }
 }
 
 class Bean {